@@ -0,0 +1,60 @@
+/*
+ * Moral Machine: benchmarks/AuditBenchmark.java
+ * Benchmarks of Audit.updateStatistics and Audit.toString.
+ *
+ * ©Runfeng Du
+ */
+package benchmarks;
+
+import ethicalengine.Scenario;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AuditBenchmark {
+    @Param({"1", "5", "20"})
+    int laneSize;
+
+    private Object audit;
+    private Scenario[] scenarios;
+    private Object[] decisions;
+    private int next;
+
+    @Setup
+    public void setUp() throws Throwable {
+        scenarios = Corpus.scenarios(laneSize);
+        decisions = new Object[scenarios.length];
+        Object engine = Engine.NEW_DECISION_ENGINE.invokeExact();
+        audit = Engine.NEW_AUDIT.invokeExact();
+        for (int i = 0; i < scenarios.length; i++) {
+            decisions[i] = Engine.DECIDE.invokeExact(engine, scenarios[i]);
+            Engine.UPDATE_STATISTICS.invokeExact(audit, scenarios[i], decisions[i]);
+        }
+    }
+
+    @Benchmark
+    public void updateStatistics() throws Throwable {
+        int i = next++ & (Corpus.SIZE - 1);
+        Engine.UPDATE_STATISTICS.invokeExact(audit, scenarios[i], decisions[i]);
+    }
+
+    @Benchmark
+    public String auditToString() throws Throwable {
+        return (String) Engine.AUDIT_TO_STRING.invokeExact(audit);
+    }
+}
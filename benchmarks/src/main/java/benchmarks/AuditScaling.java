@@ -0,0 +1,133 @@
+/*
+ * Moral Machine: benchmarks/AuditScaling.java
+ * Scaling of ConcurrentAudit with the number of producer threads.
+ *
+ * ©Runfeng Du
+ */
+package benchmarks;
+
+import ethicalengine.Scenario;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * A sweep over thread counts with a concurrent reader, so this is measured
+ * outside JMH. Producer threads count decided scenarios of the seeded corpus
+ * into one shared audit, striped (a stripe per thread) or behind a single
+ * lock (one stripe), while another thread takes a snapshot every few
+ * milliseconds. Snapshots must never go backwards, and the last must count
+ * every update.
+ */
+public class AuditScaling {
+    private static final Pattern RUNS = Pattern.compile("\"runs\":(\\d+)");
+    private static final long SNAPSHOT_INTERVAL_MILLIS = 5;
+
+    /**
+     * Print updates per second for 1, 2, 4, ... threads up to a maximum
+     * @param args seconds per configuration (default 3), maximum threads (default twice the cores) and lane size (default 5)
+     * @throws Throwable when an audit loses or reorders updates
+     */
+    public static void main(String[] args) throws Throwable {
+        int seconds = (args.length > 0) ? Integer.parseInt(args[0]) : 3;
+        int maxThreads = (args.length > 1) ? Integer.parseInt(args[1]) : 2 * Runtime.getRuntime().availableProcessors();
+        int laneSize = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+        Scenario[] scenarios = Corpus.scenarios(laneSize);
+        Object engine = Engine.NEW_DECISION_ENGINE.invokeExact();
+        Object[] decisions = new Object[scenarios.length];
+        for (int i = 0; i < scenarios.length; i++) {
+            decisions[i] = Engine.DECIDE.invokeExact(engine, scenarios[i]);
+        }
+
+        System.out.printf("%d cores, lane size %d, %d s each%n", Runtime.getRuntime().availableProcessors(),
+                laneSize, seconds);
+        System.out.printf("%8s %16s %16s %12s %14s%n", "threads", "striped upd/s", "one lock upd/s", "snapshots",
+                "snapshot us");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            // a fifth of the time warms up, unmeasured
+            measure(threads, threads, scenarios, decisions, seconds * 200_000_000L);
+            Result striped = measure(threads, threads, scenarios, decisions, seconds * 1_000_000_000L);
+            Result locked = measure(threads, 1, scenarios, decisions, seconds * 1_000_000_000L);
+            System.out.printf("%8d %16.0f %16.0f %12d %14.1f%n", threads, striped.updates / (double) seconds,
+                    locked.updates / (double) seconds, striped.snapshots,
+                    striped.snapshotNanos / 1e3 / Math.max(1, striped.snapshots));
+        }
+    }
+
+    /**
+     * Count decisions from producer threads for a while, taking snapshots meanwhile
+     * @param threads producer threads
+     * @param stripes stripes of the audit
+     * @param scenarios scenarios to cycle through
+     * @param decisions decision on each scenario
+     * @param nanos time to run
+     * @return updates counted and snapshots taken
+     * @throws Throwable when the audit loses or reorders updates
+     */
+    private static Result measure(int threads, int stripes, Scenario[] scenarios, Object[] decisions, long nanos)
+            throws Throwable {
+        Object audit = Engine.NEW_CONCURRENT_AUDIT.invokeExact(stripes);
+        long[] updates = new long[threads];
+        CountDownLatch ready = new CountDownLatch(threads);
+        long end = System.nanoTime() + nanos;
+        Thread[] producers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int producer = t;
+            producers[t] = new Thread(() -> {
+                ready.countDown();
+                long count = 0;
+                int next = producer * (Corpus.SIZE / threads);
+                try {
+                    while ((count & 255) != 0 || System.nanoTime() < end) {
+                        int i = next++ & (Corpus.SIZE - 1);
+                        Engine.RECORD.invokeExact(audit, scenarios[i], decisions[i]);
+                        count++;
+                    }
+                }
+                catch (Throwable e) {
+                    throw new IllegalStateException(e);
+                }
+                updates[producer] = count;
+            }, "producer-" + t);
+            producers[t].start();
+        }
+        ready.await();
+
+        Result result = new Result();
+        long lastRuns = 0;
+        while (System.nanoTime() < end) {
+            Thread.sleep(SNAPSHOT_INTERVAL_MILLIS);
+            long start = System.nanoTime();
+            Object snapshot = Engine.SNAPSHOT.invokeExact(audit);
+            result.snapshotNanos += System.nanoTime() - start;
+            result.snapshots++;
+            long runs = runs(snapshot);
+            if (runs < lastRuns) {
+                throw new IllegalStateException("snapshot went back from " + lastRuns + " to " + runs + " runs");
+            }
+            lastRuns = runs;
+        }
+        for (Thread producer: producers) {
+            producer.join();
+        }
+        for (long count: updates) {
+            result.updates += count;
+        }
+        long counted = runs(Engine.SNAPSHOT.invokeExact(audit));
+        if (counted != result.updates) {
+            throw new IllegalStateException("counted " + counted + " of " + result.updates + " updates");
+        }
+        return result;
+    }
+
+    private static long runs(Object audit) throws Throwable {
+        Matcher runs = RUNS.matcher((String) Engine.AUDIT_TO_JSON.invokeExact(audit));
+        return runs.find() ? Long.parseLong(runs.group(1)) : -1;
+    }
+
+    private static final class Result {
+        private long updates;
+        private long snapshots;
+        private long snapshotNanos;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Moral Machine: benchmarks/Corpus.java
+ * Seeded scenario corpora shared by the benchmarks.
+ *
+ * ©Runfeng Du
+ */
+package benchmarks;
+
+import ethicalengine.Animal;
+import ethicalengine.Character;
+import ethicalengine.Person;
+import ethicalengine.Scenario;
+import ethicalengine.ScenarioGenerator;
+import java.util.ArrayList;
+
+final class Corpus {
+    static final long SEED = 20200601L;
+    // scenarios per corpus; a power of two so benchmarks can cycle with a mask
+    static final int SIZE = 1 << 10;
+
+    private Corpus() {}
+
+    /**
+     * Create a generator for scenarios of a given size
+     * @param seed seed of generator
+     * @param laneSize maximum number of characters on each side
+     * @return a generator
+     */
+    static ScenarioGenerator generator(long seed, int laneSize) {
+        return new ScenarioGenerator(seed, 1, laneSize, 1, laneSize);
+    }
+
+    /**
+     * Generate a seeded corpus
+     * @param laneSize maximum number of characters on each side
+     * @return SIZE scenarios
+     */
+    static Scenario[] scenarios(int laneSize) {
+        ScenarioGenerator generator = generator(SEED, laneSize);
+        Scenario[] scenarios = new Scenario[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            scenarios[i] = generator.generate();
+        }
+        return scenarios;
+    }
+
+    /**
+     * Write scenarios as config rows, as read by ScenarioGenerator.parseScenario
+     * @param scenarios scenarios to write
+     * @return rows of fields, without the header line
+     */
+    static ArrayList<String[]> rows(Scenario[] scenarios) {
+        ArrayList<String[]> rows = new ArrayList<>();
+        for (Scenario s: scenarios) {
+            rows.add(new String[] {s.isLegalCrossing() ? "scenario:green" : "scenario:red",
+                    "", "", "", "", "", "", "", "", ""});
+            for (Character c: s.getPassengersList()) {
+                rows.add(row(c, "passenger"));
+            }
+            for (Character c: s.getPedestriansList()) {
+                rows.add(row(c, "pedestrian"));
+            }
+        }
+        return rows;
+    }
+
+    private static String[] row(Character c, String role) {
+        // an unknown gender is written as an empty field
+        String gender = (c.getGender() == Character.Gender.UNKNOWN) ? "" : c.getGender().name().toLowerCase();
+        String age = Integer.toString(c.getAge());
+        String bodyType = c.getBodyType().name().toLowerCase();
+        if (c instanceof Person) {
+            Person p = (Person) c;
+            return new String[] {"person", gender, age, bodyType, p.getProfession().name().toLowerCase(),
+                    Boolean.toString(p.isPregnant()), Boolean.toString(p.isYou()), "", "", role};
+        }
+        Animal a = (Animal) c;
+        return new String[] {"animal", gender, age, bodyType, "", "false", "false",
+                a.getSpecies(), Boolean.toString(a.isPet()), role};
+    }
+}
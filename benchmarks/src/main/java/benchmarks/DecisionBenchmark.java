@@ -0,0 +1,66 @@
+/*
+ * Moral Machine: benchmarks/DecisionBenchmark.java
+ * Benchmarks of DecisionEngine.decide and rateCharacter.
+ *
+ * ©Runfeng Du
+ */
+package benchmarks;
+
+import ethicalengine.Character;
+import ethicalengine.Scenario;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecisionBenchmark {
+    @Param({"1", "5", "20"})
+    int laneSize;
+
+    private Object engine;
+    private Object weights;
+    private Scenario[] scenarios;
+    private Character[] characters;
+    private int next;
+
+    @Setup
+    public void setUp() throws Throwable {
+        engine = Engine.NEW_DECISION_ENGINE.invokeExact();
+        weights = Engine.GET_WEIGHTS.invokeExact(engine);
+        scenarios = Corpus.scenarios(laneSize);
+        ArrayList<Character> all = new ArrayList<>();
+        for (Scenario s: scenarios) {
+            all.addAll(s.getPassengersList());
+            all.addAll(s.getPedestriansList());
+        }
+        // a power of two of characters, so they can be cycled with a mask
+        characters = all.subList(0, Integer.highestOneBit(all.size())).toArray(new Character[0]);
+    }
+
+    @Benchmark
+    public Object decide() throws Throwable {
+        Scenario s = scenarios[next++ & (Corpus.SIZE - 1)];
+        return Engine.DECIDE.invokeExact(engine, s);
+    }
+
+    @Benchmark
+    public double rateCharacter() throws Throwable {
+        Character c = characters[next++ & (characters.length - 1)];
+        return (double) Engine.RATE_CHARACTER.invokeExact(engine, weights, c);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Moral Machine: benchmarks/DecisionLatency.java
+ * Throughput and latency of the decision service.
+ *
+ * ©Runfeng Du
+ */
+package benchmarks;
+
+import ethicalengine.DecisionClient;
+import ethicalengine.Scenario;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Latency percentiles are not a JMH mode, so this is measured outside JMH.
+ * One client connection sends requests of a fixed number of scenarios from
+ * the seeded corpus, keeping a fixed number of requests in flight
+ * (pipelining), to a service in this JVM on the loopback address. The
+ * latency of a request runs from its send to its answer, so it includes
+ * the requests queued ahead of it.
+ */
+public class DecisionLatency {
+    private static final int[] BATCHES = {1, 16, 256};
+    private static final int[] DEPTHS = {1, 16};
+
+    /**
+     * Print requests and scenarios per second, with p50 and p99 latency,
+     * for every batch size and pipelining depth
+     * @param args seconds per configuration (default 5), lane size (default 5) and event loops (default 1)
+     * @throws Throwable when the service fails
+     */
+    public static void main(String[] args) throws Throwable {
+        int seconds = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+        int laneSize = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        int threads = (args.length > 2) ? Integer.parseInt(args[2]) : 1;
+        Scenario[] corpus = Corpus.scenarios(laneSize);
+
+        Object service = Engine.NEW_DECISION_SERVICE.invokeExact(0, threads);
+        Engine.START_SERVICE.invokeExact(service);
+        int port = (int) Engine.SERVICE_PORT.invokeExact(service);
+        System.out.printf("lane size %d, %d event loops, %d s each%n", laneSize, threads, seconds);
+        System.out.printf("%6s %6s %12s %14s %10s %10s%n", "batch", "depth", "requests/s", "scenarios/s",
+                "p50 us", "p99 us");
+        try (DecisionClient client = new DecisionClient(port)) {
+            for (int batch: BATCHES) {
+                for (int depth: DEPTHS) {
+                    // a fifth of the time warms up, unmeasured
+                    measure(client, corpus, batch, depth, seconds * 200_000_000L);
+                    long[] latencies = measure(client, corpus, batch, depth, seconds * 1_000_000_000L);
+                    int count = latencies.length;
+                    Arrays.sort(latencies);
+                    System.out.printf("%6d %6d %12.0f %14.0f %10.1f %10.1f%n", batch, depth,
+                            count / (double) seconds, (double) count * batch / seconds,
+                            latencies[count / 2] / 1e3, latencies[(int) (count * 0.99)] / 1e3);
+                }
+            }
+        }
+        finally {
+            Engine.CLOSE_SERVICE.invokeExact(service);
+        }
+    }
+
+    /**
+     * Send requests for a while, keeping depth of them in flight
+     * @param client a connected client
+     * @param corpus scenarios to cycle through
+     * @param batch scenarios per request
+     * @param depth requests in flight
+     * @param nanos time to run
+     * @return latency of every request answered, in nanoseconds
+     * @throws Exception when the service fails
+     */
+    private static long[] measure(DecisionClient client, Scenario[] corpus, int batch, int depth, long nanos)
+            throws Exception {
+        List<Scenario> scenarios = Arrays.asList(corpus);
+        long[] sent = new long[depth];
+        long[] latencies = new long[1 << 16];
+        int count = 0;
+        int next = 0;
+        long end = System.nanoTime() + nanos;
+        for (long request = 0; ; request++) {
+            if (request >= depth) {
+                // the oldest request in flight
+                client.receive();
+                long latency = System.nanoTime() - sent[(int) (request % depth)];
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, 2 * count);
+                }
+                latencies[count++] = latency;
+            }
+            if (System.nanoTime() >= end) {
+                break;
+            }
+            if (next + batch > corpus.length) {
+                next = 0;
+            }
+            sent[(int) (request % depth)] = System.nanoTime();
+            client.send(scenarios.subList(next, next + batch));
+            client.flush();
+            next += batch;
+        }
+        while (client.inFlight() > 0) {
+            client.receive();
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+}
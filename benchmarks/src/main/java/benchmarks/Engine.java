@@ -0,0 +1,120 @@
+/*
+ * Moral Machine: benchmarks/Engine.java
+ * Handles on the engine classes of the default package.
+ *
+ * ©Runfeng Du
+ */
+package benchmarks;
+
+import ethicalengine.Character;
+import ethicalengine.Scenario;
+import ethicalengine.ScenarioGenerator;
+import java.util.ArrayList;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/*
+ * DecisionEngine, Audit and EthicalEngine live in the default package, which
+ * cannot be imported, and JMH needs benchmarks in a named package. They are
+ * reached through constant method handles instead, which the JIT inlines like
+ * direct calls. Private hot paths are opened with a private lookup.
+ */
+final class Engine {
+    static final MethodHandle NEW_DECISION_ENGINE;
+    static final MethodHandle DECIDE;
+    static final MethodHandle GET_WEIGHTS;
+    static final MethodHandle RATE_CHARACTER;
+    static final MethodHandle NEW_AUDIT;
+    static final MethodHandle UPDATE_STATISTICS;
+    static final MethodHandle AUDIT_TO_STRING;
+    static final MethodHandle AUDIT_TO_JSON;
+    static final MethodHandle RUN_SAMPLED;
+    static final MethodHandle NEW_JUDGMENT_SERVER;
+    static final MethodHandle START_SERVER;
+    static final MethodHandle STOP_SERVER;
+    static final MethodHandle SERVER_PORT;
+    static final MethodHandle SERVER_AUDIT;
+    static final MethodHandle NEW_DECISION_SERVICE;
+    static final MethodHandle START_SERVICE;
+    static final MethodHandle CLOSE_SERVICE;
+    static final MethodHandle SERVICE_PORT;
+    static final MethodHandle NEW_CONCURRENT_AUDIT;
+    static final MethodHandle RECORD;
+    static final MethodHandle SNAPSHOT;
+    // EthicalEngine.Decision constants, by ordinal
+    static final Object[] DECISIONS;
+
+    static {
+        try {
+            Class<?> decisionEngine = Class.forName("DecisionEngine");
+            Class<?> decisionWeights = Class.forName("DecisionWeights");
+            Class<?> audit = Class.forName("Audit");
+            Class<?> decision = Class.forName("EthicalEngine$Decision");
+            Class<?> judgmentServer = Class.forName("JudgmentServer");
+            Class<?> decisionService = Class.forName("DecisionService");
+            Class<?> concurrentAudit = Class.forName("ConcurrentAudit");
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+            NEW_DECISION_ENGINE = lookup.findConstructor(decisionEngine, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+            DECIDE = lookup.findVirtual(decisionEngine, "decide", MethodType.methodType(decision, Scenario.class))
+                    .asType(MethodType.methodType(Object.class, Object.class, Scenario.class));
+            GET_WEIGHTS = lookup.findVirtual(decisionEngine, "getWeights", MethodType.methodType(decisionWeights))
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            RATE_CHARACTER = MethodHandles.privateLookupIn(decisionEngine, lookup)
+                    .findVirtual(decisionEngine, "rateCharacter",
+                            MethodType.methodType(double.class, decisionWeights, Character.class))
+                    .asType(MethodType.methodType(double.class, Object.class, Object.class, Character.class));
+            NEW_AUDIT = lookup.findConstructor(audit, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+            // a scenario counted once
+            UPDATE_STATISTICS = MethodHandles.insertArguments(MethodHandles.privateLookupIn(audit, lookup)
+                    .findVirtual(audit, "updateStatistics",
+                            MethodType.methodType(void.class, Scenario.class, decision, long.class)), 3, 1L)
+                    .asType(MethodType.methodType(void.class, Object.class, Scenario.class, Object.class));
+            AUDIT_TO_STRING = lookup.findVirtual(audit, "toString", MethodType.methodType(String.class))
+                    .asType(MethodType.methodType(String.class, Object.class));
+            AUDIT_TO_JSON = lookup.findVirtual(audit, "toJson", MethodType.methodType(String.class))
+                    .asType(MethodType.methodType(String.class, Object.class));
+            RUN_SAMPLED = lookup.findVirtual(audit, "run", MethodType.methodType(void.class, long.class, long.class,
+                    int.class, ScenarioGenerator.Sampling.class))
+                    .asType(MethodType.methodType(void.class, Object.class, long.class, long.class, int.class,
+                            ScenarioGenerator.Sampling.class));
+            NEW_JUDGMENT_SERVER = lookup.findConstructor(judgmentServer, MethodType.methodType(void.class,
+                    int.class, int.class, long.class, ArrayList.class))
+                    .asType(MethodType.methodType(Object.class, int.class, int.class, long.class, ArrayList.class));
+            START_SERVER = lookup.findVirtual(judgmentServer, "start", MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(void.class, Object.class));
+            STOP_SERVER = lookup.findVirtual(judgmentServer, "stop", MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(void.class, Object.class));
+            SERVER_PORT = lookup.findVirtual(judgmentServer, "getPort", MethodType.methodType(int.class))
+                    .asType(MethodType.methodType(int.class, Object.class));
+            SERVER_AUDIT = lookup.findVirtual(judgmentServer, "globalAudit", MethodType.methodType(audit))
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            NEW_DECISION_SERVICE = lookup.findConstructor(decisionService,
+                    MethodType.methodType(void.class, int.class, int.class))
+                    .asType(MethodType.methodType(Object.class, int.class, int.class));
+            START_SERVICE = lookup.findVirtual(decisionService, "start", MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(void.class, Object.class));
+            CLOSE_SERVICE = lookup.findVirtual(decisionService, "close", MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(void.class, Object.class));
+            SERVICE_PORT = lookup.findVirtual(decisionService, "getPort", MethodType.methodType(int.class))
+                    .asType(MethodType.methodType(int.class, Object.class));
+            NEW_CONCURRENT_AUDIT = lookup.findConstructor(concurrentAudit,
+                    MethodType.methodType(void.class, int.class))
+                    .asType(MethodType.methodType(Object.class, int.class));
+            RECORD = lookup.findVirtual(concurrentAudit, "record",
+                    MethodType.methodType(void.class, Scenario.class, decision))
+                    .asType(MethodType.methodType(void.class, Object.class, Scenario.class, Object.class));
+            SNAPSHOT = lookup.findVirtual(concurrentAudit, "snapshot", MethodType.methodType(audit))
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            DECISIONS = decision.getEnumConstants();
+        }
+        catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Engine() {}
+}
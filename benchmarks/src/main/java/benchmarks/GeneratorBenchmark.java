@@ -0,0 +1,58 @@
+/*
+ * Moral Machine: benchmarks/GeneratorBenchmark.java
+ * Benchmarks of ScenarioGenerator.generate and parseScenario.
+ *
+ * ©Runfeng Du
+ */
+package benchmarks;
+
+import ethicalengine.Scenario;
+import ethicalengine.ScenarioGenerator;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GeneratorBenchmark {
+    @Param({"1", "5", "20"})
+    int laneSize;
+
+    private ScenarioGenerator generator;
+    private ArrayList<String[]> rows;
+
+    @Setup
+    public void setUp() {
+        generator = Corpus.generator(Corpus.SEED, laneSize);
+        rows = Corpus.rows(Corpus.scenarios(laneSize));
+    }
+
+    @Benchmark
+    public Scenario generate() {
+        return generator.generate();
+    }
+
+    /**
+     * Parse a whole corpus of Corpus.SIZE scenarios per operation
+     * @return parsed scenarios
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ArrayList<Scenario> parseScenario() {
+        return generator.parseScenario(rows);
+    }
+}
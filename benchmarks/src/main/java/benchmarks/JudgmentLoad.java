@@ -0,0 +1,134 @@
+/*
+ * Moral Machine: benchmarks/JudgmentLoad.java
+ * Sustained judgments per second of the judgment server.
+ *
+ * ©Runfeng Du
+ */
+package benchmarks;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * A throughput over HTTP, so this is measured outside JMH. Every simulated
+ * user opens a session and judges its scenarios back to back, with one
+ * request in flight at a time, for the whole run; judgments are counted
+ * after a warm-up fifth of the run. The server runs in this JVM on the
+ * loopback address, and its global audit must count every judgment.
+ */
+public class JudgmentLoad {
+    private static final Pattern SCENARIO = Pattern.compile("scenario (\\d+)");
+    private static final Pattern RUNS = Pattern.compile("\"runs\":(\\d+)");
+
+    private final HttpClient client;
+    private final URI base;
+    private final long warmupEnd;
+    private final long end;
+    private final AtomicLong judgments = new AtomicLong();
+    private final AtomicLong measured = new AtomicLong();
+
+    private JudgmentLoad(HttpClient client, URI base, long warmupEnd, long end) {
+        this.client = client;
+        this.base = base;
+        this.warmupEnd = warmupEnd;
+        this.end = end;
+    }
+
+    /**
+     * Print the judgments per second of concurrent sessions
+     * @param args sessions (default 1000), seconds (default 10) and server threads (default all cores)
+     * @throws Throwable when the server fails
+     */
+    public static void main(String[] args) throws Throwable {
+        int sessions = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+        int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        int threads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        Object server = Engine.NEW_JUDGMENT_SERVER.invokeExact(0, threads, 1L, (ArrayList<?>) null);
+        Engine.START_SERVER.invokeExact(server);
+        ExecutorService clientThreads = Executors.newFixedThreadPool(Math.max(1, threads / 2));
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(clientThreads)
+                .build();
+        URI base = URI.create("http://localhost:" + (int) Engine.SERVER_PORT.invokeExact(server) + "/");
+        long start = System.nanoTime();
+        long warmupEnd = start + seconds * 200_000_000L;
+        JudgmentLoad load = new JudgmentLoad(client, base, warmupEnd, start + seconds * 1_000_000_000L);
+
+        CompletableFuture<?>[] users = new CompletableFuture<?>[sessions];
+        for (int i = 0; i < sessions; i++) {
+            users[i] = load.user();
+        }
+        CompletableFuture.allOf(users).join();
+        double measuredSeconds = (System.nanoTime() - warmupEnd) / 1e9;
+
+        Matcher runs = RUNS.matcher((String) Engine.AUDIT_TO_JSON.invokeExact(Engine.SERVER_AUDIT.invokeExact(server)));
+        long counted = runs.find() ? Long.parseLong(runs.group(1)) : -1;
+        Engine.STOP_SERVER.invokeExact(server);
+        clientThreads.shutdown();
+
+        System.out.printf("%d sessions, %d server threads, %d s%n", sessions, threads, seconds);
+        System.out.printf("judgments/s: %.0f%n", load.measured.get() / measuredSeconds);
+        System.out.printf("mean latency: %.2f ms%n", sessions * 1000.0 / (load.measured.get() / measuredSeconds));
+        System.out.printf("judgments: %d sent, %d in the global audit%n", load.judgments.get(), counted);
+        if (counted != load.judgments.get()) {
+            throw new IllegalStateException("the global audit lost judgments");
+        }
+    }
+
+    /**
+     * Open a session and judge its scenarios until the end of the run
+     * @return completion of the session
+     */
+    private CompletableFuture<Void> user() {
+        HttpRequest open = HttpRequest.newBuilder(base.resolve("sessions"))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+        return client.sendAsync(open, HttpResponse.BodyHandlers.ofString()).thenCompose(response -> {
+            String id = response.body().substring("session ".length(), response.body().indexOf('\n'));
+            return judge(id, response.body());
+        });
+    }
+
+    /**
+     * Judge the current scenario of a session, then the next, until the end of the run
+     * @param id id of session
+     * @param body last response, holding the current scenario
+     * @return completion of the session
+     */
+    private CompletableFuture<Void> judge(String id, String body) {
+        if (System.nanoTime() >= end) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Matcher scenario = SCENARIO.matcher(body);
+        if (!scenario.find()) {
+            throw new IllegalStateException("no scenario in response: " + body);
+        }
+        String decision = ThreadLocalRandom.current().nextBoolean() ? "passengers" : "pedestrians";
+        HttpRequest request = HttpRequest.newBuilder(base.resolve("sessions/" + id + "/judgments"))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString("scenario=" + scenario.group(1) + "&decision=" + decision))
+                .build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).thenCompose(response -> {
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("judgment rejected: " + response.body());
+            }
+            judgments.incrementAndGet();
+            if (System.nanoTime() >= warmupEnd) {
+                measured.incrementAndGet();
+            }
+            return judge(id, response.body());
+        });
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Moral Machine: benchmarks/SamplingPrecision.java
+ * Runs needed for a fixed precision of survival rates, by sampling.
+ *
+ * ©Runfeng Du
+ */
+package benchmarks;
+
+import ethicalengine.ScenarioGenerator;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/*
+ * Precision is not a rate of operations, so this is measured outside JMH.
+ * Each sampling audits the same number of runs under many seeds; the
+ * variance of a rate across seeds, times the runs, over the squared target
+ * standard error, is the runs needed to reach that error.
+ */
+public class SamplingPrecision {
+    // standard error of a rate to reach
+    private static final double TARGET_ERROR = 0.001;
+    private static final Pattern RATE = Pattern.compile("\\{\"name\":\"([^\"]+)\",[^}]*\"rate\":([^,}]+)");
+
+    /**
+     * Print the runs each sampling needs for every rate
+     * @param args seeds per sampling (default 256) and runs per seed (default 8192)
+     * @throws Throwable when an audit fails
+     */
+    public static void main(String[] args) throws Throwable {
+        int seeds = (args.length > 0) ? Integer.parseInt(args[0]) : 256;
+        long runs = (args.length > 1) ? Long.parseLong(args[1]) : 8192;
+        ScenarioGenerator.Sampling[] samplings = ScenarioGenerator.Sampling.values();
+
+        // runs needed by name, one column per sampling
+        Map<String, double[]> needed = new LinkedHashMap<>();
+        for (int m = 0; m < samplings.length; m++) {
+            ArrayList<Map<String, Double>> rates = new ArrayList<>();
+            for (int seed = 1; seed <= seeds; seed++) {
+                rates.add(null);
+            }
+            ScenarioGenerator.Sampling sampling = samplings[m];
+            IntStream.range(0, seeds).parallel().forEach(i -> rates.set(i, audit(runs, i + 1, sampling)));
+            for (String name: rates.get(0).keySet()) {
+                double mean = 0;
+                for (Map<String, Double> r: rates) {
+                    mean += r.getOrDefault(name, Double.NaN) / seeds;
+                }
+                double variance = 0;
+                for (Map<String, Double> r: rates) {
+                    double delta = r.getOrDefault(name, Double.NaN) - mean;
+                    variance += delta * delta / (seeds - 1);
+                }
+                needed.computeIfAbsent(name, n -> new double[samplings.length])[m] =
+                        variance * runs / (TARGET_ERROR * TARGET_ERROR);
+            }
+        }
+
+        System.out.printf("runs for a standard error of %s, from %d seeds of %d runs%n", TARGET_ERROR, seeds, runs);
+        StringBuilder header = new StringBuilder(String.format("%-12s", "rate"));
+        for (ScenarioGenerator.Sampling sampling: samplings) {
+            header.append(String.format(" %22s", sampling.name().toLowerCase()));
+        }
+        System.out.println(header);
+        needed.entrySet().stream()
+                .sorted((a, b) -> Double.compare(b.getValue()[0], a.getValue()[0]))
+                .forEach(entry -> {
+                    double[] n = entry.getValue();
+                    StringBuilder line = new StringBuilder(String.format("%-12s", entry.getKey()));
+                    for (double value: n) {
+                        line.append(String.format(" %14.0f (%5.2fx)", value, value / n[0]));
+                    }
+                    System.out.println(line);
+                });
+    }
+
+    /**
+     * Run one seeded audit
+     * @param runs number of runs
+     * @param seed master seed
+     * @param sampling sampling of scenarios
+     * @return survival rate by name
+     */
+    private static Map<String, Double> audit(long runs, long seed, ScenarioGenerator.Sampling sampling) {
+        try {
+            Object audit = Engine.NEW_AUDIT.invokeExact();
+            Engine.RUN_SAMPLED.invokeExact(audit, runs, seed, 1, sampling);
+            Matcher matcher = RATE.matcher((String) Engine.AUDIT_TO_JSON.invokeExact(audit));
+            Map<String, Double> rates = new LinkedHashMap<>();
+            while (matcher.find()) {
+                rates.put(matcher.group(1), Double.parseDouble(matcher.group(2)));
+            }
+            return rates;
+        }
+        catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
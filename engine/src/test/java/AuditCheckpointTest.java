@@ -0,0 +1,90 @@
+/*
+ * Moral Machine: AuditCheckpointTest.java
+ * Checkpoints saved when the program is stopped mid-run.
+ *
+ * ©Runfeng Du
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * The shutdown hook only runs in a real exit, so the engine runs in a child
+ * JVM, stopped with SIGTERM, which runs the hooks as SIGINT does.
+ */
+class AuditCheckpointTest {
+    private static final long LONG_RUN = 1_000_000_000L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void stopDuringSecondRunSavesCheckpoint() throws Exception {
+        Path checkpointPath = directory.resolve("audit.checkpoint");
+        // the result log must exist
+        Path resultPath = Files.createFile(directory.resolve("result.log"));
+        String classes = Paths.get(EthicalEngine.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                .toString();
+        Process engine = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", classes, "EthicalEngine", "-s", "1", "-p", "1", "-k", checkpointPath.toString(),
+                "-r", resultPath.toString())
+                .directory(directory.toFile())
+                .redirectErrorStream(true)
+                .start();
+        StringBuffer output = new StringBuffer();
+        Thread reader = new Thread(() -> readAll(engine, output));
+        reader.start();
+
+        // a short first run completes, then a second run is stopped while running
+        try (Writer input = engine.outputWriter(StandardCharsets.UTF_8)) {
+            input.write("20000\nyes\n" + LONG_RUN + "\n");
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (count(output, "How many runs do you want?") < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(2, count(output, "How many runs do you want?"), output::toString);
+        Thread.sleep(1000);
+        // by the handle, as Process.destroy() would also close the output being read
+        engine.toHandle().destroy();
+        assertTrue(engine.waitFor(60, TimeUnit.SECONDS), "engine did not exit");
+        reader.join();
+
+        assertTrue(output.toString().contains("Audit stopped after"), output::toString);
+        AuditCheckpoint checkpoint = new AuditCheckpoint(checkpointPath);
+        Audit audit = new Audit();
+        checkpoint.load(audit);
+        assertEquals(LONG_RUN, checkpoint.getRuns());
+        assertTrue(checkpoint.getDone() > 0);
+        assertTrue(checkpoint.isSeeded());
+    }
+
+    private static void readAll(Process process, StringBuffer output) {
+        try (BufferedReader lines = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                StandardCharsets.UTF_8))) {
+            for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+                output.append(line).append('\n');
+            }
+        }
+        catch (IOException ignored) {
+        }
+    }
+
+    private static int count(CharSequence text, String part) {
+        int count = 0;
+        for (int i = text.toString().indexOf(part); i >= 0; i = text.toString().indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
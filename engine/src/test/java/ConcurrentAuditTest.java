@@ -0,0 +1,189 @@
+/*
+ * Moral Machine: ConcurrentAuditTest.java
+ * Snapshots of a concurrent audit while writers count into it.
+ *
+ * ©Runfeng Du
+ */
+
+import ethicalengine.Animal;
+import ethicalengine.Character;
+import ethicalengine.Person;
+import ethicalengine.Scenario;
+import ethicalengine.ScenarioGenerator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentAuditTest {
+    private static final int WRITERS = 4;
+    private static final int UPDATES = 200_000;
+    private static final Pattern RUNS = Pattern.compile("\"runs\":(\\d+)");
+    private static final Pattern TIME = Pattern.compile("\"time\":\"[^\"]*\"");
+
+    /*
+     * Every writer counts the same scenario, so in a snapshot holding only
+     * whole updates every total is the runs times that of one update.
+     */
+    @Test
+    void snapshotsAreMonotonicAndUntorn() throws Exception {
+        Scenario scenario = new ScenarioGenerator(7, 5, 5, 5, 5).generate();
+        EthicalEngine.Decision decision = EthicalEngine.decide(scenario);
+        Audit once = new Audit();
+        once.judge(scenario, decision);
+        StatisticsTable perUpdate = once.getStatistics();
+
+        ConcurrentAudit audit = new ConcurrentAudit(WRITERS);
+        Thread[] writers = start(WRITERS, () -> {
+            for (int i = 0; i < UPDATES; i++) {
+                audit.record(scenario, decision);
+            }
+        });
+        long lastRuns = 0;
+        do {
+            Audit snapshot = audit.snapshot();
+            long runs = runs(snapshot);
+            assertTrue(runs >= lastRuns, "snapshot went back from " + lastRuns + " to " + runs);
+            StatisticsTable statistics = snapshot.getStatistics();
+            for (int slot = 0; slot < perUpdate.size(); slot++) {
+                assertEquals(runs * perUpdate.total(slot), statistics.total(slot), "torn " + perUpdate.name(slot));
+                assertEquals(runs * perUpdate.saved(slot), statistics.saved(slot), "torn " + perUpdate.name(slot));
+            }
+            lastRuns = runs;
+        } while (isAlive(writers));
+        join(writers);
+        assertEquals((long) WRITERS * UPDATES, runs(audit.snapshot()));
+    }
+
+    /*
+     * One writer counts a scenario at a green light, then another, on its own
+     * stripe, counts one at a red light: a snapshot of one instant never
+     * holds more of the second than of the first.
+     */
+    @Test
+    void snapshotsAreOneInstant() throws Exception {
+        Scenario first = pair(true);
+        Scenario second = pair(false);
+        ConcurrentAudit audit = new ConcurrentAudit(2);
+        AtomicLong firstCounted = new AtomicLong();
+        Thread leader = start(1, () -> {
+            for (int i = 0; i < UPDATES; i++) {
+                audit.record(first, EthicalEngine.Decision.PASSENGERS);
+                firstCounted.set(i + 1);
+            }
+        })[0];
+        Thread follower = start(1, () -> {
+            for (int i = 0; i < UPDATES; i++) {
+                while (firstCounted.get() <= i) {
+                    Thread.yield();
+                }
+                audit.record(second, EthicalEngine.Decision.PASSENGERS);
+            }
+        })[0];
+        Thread[] writers = {leader, follower};
+        do {
+            StatisticsTable statistics = audit.snapshot().getStatistics();
+            long firsts = statistics.total(StatisticsTable.GREEN) / 2;
+            long seconds = statistics.total(StatisticsTable.RED) / 2;
+            assertTrue(seconds <= firsts, seconds + " seconds but only " + firsts + " firsts");
+        } while (isAlive(writers));
+        join(writers);
+        StatisticsTable statistics = audit.snapshot().getStatistics();
+        assertEquals(2L * UPDATES, statistics.total(StatisticsTable.GREEN));
+        assertEquals(2L * UPDATES, statistics.total(StatisticsTable.RED));
+    }
+
+    @Test
+    void finalSnapshotEqualsSequentialAudit() throws Exception {
+        ScenarioGenerator generator = new ScenarioGenerator(11, 1, 5, 1, 5);
+        Scenario[] scenarios = new Scenario[1024];
+        Audit sequential = new Audit();
+        sequential.setAuditType("Concurrent");
+        for (int i = 0; i < scenarios.length; i++) {
+            scenarios[i] = generator.generate();
+        }
+
+        // more writers than stripes, so some share one
+        ConcurrentAudit audit = new ConcurrentAudit(3);
+        audit.setAuditType("Concurrent");
+        Thread[] writers = start(WRITERS * 2, () -> {
+            for (int i = 0; i < UPDATES / 4; i++) {
+                audit.run(scenarios[i & (scenarios.length - 1)]);
+            }
+        });
+        for (int w = 0; w < writers.length; w++) {
+            for (int i = 0; i < UPDATES / 4; i++) {
+                Scenario scenario = scenarios[i & (scenarios.length - 1)];
+                sequential.judge(scenario, EthicalEngine.decide(scenario));
+            }
+        }
+        join(writers);
+        assertEquals(TIME.matcher(sequential.toJson()).replaceAll(""),
+                TIME.matcher(audit.snapshot().toJson()).replaceAll(""));
+        assertEquals(sequential.toString(), audit.toString());
+    }
+
+    /**
+     * Start writer threads at once
+     * @param count number of writers
+     * @param writer work of every writer
+     * @return the threads
+     * @throws InterruptedException when interrupted while starting them
+     */
+    private static Thread[] start(int count, Runnable writer) throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(count);
+        CountDownLatch go = new CountDownLatch(1);
+        Thread[] threads = new Thread[count];
+        for (int t = 0; t < count; t++) {
+            threads[t] = new Thread(() -> {
+                ready.countDown();
+                try {
+                    go.await();
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+                writer.run();
+            }, "writer-" + t);
+            threads[t].start();
+        }
+        ready.await();
+        go.countDown();
+        return threads;
+    }
+
+    /**
+     * A person in the car and a dog on the road
+     * @param isLegalCrossing is crossing at green light
+     * @return the scenario
+     */
+    private static Scenario pair(boolean isLegalCrossing) {
+        return new Scenario(new Character[] {new Person(30, Character.Gender.FEMALE, Character.BodyType.AVERAGE)},
+                new Character[] {new Animal("dog")}, isLegalCrossing);
+    }
+
+    private static boolean isAlive(Thread[] threads) {
+        for (Thread thread: threads) {
+            if (thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void join(Thread[] threads) throws InterruptedException {
+        for (Thread thread: threads) {
+            thread.join(TimeUnit.MINUTES.toMillis(2));
+            assertFalse(thread.isAlive(), thread.getName() + " did not finish");
+        }
+    }
+
+    private static long runs(Audit audit) {
+        Matcher runs = RUNS.matcher(audit.toJson());
+        assertTrue(runs.find());
+        return Long.parseLong(runs.group(1));
+    }
+}
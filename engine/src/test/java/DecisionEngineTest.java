@@ -0,0 +1,166 @@
+/*
+ * Moral Machine: DecisionEngineTest.java
+ * Decisions of the rating tables against the original merit maps.
+ *
+ * ©Runfeng Du
+ */
+
+import ethicalengine.Animal;
+import ethicalengine.Character;
+import ethicalengine.Person;
+import ethicalengine.Scenario;
+import ethicalengine.ScenarioBatch;
+import ethicalengine.ScenarioGenerator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import static ethicalengine.Character.BodyType.*;
+import static ethicalengine.Person.AgeCategory.*;
+import static ethicalengine.Person.Profession.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * The reference below is the engine as it was before the rating tables: the
+ * same merits, looked up per character. Since lanes are summed in ascending
+ * order of rating (so that the order characters are listed in does not
+ * matter), the reference sums that way too; in the original list order, a
+ * decision may differ only where the two sides tie up to rounding.
+ */
+class DecisionEngineTest {
+    private static final long SEED = 20200601L;
+    private static final int SCENARIOS = 200_000;
+    private static final int BATCH_SIZE = 1024;
+
+    private static final EnumMap<Person.Profession, Double> PROFESSION_MERIT = new EnumMap<>(Person.Profession.class);
+    private static final EnumMap<Person.AgeCategory, Double> AGE_TYPE_MERIT = new EnumMap<>(Person.AgeCategory.class);
+    private static final EnumMap<Character.BodyType, Double> BODY_TYPE_MERIT = new EnumMap<>(Character.BodyType.class);
+    private static final double ILLEGAL_CROSSING_DEMERIT = 0.7;
+    private static final double PREGNANT_MERIT = 3.0;
+    private static final double ANIMAL_MERIT = 0.01;
+    private static final double PET_MERIT = 20.0;
+    private static final double YOU_MERIT = 2.0;
+    static {
+        PROFESSION_MERIT.put(CEO, 1.0);
+        PROFESSION_MERIT.put(CRIMINAL, 0.5);
+        PROFESSION_MERIT.put(DOCTOR, 1.5);
+        PROFESSION_MERIT.put(FIREFIGHTER, 1.5);
+        PROFESSION_MERIT.put(JANITOR, 1.0);
+        PROFESSION_MERIT.put(HOMELESS, 0.7);
+        PROFESSION_MERIT.put(UNEMPLOYED, 1.0);
+        PROFESSION_MERIT.put(STUDENT, 1.1);
+        PROFESSION_MERIT.put(PROFESSOR, 1.1);
+        PROFESSION_MERIT.put(Person.Profession.UNKNOWN, 1.0);
+        PROFESSION_MERIT.put(NONE, 1.0);
+        AGE_TYPE_MERIT.put(BABY, 3.0);
+        AGE_TYPE_MERIT.put(CHILD, 2.5);
+        AGE_TYPE_MERIT.put(ADULT, 1.0);
+        AGE_TYPE_MERIT.put(SENIOR, 0.8);
+        BODY_TYPE_MERIT.put(AVERAGE, 1.0);
+        BODY_TYPE_MERIT.put(ATHLETIC, 1.05);
+        BODY_TYPE_MERIT.put(OVERWEIGHT, 0.95);
+        BODY_TYPE_MERIT.put(UNSPECIFIED, 1.0);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 5, 20})
+    void decideMatchesMeritMaps(int laneSize) {
+        DecisionEngine engine = new DecisionEngine();
+        ScenarioGenerator generator = new ScenarioGenerator(SEED + laneSize, 1, laneSize, 1, laneSize);
+        for (int i = 0; i < SCENARIOS; i++) {
+            Scenario scenario = generator.generate();
+            assertEquals(reference(scenario, true), engine.decide(scenario), () -> scenario.toString());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 5, 20})
+    void decideBatchMatchesMeritMaps(int laneSize) {
+        DecisionEngine engine = new DecisionEngine();
+        ScenarioGenerator generator = new ScenarioGenerator(SEED + laneSize, 1, laneSize, 1, laneSize);
+        ScenarioBatch batch = new ScenarioBatch(BATCH_SIZE, BATCH_SIZE * 2 * laneSize);
+        List<Scenario> scenarios = new ArrayList<>();
+        EthicalEngine.Decision[] decisions = null;
+        for (int i = 0; i < SCENARIOS / BATCH_SIZE; i++) {
+            batch.clear();
+            scenarios.clear();
+            for (int j = 0; j < BATCH_SIZE; j++) {
+                Scenario scenario = generator.generate();
+                scenarios.add(scenario);
+                batch.add(scenario);
+            }
+            decisions = engine.decideBatch(batch, decisions);
+            for (int j = 0; j < BATCH_SIZE; j++) {
+                Scenario scenario = scenarios.get(j);
+                assertEquals(reference(scenario, true), decisions[j], () -> scenario.toString());
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 5, 20})
+    void listOrderDiffersOnlyOnRoundingTies(int laneSize) {
+        DecisionEngine engine = new DecisionEngine();
+        ScenarioGenerator generator = new ScenarioGenerator(SEED + laneSize, 1, laneSize, 1, laneSize);
+        for (int i = 0; i < SCENARIOS; i++) {
+            Scenario scenario = generator.generate();
+            if (reference(scenario, false) == engine.decide(scenario)) {
+                continue;
+            }
+            double passengers = rateLane(scenario.getPassengersList(), true);
+            double pedestrians = rateLane(scenario.getPedestriansList(), true) *
+                    (scenario.isLegalCrossing() ? 1 : ILLEGAL_CROSSING_DEMERIT);
+            assertTrue(laneSize > 2, "lanes of two or fewer sum the same in any order");
+            assertTrue(Math.abs(passengers - pedestrians) <= 1e-12 * Math.max(passengers, pedestrians),
+                    () -> "not a tie: " + scenario);
+        }
+    }
+
+    /**
+     * Decide a scenario by the merit maps
+     * @param scenario a scenario
+     * @param isAscending sum lanes in ascending order of rating, rather than in list order
+     * @return decision
+     */
+    private static EthicalEngine.Decision reference(Scenario scenario, boolean isAscending) {
+        double passengerRating = rateLane(scenario.getPassengersList(), isAscending);
+        double pedestrianRating = rateLane(scenario.getPedestriansList(), isAscending);
+        if (!scenario.isLegalCrossing()) {
+            pedestrianRating = pedestrianRating * ILLEGAL_CROSSING_DEMERIT;
+        }
+        return (passengerRating > pedestrianRating) ?
+                EthicalEngine.Decision.PASSENGERS : EthicalEngine.Decision.PEDESTRIANS;
+    }
+
+    private static double rateLane(List<Character> lane, boolean isAscending) {
+        double[] ratings = new double[lane.size()];
+        for (int i = 0; i < ratings.length; i++) {
+            ratings[i] = rateCharacter(lane.get(i));
+        }
+        if (isAscending) {
+            Arrays.sort(ratings);
+        }
+        double rating = 0;
+        for (double r: ratings) {
+            rating += r;
+        }
+        return rating;
+    }
+
+    private static double rateCharacter(Character c) {
+        if (c instanceof Person) {
+            Person p = (Person) c;
+            return PROFESSION_MERIT.get(p.getProfession()) *
+                    AGE_TYPE_MERIT.get(p.getAgeCategory()) *
+                    BODY_TYPE_MERIT.get(c.getBodyType()) *
+                    (p.isPregnant() ? PREGNANT_MERIT : 1.0) *
+                    (c.isYou() ? YOU_MERIT : 1.0);
+        }
+        if (c instanceof Animal) {
+            return ANIMAL_MERIT * (((Animal) c).isPet() ? PET_MERIT : 1.0);
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Moral Machine: DecisionProtocolTest.java
+ * Requests of the decision service read into one reused batch.
+ *
+ * ©Runfeng Du
+ */
+
+import ethicalengine.Animal;
+import ethicalengine.Character;
+import ethicalengine.DecisionProtocol;
+import ethicalengine.Person;
+import ethicalengine.Scenario;
+import ethicalengine.ScenarioBatch;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DecisionProtocolTest {
+    private static final int REQUESTS = 10_000;
+
+    /*
+     * An event loop of the service clears its batch before every request, so
+     * species names sent by clients must not pile up in its dictionary.
+     */
+    @Test
+    void speciesDictionaryStaysBounded() throws Exception {
+        ScenarioBatch batch = new ScenarioBatch(1, 2);
+        int generated = batch.getSpeciesCount();
+        ByteBuffer out = ByteBuffer.allocate(64);
+        for (int i = 0; i < REQUESTS; i++) {
+            Scenario scenario = new Scenario(
+                    new Character[] {new Person(30, Character.Gender.MALE, Character.BodyType.AVERAGE)},
+                    new Character[] {new Animal("species" + i), new Animal("dog")}, true);
+            out.clear();
+            out = DecisionProtocol.writeRequest(out, i, List.of(scenario));
+            out.flip();
+            ByteBuffer frame = out.position(4).slice();
+
+            batch.clear();
+            assertEquals(i, DecisionProtocol.readRequest(frame, batch));
+            assertEquals(generated + 1, batch.getSpeciesCount());
+            assertEquals(scenario.toString(), batch.getScenario(0).toString());
+        }
+        batch.clear();
+        assertEquals(generated, batch.getSpeciesCount());
+    }
+}
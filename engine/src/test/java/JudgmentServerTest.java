@@ -0,0 +1,143 @@
+/*
+ * Moral Machine: JudgmentServerTest.java
+ * Concurrent sessions against the judgment server.
+ *
+ * ©Runfeng Du
+ */
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class JudgmentServerTest {
+    private static final int SESSIONS = 64;
+    private static final int JUDGMENTS = 25;
+    private static final Pattern SESSION = Pattern.compile("^session (\\d+)");
+    private static final Pattern SCENARIO = Pattern.compile("scenario (\\d+)");
+    private static final Pattern RUNS = Pattern.compile("\"runs\":(\\d+)");
+
+    private JudgmentServer server;
+    private HttpClient client;
+    private URI base;
+
+    @BeforeEach
+    void start() throws Exception {
+        server = new JudgmentServer(0, 4, 1L, null);
+        server.start();
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        base = URI.create("http://localhost:" + server.getPort() + "/");
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop();
+    }
+
+    @Test
+    void globalAuditCountsEveryJudgment() throws Exception {
+        ExecutorService users = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<Integer>> sessions = new ArrayList<>();
+            for (int i = 0; i < SESSIONS; i++) {
+                sessions.add(users.submit(this::user));
+            }
+            int judged = 0;
+            for (Future<Integer> session: sessions) {
+                judged += session.get();
+            }
+            assertEquals(SESSIONS * JUDGMENTS, judged);
+        }
+        finally {
+            users.shutdown();
+        }
+
+        HttpResponse<String> audit = send(HttpRequest.newBuilder(base.resolve("audit?format=json")).GET());
+        assertEquals(200, audit.statusCode());
+        assertEquals(SESSIONS * JUDGMENTS, runs(audit.body()));
+        assertEquals(SESSIONS * JUDGMENTS, runs(server.globalAudit().toJson()));
+        assertEquals(SESSIONS, server.sessionCount());
+    }
+
+    @Test
+    void malformedEscapesAreRejected() throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(base.resolve("sessions"))
+                .POST(HttpRequest.BodyPublishers.noBody()));
+        Matcher session = SESSION.matcher(response.body());
+        assertTrue(session.find(), response.body());
+        String id = session.group(1);
+
+        response = judge(id, "0", "%zz");
+        assertEquals(400, response.statusCode(), response.body());
+        // a URI may not hold such an escape, so the parameters go in a form body
+        for (String audit: new String[] {"sessions/" + id + "/audit", "audit"}) {
+            response = send(HttpRequest.newBuilder(base.resolve(audit))
+                    .header("Content-Type", "application/x-www-form-urlencoded")
+                    .method("GET", HttpRequest.BodyPublishers.ofString("format=%zz")));
+            assertEquals(400, response.statusCode(), response.body());
+        }
+        // the session is unharmed
+        assertEquals(200, judge(id, "0", "passengers").statusCode());
+    }
+
+    /**
+     * Open a session and judge its scenarios, repeating one judgment, which must be rejected
+     * @return judgments counted
+     * @throws Exception when a request fails
+     */
+    private int user() throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(base.resolve("sessions"))
+                .POST(HttpRequest.BodyPublishers.noBody()));
+        assertEquals(201, response.statusCode(), response.body());
+        Matcher session = SESSION.matcher(response.body());
+        assertTrue(session.find(), response.body());
+        String id = session.group(1);
+        int judged = 0;
+        for (int i = 0; i < JUDGMENTS; i++) {
+            String scenario = scenario(response.body());
+            assertEquals(Integer.toString(i), scenario);
+            response = judge(id, scenario, (i % 2 == 0) ? "passengers" : "pedestrians");
+            assertEquals(200, response.statusCode(), response.body());
+            judged++;
+        }
+        // a stale judgment is not counted twice
+        assertEquals(409, judge(id, "0", "passengers").statusCode());
+        HttpResponse<String> own = send(HttpRequest.newBuilder(base.resolve("sessions/" + id + "/audit?format=json"))
+                .GET());
+        assertEquals(JUDGMENTS, runs(own.body()));
+        return judged;
+    }
+
+    private HttpResponse<String> judge(String id, String scenario, String decision) throws Exception {
+        return send(HttpRequest.newBuilder(base.resolve("sessions/" + id + "/judgments"))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString("scenario=" + scenario + "&decision=" + decision)));
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws Exception {
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static String scenario(String body) {
+        Matcher scenario = SCENARIO.matcher(body);
+        assertTrue(scenario.find(), body);
+        return scenario.group(1);
+    }
+
+    private static long runs(String json) {
+        Matcher runs = RUNS.matcher(json);
+        assertTrue(runs.find(), json);
+        return Long.parseLong(runs.group(1));
+    }
+}
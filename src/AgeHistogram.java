@@ -0,0 +1,294 @@
+/*
+ * Moral Machine: AgeHistogram.java
+ * Fixed-size, mergeable distribution of ages.
+ *
+ * ©Runfeng Du
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+public class AgeHistogram {
+    /*
+     * One bin per year below EXACT_AGES (every generated age), then one bin
+     * per power of two up to Integer.MAX_VALUE. Ages in the power-of-two bins
+     * only come from configs; their moments are kept by Welford's method,
+     * so mean and variance stay exact below EXACT_AGES and stable above.
+     * Weighted ages are generated ones, so weights are kept for the
+     * one-year bins only.
+     */
+    private static final int EXACT_AGES = 128;
+    private static final int EXACT_BITS = 7;
+    private static final int BINS = EXACT_AGES + (31 - EXACT_BITS);
+
+    private final long[] counts = new long[BINS];
+    private long largeCount = 0;
+    private double largeMean = 0;
+    private double largeM2 = 0;
+    private int largeMax = 0;
+    // weighted counts of the one-year bins, kept once a weight other than 1 is counted
+    private double[] weights;
+
+    /**
+     * Count an age
+     * @param age a non-negative age
+     */
+    public void add(int age) {
+        add(age, 1);
+    }
+
+    /**
+     * Count an age a number of times
+     * @param age a non-negative age
+     * @param count times to count, positive
+     */
+    public void add(int age, long count) {
+        add(age, count, 1);
+    }
+
+    /**
+     * Count a weighted age a number of times. Mean, standard deviation and
+     * quantiles of a histogram with weights are those of weighted counts.
+     * @param age a non-negative age, below EXACT_AGES unless weight is 1
+     * @param count times to count, positive
+     * @param weight weight of each count
+     * @throws IllegalArgumentException when a weighted age is too large
+     */
+    public void add(int age, long count, double weight) {
+        if (weight == 1 && weights == null) {
+            if (age < EXACT_AGES) {
+                counts[age] += count;
+            }
+            else {
+                addLarge(age, count);
+            }
+            return;
+        }
+        if (age >= EXACT_AGES || largeCount > 0) {
+            throw new IllegalArgumentException("weighted ages must be below " + EXACT_AGES);
+        }
+        if (weights == null) {
+            weigh();
+        }
+        counts[age] += count;
+        weights[age] += count * weight;
+    }
+
+    /**
+     * Start keeping weighted counts, counting each count so far by weight 1
+     */
+    private void weigh() {
+        weights = new double[EXACT_AGES];
+        for (int age = 0; age < EXACT_AGES; age++) {
+            weights[age] = counts[age];
+        }
+    }
+
+    private void addLarge(int age, long count) {
+        counts[EXACT_AGES + (31 - Integer.numberOfLeadingZeros(age)) - EXACT_BITS] += count;
+        // Welford's update, with count equal ages merged as by merge
+        largeCount += count;
+        double delta = age - largeMean;
+        largeMean += delta * count / largeCount;
+        largeM2 += delta * (age - largeMean) * count;
+        largeMax = Math.max(largeMax, age);
+    }
+
+    /**
+     * Merge counts of another histogram into this histogram
+     * @param other a histogram
+     */
+    public void merge(AgeHistogram other) {
+        if (other.weights != null || weights != null) {
+            if (largeCount > 0 || other.largeCount > 0) {
+                throw new IllegalArgumentException("weighted ages must be below " + EXACT_AGES);
+            }
+            if (weights == null) {
+                weigh();
+            }
+            for (int age = 0; age < EXACT_AGES; age++) {
+                weights[age] += (other.weights != null) ? other.weights[age] : other.counts[age];
+            }
+        }
+        for (int i = 0; i < BINS; i++) {
+            counts[i] += other.counts[i];
+        }
+        if (other.largeCount > 0) {
+            long count = largeCount + other.largeCount;
+            double delta = other.largeMean - largeMean;
+            largeM2 += other.largeM2 + delta * delta * largeCount * other.largeCount / count;
+            largeMean += delta * other.largeCount / count;
+            largeCount = count;
+            largeMax = Math.max(largeMax, other.largeMax);
+        }
+    }
+
+    /**
+     * Count ages
+     * @return number of ages
+     */
+    public long count() {
+        long count = 0;
+        for (long c: counts) {
+            count += c;
+        }
+        return count;
+    }
+
+    /**
+     * Get mean age
+     * @return mean, NaN if empty
+     */
+    public double mean() {
+        if (weights != null) {
+            return weightedSum() / weightedCount();
+        }
+        long exactCount = count() - largeCount;
+        return (exactSum() + largeMean * largeCount) / (exactCount + largeCount);
+    }
+
+    /**
+     * Get sample standard deviation of ages
+     * @return standard deviation, 0 for a single age, NaN if empty
+     */
+    public double standardDeviation() {
+        if (weights != null) {
+            // weighted variance, scaled to the sample variance of unit weights
+            long count = count();
+            double mean = mean();
+            double m2 = 0;
+            for (int age = 0; age < EXACT_AGES; age++) {
+                m2 += weights[age] * (age - mean) * (age - mean);
+            }
+            return count > 1 ? Math.sqrt(m2 / weightedCount() * count / (count - 1)) :
+                    (count == 1 ? 0 : Double.NaN);
+        }
+        long exactCount = count() - largeCount;
+        double exactMean = (exactCount > 0) ? (double) exactSum() / exactCount : 0;
+        double m2 = 0;
+        for (int age = 0; age < EXACT_AGES; age++) {
+            double delta = age - exactMean;
+            m2 += counts[age] * delta * delta;
+        }
+        // combine with the large ages as with merge
+        long count = exactCount + largeCount;
+        if (largeCount > 0) {
+            double delta = largeMean - exactMean;
+            m2 += largeM2 + delta * delta * exactCount * largeCount / count;
+        }
+        return count > 1 ? Math.sqrt(m2 / (count - 1)) : (count == 1 ? 0 : Double.NaN);
+    }
+
+    private double weightedCount() {
+        double count = 0;
+        for (double w: weights) {
+            count += w;
+        }
+        return count;
+    }
+
+    private double weightedSum() {
+        double sum = 0;
+        for (int age = 0; age < EXACT_AGES; age++) {
+            sum += age * weights[age];
+        }
+        return sum;
+    }
+
+    private long exactSum() {
+        long sum = 0;
+        for (int age = 0; age < EXACT_AGES; age++) {
+            sum += age * counts[age];
+        }
+        return sum;
+    }
+
+    /**
+     * Get the age of a given rank (nearest-rank method). Exact below
+     * EXACT_AGES, interpolated within a power-of-two bin above.
+     * @param q quantile, between 0 and 1
+     * @return age at quantile, NaN if empty
+     */
+    public double quantile(double q) {
+        long count = count();
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (weights != null) {
+            // the first age whose weighted count reaches the rank
+            double rank = q * weightedCount();
+            double seen = 0;
+            for (int age = 0; age < EXACT_AGES; age++) {
+                seen += weights[age];
+                if (counts[age] > 0 && seen >= rank) {
+                    return age;
+                }
+            }
+            return EXACT_AGES - 1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * count));
+        long seen = 0;
+        for (int i = 0; i < BINS; i++) {
+            if (seen + counts[i] >= rank) {
+                if (i < EXACT_AGES) {
+                    return i;
+                }
+                long low = 1L << (i - EXACT_AGES + EXACT_BITS);
+                long high = Math.min(2 * low - 1, largeMax);
+                return low + (high - low) * (double) (rank - seen) / counts[i];
+            }
+            seen += counts[i];
+        }
+        return largeMax;
+    }
+
+    /**
+     * Write non-empty bins and moments. Weighted counts are not written:
+     * weighted audits are neither sharded nor checkpointed.
+     * @param out destination
+     * @throws IOException when the destination cannot be written
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        int bins = 0;
+        for (long c: counts) {
+            bins += c > 0 ? 1 : 0;
+        }
+        out.writeByte(bins);
+        for (int i = 0; i < BINS; i++) {
+            if (counts[i] > 0) {
+                out.writeByte(i);
+                out.writeLong(counts[i]);
+            }
+        }
+        if (largeCount > 0) {
+            out.writeDouble(largeMean);
+            out.writeDouble(largeM2);
+            out.writeInt(largeMax);
+        }
+    }
+
+    /**
+     * Add a histogram written by writeTo into this histogram
+     * @param in source
+     * @throws IOException when the source cannot be read
+     */
+    public void readFrom(DataInput in) throws IOException {
+        AgeHistogram other = new AgeHistogram();
+        int bins = in.readUnsignedByte();
+        for (int i = 0; i < bins; i++) {
+            int bin = in.readUnsignedByte();
+            if (bin >= BINS) {
+                throw new IOException("invalid age bin " + bin);
+            }
+            other.counts[bin] = in.readLong();
+            other.largeCount += (bin >= EXACT_AGES) ? other.counts[bin] : 0;
+        }
+        if (other.largeCount > 0) {
+            other.largeMean = in.readDouble();
+            other.largeM2 = in.readDouble();
+            other.largeMax = in.readInt();
+        }
+        merge(other);
+    }
+}
@@ -7,24 +7,54 @@
 
 import ethicalengine.*;
 import ethicalengine.Character;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.text.DecimalFormat;
+import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Formatter;
+import java.util.Iterator;
 import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
 
 public class Audit {
     private String auditType = "Unspecified";
-    private final HashMap<String, int[]> statisticsDatabase = new HashMap<>();
-    private int runCount = 0;
-    private int surviveCount = 0;
-    private double ageSum = 0.0;
+    private final StatisticsTable statisticsDatabase = new StatisticsTable();
+    private long runCount = 0;
+    private long surviveCount = 0;
+    private long ageSum = 0;
+    // ages of saved and sacrificed persons, then of saved and sacrificed animals
+    private final AgeHistogram[] ageHistograms = {new AgeHistogram(), new AgeHistogram(),
+            new AgeHistogram(), new AgeHistogram()};
+    private static final String[] AGE_GROUPS = {"saved persons", "sacrificed persons",
+            "saved animals", "sacrificed animals"};
     private ArrayList<Scenario> scenarioBuffer;
+    private Iterator<Scenario> scenarioStream;
+    private ScenarioCorpus scenarioCorpus;
     // a public scanner
     public static Scanner scannerObject = new Scanner(System.in);
+    // runs per parallel work unit, fixed so results do not depend on thread count
+    static final int CHUNK_SIZE = 1 << 14;
+    // progress reports of long runs, disabled while the interval is 0
+    private int progressInterval = 0;
+    private Consumer<Audit> progressListener;
+    // checkpoints of long random runs, checked every CHECKPOINT_MASK + 1 runs
+    private AuditCheckpoint checkpoint;
+    private static final long CHECKPOINT_MASK = (1 << 12) - 1;
+    // chunks per thread run between checkpoints of parallel runs
+    private static final int CHECKPOINT_CHUNKS = 4;
+    // 95% intervals of survival rates are reported once an adaptive run set a target width
+    private static final double Z_95 = 1.959963984540054;
+    private double targetWidth = 0;
+    private boolean isConverged = false;
 
     /**
      * Empty constructor
@@ -39,37 +69,634 @@ public class Audit {
         scenarioBuffer = scenarioSet;
     }
 
+    /**
+     * Constructor with a stream of scenarios specified, consumed lazily by run()
+     * @param scenarios scenarios to be run
+     * @see ScenarioReader
+     */
+    public Audit(Iterator<Scenario> scenarios) {
+        scenarioStream = scenarios;
+    }
+
+    /**
+     * Constructor with deduplicated scenarios specified; run() decides each
+     * unique scenario once and counts it by its multiplicity
+     * @param corpus unique scenarios to be run
+     * @see ScenarioCorpus
+     */
+    public Audit(ScenarioCorpus corpus) {
+        scenarioCorpus = corpus;
+    }
+
     /**
      * Manually load scenarios into audit
      * @param scenarioSet set of scenarios to be run
      */
     public void loadScenarios (ArrayList<Scenario> scenarioSet) {
         scenarioBuffer = scenarioSet;
+        scenarioStream = null;
+        scenarioCorpus = null;
+    }
+
+    /**
+     * Report progress during long runs
+     * @param interval number of runs between reports, 0 to disable
+     * @param listener receives the audit after every interval
+     */
+    public void setProgressListener(int interval, Consumer<Audit> listener) {
+        progressInterval = interval;
+        progressListener = listener;
+    }
+
+    /**
+     * Save checkpoints during random runs, to resume them after the program stops
+     * @param checkpoint checkpoint of this audit, null to disable
+     */
+    public void setCheckpoint(AuditCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
     }
 
     /**
      * run audit by randomly generated scenarios.
      * @param runs number of audit to be run
      */
-    public void run(int runs) {
-        ScenarioGenerator generator = new ScenarioGenerator();
-        for (int i = 0; i < runs ; i++) {
+    public void run(long runs) {
+        run(new ScenarioGenerator(), 0, runs);
+    }
+
+    /**
+     * Restore an empty audit from a checkpoint and finish the interrupted run.
+     * Checkpoints continue to be saved to the same file.
+     * @param checkpoint checkpoint of a stopped run
+     * @param threads number of worker threads, for seeded runs
+     * @throws IOException when the checkpoint cannot be read or is invalid
+     */
+    public void resume(AuditCheckpoint checkpoint, int threads) throws IOException {
+        checkpoint.load(this);
+        this.checkpoint = checkpoint;
+        if (checkpoint.isSeeded()) {
+            run(checkpoint.getRuns(), checkpoint.getPosition(), threads, ScenarioGenerator.Sampling.UNIFORM,
+                    (int) (checkpoint.getDone() / CHUNK_SIZE));
+        }
+        else {
+            ScenarioGenerator generator = new ScenarioGenerator();
+            generator.setRandomState(checkpoint.getPosition());
+            run(generator, checkpoint.getDone(), checkpoint.getRuns());
+        }
+    }
+
+    /**
+     * Run audit by randomly generated scenarios on a fork-join pool.
+     * Runs are cut into chunks of CHUNK_SIZE, each with its own generator seeded
+     * from a split stream of the master seed, so the result only depends on the seed.
+     * @param runs number of audit to be run
+     * @param seed master seed for scenario generation
+     * @param threads number of worker threads
+     */
+    public void run(long runs, long seed, int threads) {
+        run(runs, seed, threads, ScenarioGenerator.Sampling.UNIFORM, 0);
+    }
+
+    /**
+     * Run audit by scenarios drawn by a given sampling, as run(runs, seed,
+     * threads). Importance sampled scenarios are counted by their weights,
+     * so rates and ages stay unbiased.
+     * @param runs number of audit to be run
+     * @param seed master seed for scenario generation
+     * @param threads number of worker threads
+     * @param sampling sampling of scenarios
+     */
+    public void run(long runs, long seed, int threads, ScenarioGenerator.Sampling sampling) {
+        run(runs, seed, threads, sampling, 0);
+    }
+
+    /**
+     * Run the chunks of a seeded run from a given chunk on.
+     * @param runs number of audit to be run
+     * @param seed master seed for scenario generation
+     * @param threads number of worker threads
+     * @param sampling sampling of scenarios
+     * @param firstChunk first chunk not yet audited
+     */
+    private void run(long runs, long seed, int threads, ScenarioGenerator.Sampling sampling, int firstChunk) {
+        if (runs <= 0) {
+            return;
+        }
+        long[] chunkSeeds = chunkSeeds(runs, seed);
+        // chunks are run in rounds, with progress reports and checkpoints in between
+        int progressChunks = (progressInterval > 0) ?
+                Math.max(1, (progressInterval + CHUNK_SIZE - 1) / CHUNK_SIZE) : 0;
+        int chunksPerRound = (progressChunks > 0) ? progressChunks : chunkSeeds.length;
+        if (checkpoint != null) {
+            chunksPerRound = Math.min(chunksPerRound, CHECKPOINT_CHUNKS * threads);
+            checkpoint.begin();
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (int from = firstChunk; from < chunkSeeds.length; from += chunksPerRound) {
+                int to = Math.min(chunkSeeds.length, from + chunksPerRound);
+                merge(pool.invoke(new ChunkTask(chunkSeeds, runs, sampling, from, to)));
+                if (to < chunkSeeds.length && progressChunks > 0 && to / progressChunks > from / progressChunks) {
+                    progressListener.accept(this);
+                }
+                if (to < chunkSeeds.length && checkpoint != null && checkpoint.isDue()) {
+                    checkpoint.save(this, runs, (long) to * CHUNK_SIZE, true, seed);
+                }
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+        if (checkpoint != null) {
+            checkpoint.finish();
+        }
+    }
+
+    /**
+     * Run seeded audits in rounds until the 95% Wilson interval of every
+     * survival rate is at most targetWidth wide, or the timeout passes.
+     * Rounds are whole chunks, sized from the widest interval (which shrinks
+     * with the square root of runs) and the time left; the result equals
+     * that of run(runs, seed, threads) with the runs it took.
+     * @param targetWidth widest interval accepted, between 0 and 1
+     * @param timeoutMillis time limit, 0 for none
+     * @param seed master seed for scenario generation
+     * @param threads number of worker threads
+     * @return did all intervals converge?
+     */
+    public boolean runUntil(double targetWidth, long timeoutMillis, long seed, int threads) {
+        this.targetWidth = targetWidth;
+        isConverged = false;
+        long start = System.currentTimeMillis();
+        SplittableRandom master = new SplittableRandom(seed);
+        long[] chunkSeeds = new long[threads];
+        int chunks = 0;
+        int roundChunks = threads;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            while (true) {
+                if (chunkSeeds.length < chunks + roundChunks) {
+                    chunkSeeds = Arrays.copyOf(chunkSeeds, Math.max(2 * chunkSeeds.length, chunks + roundChunks));
+                }
+                for (int i = chunks; i < chunks + roundChunks; i++) {
+                    chunkSeeds[i] = master.split().nextLong();
+                }
+                merge(pool.invoke(new ChunkTask(chunkSeeds, (long) (chunks + roundChunks) * CHUNK_SIZE,
+                        ScenarioGenerator.Sampling.UNIFORM, chunks, chunks + roundChunks)));
+                chunks += roundChunks;
+
+                double widest = widestInterval();
+                if (widest <= targetWidth) {
+                    isConverged = true;
+                    return true;
+                }
+                long elapsed = System.currentTimeMillis() - start;
+                if (timeoutMillis > 0 && elapsed >= timeoutMillis) {
+                    return false;
+                }
+                // chunks expected to reach the target, at most doubling the runs
+                double needed = chunks * (widest / targetWidth) * (widest / targetWidth) - chunks;
+                roundChunks = (int) Math.max(1, Math.min(chunks, Math.ceil(needed)));
+                if (timeoutMillis > 0) {
+                    double chunksLeft = (double) (timeoutMillis - elapsed) * chunks / Math.max(1, elapsed);
+                    roundChunks = (int) Math.max(1, Math.min(roundChunks, chunksLeft));
+                }
+                if (progressInterval > 0) {
+                    progressListener.accept(this);
+                }
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Get the width of the widest 95% interval of a survival rate
+     * @return widest width, 1 without counts
+     */
+    private double widestInterval() {
+        int[] ranking = statisticsDatabase.ranking();
+        double widest = (ranking.length == 0) ? 1 : 0;
+        for (int slot: ranking) {
+            widest = Math.max(widest, statisticsDatabase.upperBound(slot, Z_95) -
+                    statisticsDatabase.lowerBound(slot, Z_95));
+        }
+        return widest;
+    }
+
+    /**
+     * Get the generator seeds of all chunks of a seeded run
+     * @param runs number of audit to be run
+     * @param seed master seed for scenario generation
+     * @return seed of each chunk
+     */
+    static long[] chunkSeeds(long runs, long seed) {
+        long[] chunkSeeds = new long[(int) ((runs + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+        SplittableRandom master = new SplittableRandom(seed);
+        for (int i = 0; i < chunkSeeds.length; i++) {
+            chunkSeeds[i] = master.split().nextLong();
+        }
+        return chunkSeeds;
+    }
+
+    /**
+     * Audit one chunk of a seeded run
+     * @param chunkSeeds seeds of all chunks
+     * @param runs number of runs of the whole run
+     * @param chunk index of chunk
+     * @return partial audit of the chunk
+     */
+    static Audit runChunk(long[] chunkSeeds, long runs, int chunk) {
+        return runChunk(chunkSeeds, runs, ScenarioGenerator.Sampling.UNIFORM, chunk);
+    }
+
+    /**
+     * Audit one chunk of a seeded run drawn by a given sampling
+     * @param chunkSeeds seeds of all chunks
+     * @param runs number of runs of the whole run
+     * @param sampling sampling of scenarios
+     * @param chunk index of chunk
+     * @return partial audit of the chunk
+     */
+    private static Audit runChunk(long[] chunkSeeds, long runs, ScenarioGenerator.Sampling sampling, int chunk) {
+        Audit partial = new Audit();
+        ScenarioGenerator generator = new ScenarioGenerator(chunkSeeds[chunk]);
+        generator.setSampling(sampling);
+        partial.run(generator, 0, Math.min(CHUNK_SIZE, runs - (long) chunk * CHUNK_SIZE));
+        return partial;
+    }
+
+    /**
+     * Run audit by scenarios from..to of a seed, each drawn by
+     * ScenarioGenerator.generate(seed, index) alone, on a fork-join pool in
+     * shards of CHUNK_SIZE indices. As any scenario is drawn without the ones
+     * before it, a range can be split over calls, threads or processes and
+     * merged back: counts add up to the same statistics whatever the split
+     * (weighted sums of importance sampling, up to rounding).
+     * @param seed seed of scenarios
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @param threads number of worker threads
+     * @param sampling sampling of scenarios
+     */
+    public void runRange(long seed, long from, long to, int threads, ScenarioGenerator.Sampling sampling) {
+        if (to <= from) {
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            merge(pool.invoke(new RangeTask(seed, from, to, sampling)));
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Run audit by scenarios from..to of a seed, drawn by index
+     * @param generator generator of scenarios
+     * @param seed seed of scenarios
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     */
+    private void runRange(ScenarioGenerator generator, long seed, long from, long to) {
+        AuditEvents.AuditBatchEvent batch = AuditEvents.AuditBatchEvent.start(auditType);
+        for (long i = from; i < to; i++) {
+            Scenario scenario = generator.generate(seed, i);
+            EthicalEngine.Decision result = EthicalEngine.decide(scenario);
+            this.updateStatistics(scenario, result, 1, generator.getWeight());
+            runCount += 1;
+            batch = recordBatch(batch, scenario, result);
+        }
+        AuditEvents.AuditBatchEvent.finish(batch);
+    }
+
+    /**
+     * Fork-join task auditing a range of scenario indices into a partial audit.
+     */
+    private static class RangeTask extends RecursiveTask<Audit> {
+        private final long seed;
+        private final long from;
+        private final long to;
+        private final ScenarioGenerator.Sampling sampling;
+
+        /**
+         * Default constructor
+         * @param seed seed of scenarios
+         * @param from first index (inclusive)
+         * @param to last index (exclusive)
+         * @param sampling sampling of scenarios
+         */
+        RangeTask(long seed, long from, long to, ScenarioGenerator.Sampling sampling) {
+            this.seed = seed;
+            this.from = from;
+            this.to = to;
+            this.sampling = sampling;
+        }
+
+        @Override
+        protected Audit compute() {
+            if (to - from <= CHUNK_SIZE) {
+                Audit partial = new Audit();
+                ScenarioGenerator generator = new ScenarioGenerator();
+                generator.setSampling(sampling);
+                partial.runRange(generator, seed, from, to);
+                return partial;
+            }
+            long middle = from + (to - from) / 2;
+            RangeTask left = new RangeTask(seed, from, middle, sampling);
+            left.fork();
+            Audit partial = new RangeTask(seed, middle, to, sampling).compute();
+            partial.merge(left.join());
+            return partial;
+        }
+    }
+
+    /**
+     * Run audit by scenarios from a given generator.
+     * @param generator generator of scenarios
+     * @param from runs already done
+     * @param runs number of audit to be run
+     */
+    private void run(ScenarioGenerator generator, long from, long runs) {
+        if (checkpoint != null) {
+            checkpoint.begin();
+        }
+        AuditEvents.AuditBatchEvent batch = AuditEvents.AuditBatchEvent.start(auditType);
+        for (long i = from; i < runs ; i++) {
             Scenario scenario = generator.generate();
             EthicalEngine.Decision result = EthicalEngine.decide(scenario);
-            this.updateStatistics(scenario, result);
+            this.updateStatistics(scenario, result, 1, generator.getWeight());
             runCount += 1;
+            batch = recordBatch(batch, scenario, result);
+            if (progressInterval > 0 && (i + 1) % progressInterval == 0 && i + 1 < runs) {
+                progressListener.accept(this);
+            }
+            if (checkpoint != null && (i & CHECKPOINT_MASK) == CHECKPOINT_MASK && i + 1 < runs &&
+                    checkpoint.isDue()) {
+                checkpoint.save(this, runs, i + 1, false, generator.getRandomState());
+            }
+        }
+        AuditEvents.AuditBatchEvent.finish(batch);
+        if (checkpoint != null) {
+            checkpoint.finish();
         }
     }
 
     /**
-     * Run audit by imported scenarios.
+     * Count a scenario into the current batch event, starting a new one when full
+     * @param batch current batch event, null when disabled
+     * @param scenario an audited scenario
+     * @param result decision on the scenario
+     * @return the batch event to continue with
+     */
+    private AuditEvents.AuditBatchEvent recordBatch(AuditEvents.AuditBatchEvent batch, Scenario scenario,
+                                                    EthicalEngine.Decision result) {
+        if (batch != null && batch.add(scenario, result == EthicalEngine.Decision.PASSENGERS)) {
+            batch.commit();
+            return AuditEvents.AuditBatchEvent.start(auditType);
+        }
+        return batch;
+    }
+
+    /**
+     * Fork-join task auditing a range of chunks into a partial audit.
+     */
+    private static class ChunkTask extends RecursiveTask<Audit> {
+        private final long[] chunkSeeds;
+        private final long runs;
+        private final ScenarioGenerator.Sampling sampling;
+        private final int from;
+        private final int to;
+
+        /**
+         * Default constructor
+         * @param chunkSeeds seeds of all chunks
+         * @param runs total number of runs
+         * @param sampling sampling of scenarios
+         * @param from first chunk (inclusive)
+         * @param to last chunk (exclusive)
+         */
+        ChunkTask(long[] chunkSeeds, long runs, ScenarioGenerator.Sampling sampling, int from, int to) {
+            this.chunkSeeds = chunkSeeds;
+            this.runs = runs;
+            this.sampling = sampling;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Audit compute() {
+            if (to - from == 1) {
+                return runChunk(chunkSeeds, runs, sampling, from);
+            }
+            int middle = (from + to) >>> 1;
+            ChunkTask left = new ChunkTask(chunkSeeds, runs, sampling, from, middle);
+            left.fork();
+            Audit partial = new ChunkTask(chunkSeeds, runs, sampling, middle, to).compute();
+            partial.merge(left.join());
+            return partial;
+        }
+    }
+
+    /**
+     * Run audit by the scenarios of a scenario file on a fork-join pool.
+     * The file is cut into shards of CHUNK_SIZE scenarios, each read through
+     * the offset table of the file.
+     * @param file a scenario file
+     * @param threads number of worker threads
+     */
+    public void run(ScenarioFile file, int threads) {
+        if (file.size() == 0) {
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            merge(pool.invoke(new ShardTask(file, 0, file.size())));
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Fork-join task auditing a range of scenarios of a file into a partial audit.
+     */
+    private static class ShardTask extends RecursiveTask<Audit> {
+        private final ScenarioFile file;
+        private final int from;
+        private final int to;
+
+        /**
+         * Default constructor
+         * @param file a scenario file
+         * @param from first scenario (inclusive)
+         * @param to last scenario (exclusive)
+         */
+        ShardTask(ScenarioFile file, int from, int to) {
+            this.file = file;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Audit compute() {
+            if (to - from <= CHUNK_SIZE) {
+                Audit partial = new Audit(file.iterator(from, to));
+                partial.run();
+                return partial;
+            }
+            int middle = (from + to) >>> 1;
+            ShardTask left = new ShardTask(file, from, middle);
+            left.fork();
+            Audit partial = new ShardTask(file, middle, to).compute();
+            partial.merge(left.join());
+            return partial;
+        }
+    }
+
+    /**
+     * Run audit by unique scenarios on a fork-join pool, in shards of
+     * CHUNK_SIZE unique scenarios
+     * @param corpus unique scenarios
+     * @param threads number of worker threads
+     */
+    public void run(ScenarioCorpus corpus, int threads) {
+        if (corpus.size() == 0) {
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            merge(pool.invoke(new CorpusTask(corpus, 0, corpus.size())));
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Run audit by a range of unique scenarios, each decided once
+     * @param corpus unique scenarios
+     * @param from first scenario (inclusive)
+     * @param to last scenario (exclusive)
+     */
+    private void run(ScenarioCorpus corpus, int from, int to) {
+        AuditEvents.AuditBatchEvent batch = AuditEvents.AuditBatchEvent.start(auditType);
+        for (int i = from; i < to; i++) {
+            Scenario s = corpus.get(i);
+            EthicalEngine.Decision result = EthicalEngine.decide(s);
+            this.updateStatistics(s, result, corpus.count(i));
+            runCount += corpus.count(i);
+            batch = recordBatch(batch, s, result);
+        }
+        AuditEvents.AuditBatchEvent.finish(batch);
+    }
+
+    /**
+     * Fork-join task auditing a range of unique scenarios into a partial audit.
+     */
+    private static class CorpusTask extends RecursiveTask<Audit> {
+        private final ScenarioCorpus corpus;
+        private final int from;
+        private final int to;
+
+        /**
+         * Default constructor
+         * @param corpus unique scenarios
+         * @param from first scenario (inclusive)
+         * @param to last scenario (exclusive)
+         */
+        CorpusTask(ScenarioCorpus corpus, int from, int to) {
+            this.corpus = corpus;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Audit compute() {
+            if (to - from <= CHUNK_SIZE) {
+                Audit partial = new Audit();
+                partial.run(corpus, from, to);
+                return partial;
+            }
+            int middle = (from + to) >>> 1;
+            CorpusTask left = new CorpusTask(corpus, from, middle);
+            left.fork();
+            Audit partial = new CorpusTask(corpus, middle, to).compute();
+            partial.merge(left.join());
+            return partial;
+        }
+    }
+
+    /**
+     * Merge statistics of another audit into this audit
+     * @param other an audit
+     */
+    public void merge(Audit other) {
+        statisticsDatabase.merge(other.statisticsDatabase);
+        runCount += other.runCount;
+        surviveCount += other.surviveCount;
+        ageSum += other.ageSum;
+        for (int i = 0; i < ageHistograms.length; i++) {
+            ageHistograms[i].merge(other.ageHistograms[i]);
+        }
+    }
+
+    /**
+     * Write counts and statistics, for a checkpoint
+     * @param out destination
+     * @throws IOException when the destination cannot be written
+     */
+    void writeState(DataOutput out) throws IOException {
+        out.writeUTF(auditType);
+        out.writeLong(runCount);
+        out.writeLong(surviveCount);
+        out.writeLong(ageSum);
+        statisticsDatabase.writeTo(out);
+        for (AgeHistogram histogram: ageHistograms) {
+            histogram.writeTo(out);
+        }
+    }
+
+    /**
+     * Restore counts and statistics of a checkpoint into an empty audit
+     * @param in source
+     * @throws IOException when the source cannot be read
+     */
+    void readState(DataInput in) throws IOException {
+        auditType = in.readUTF();
+        runCount = in.readLong();
+        surviveCount = in.readLong();
+        ageSum = in.readLong();
+        statisticsDatabase.readFrom(in);
+        for (AgeHistogram histogram: ageHistograms) {
+            histogram.readFrom(in);
+        }
+    }
+
+    /**
+     * Run audit by imported scenarios. A stream of scenarios is consumed
+     * one scenario at a time; deduplicated scenarios are weighted by their
+     * multiplicity, with the statistics of the duplicated scenarios.
      */
     public void run() {
-        for (Scenario s: scenarioBuffer) {
+        if (scenarioCorpus != null) {
+            run(scenarioCorpus, 0, scenarioCorpus.size());
+            return;
+        }
+        Iterator<Scenario> scenarios = (scenarioStream != null) ?
+                scenarioStream : scenarioBuffer.iterator();
+        AuditEvents.AuditBatchEvent batch = AuditEvents.AuditBatchEvent.start(auditType);
+        while (scenarios.hasNext()) {
+            Scenario s = scenarios.next();
             EthicalEngine.Decision result = EthicalEngine.decide(s);
-            this.updateStatistics(s, result);
+            this.updateStatistics(s, result, 1);
             runCount += 1;
+            batch = recordBatch(batch, s, result);
         }
+        AuditEvents.AuditBatchEvent.finish(batch);
+        scenarioStream = null;
     }
 
     /**
@@ -96,13 +723,22 @@ public class Audit {
                     default -> System.out.print("Invalid response. ");
                 }
             }
-            this.updateStatistics(s, decision);
-            runCount += 1;
+            judge(s, decision);
         }
         // clear buffer
         scenarioBuffer = new ArrayList<>();
     }
 
+    /**
+     * Count one decision on a scenario, of a user or the engine
+     * @param scenario a judged scenario
+     * @param decision the decision
+     */
+    void judge(Scenario scenario, EthicalEngine.Decision decision) {
+        updateStatistics(scenario, decision, 1);
+        runCount += 1;
+    }
+
     /**
      * get audit type
      * @return the audit type
@@ -111,6 +747,14 @@ public class Audit {
         return auditType;
     }
 
+    /**
+     * Get the statistics counted so far
+     * @return statistics table, live
+     */
+    StatisticsTable getStatistics() {
+        return statisticsDatabase;
+    }
+
     /**
      * Set audit type
      * @param auditType the audit type
@@ -119,7 +763,25 @@ public class Audit {
         this.auditType = auditType;
     }
 
-    private void updateStatistics(Scenario scenario, EthicalEngine.Decision decision) {
+    private void updateStatistics(Scenario scenario, EthicalEngine.Decision decision, long count) {
+        updateStatistics(scenario, decision, count, 1);
+    }
+
+    private void updateStatistics(Scenario scenario, EthicalEngine.Decision decision, long count, double weight) {
+        AuditEvents.UpdateStatisticsEvent event = new AuditEvents.UpdateStatisticsEvent();
+        if (!event.isEnabled() || !AuditEvents.isSampled()) {
+            countScenario(scenario, decision, count, weight);
+            return;
+        }
+        event.begin();
+        countScenario(scenario, decision, count, weight);
+        event.end();
+        event.setScenario(scenario);
+        event.setDecision(decision.name());
+        event.commit();
+    }
+
+    private void countScenario(Scenario scenario, EthicalEngine.Decision decision, long count, double weight) {
         ArrayList<Character> survivors = (decision ==
                 EthicalEngine.Decision.PASSENGERS) ?
                 scenario.getPassengersList() : scenario.getPedestriansList();
@@ -128,47 +790,43 @@ public class Audit {
                 scenario.getPedestriansList() : scenario.getPassengersList();
         //survivors
         for (Character c: survivors) {
-            characterUpdate(c, 1, scenario.isLegalCrossing());
+            characterUpdate(c, 1, scenario.isLegalCrossing(), count, weight);
         }
         //sacrifices
         for (Character c: sacrifices) {
-            characterUpdate(c,0, scenario.isLegalCrossing());
+            characterUpdate(c,0, scenario.isLegalCrossing(), count, weight);
         }
 
     }
 
-    private void entryUpdate(String key, int modifier) {
-        if (!key.equals("UNKNOWN") && !key.equals("NONE") && !key.equals("UNSPECIFIED")){
-            statisticsDatabase.putIfAbsent(key, new int[]{0, 0});
-            int[] entry = statisticsDatabase.get(key);
-            statisticsDatabase.replace(key, new int[]{entry[0]+1, entry[1]+modifier});
-        }
-    }
-
-    private void characterUpdate(Character c, int modifier, boolean isLegalCrossing) {
-        entryUpdate(isLegalCrossing? "green": "red", modifier);
+    private void characterUpdate(Character c, int modifier, boolean isLegalCrossing, long count, double weight) {
+        statisticsDatabase.update(isLegalCrossing ? StatisticsTable.GREEN : StatisticsTable.RED, modifier, count,
+                weight);
         if (c instanceof Person) {
+            ageHistograms[1 - modifier].add(c.getAge(), count, weight);
             if (modifier == 1){
-                ageSum += c.getAge();
-                surviveCount += 1;
-            }
-            entryUpdate(c.getBodyType().name(), modifier);
-            entryUpdate(c.getGender().name(), modifier);
-            entryUpdate(((Person) c).getProfession().name(), modifier);
-            entryUpdate(((Person) c).getAgeCategory().name(), modifier);
-            entryUpdate("person", modifier);
+                ageSum += c.getAge() * count;
+                surviveCount += count;
+            }
+            statisticsDatabase.update(StatisticsTable.slotOf(c.getBodyType()), modifier, count, weight);
+            statisticsDatabase.update(StatisticsTable.slotOf(c.getGender()), modifier, count, weight);
+            statisticsDatabase.update(StatisticsTable.slotOf(((Person) c).getProfession()), modifier, count, weight);
+            statisticsDatabase.update(StatisticsTable.slotOf(((Person) c).getAgeCategory()), modifier, count, weight);
+            statisticsDatabase.update(StatisticsTable.PERSON, modifier, count, weight);
             if ((c).isYou()){
-                entryUpdate("you", modifier);
+                statisticsDatabase.update(StatisticsTable.YOU, modifier, count, weight);
             }
             if (((Person) c).isPregnant()){
-                entryUpdate("pregnant", modifier);
+                statisticsDatabase.update(StatisticsTable.PREGNANT, modifier, count, weight);
             }
         }
         else if (c instanceof Animal) {
-            entryUpdate(((Animal) c).getSpecies(), modifier);
-            entryUpdate("animal", modifier);
+            ageHistograms[3 - modifier].add(c.getAge(), count, weight);
+            statisticsDatabase.update(statisticsDatabase.speciesSlot(((Animal) c).getSpecies()), modifier, count,
+                    weight);
+            statisticsDatabase.update(StatisticsTable.ANIMAL, modifier, count, weight);
             if (((Animal) c).isPet()){
-                entryUpdate("pet", modifier);
+                statisticsDatabase.update(StatisticsTable.PET, modifier, count, weight);
             }
         }
     }
@@ -179,34 +837,150 @@ public class Audit {
      */
     @Override
     public String toString() {
+        AuditEvents.ReportEvent event = new AuditEvents.ReportEvent();
+        event.begin();
+        String report = render();
+        if (event.shouldCommit()) {
+            event.auditType = auditType;
+            event.runs = runCount;
+            event.length = report.length();
+            event.commit();
+        }
+        return report;
+    }
+
+    private String render() {
         StringBuilder string = new StringBuilder();
         string.append("======================================\n");
         string.append("# ").append(getAuditType()).append(" Audit\n");
         string.append("======================================\n");
         string.append("- % SAVED AFTER ").append(runCount).append(" RUNS\n");
-
-        // sort database by survival rate.
-        ArrayList <String[]> sortedDatabase = new ArrayList<>();
-        for (String key:statisticsDatabase.keySet()) {
-            int[] entry = statisticsDatabase.get(key);
-            double survivalRate = (double)entry[1]/(double) entry[0];
-            sortedDatabase.add(new String[]{key, String.valueOf(survivalRate)});
+        if (statisticsDatabase.isWeighted()) {
+            string.append("- RATES AND AGES WEIGHTED BY IMPORTANCE SAMPLING\n");
+        }
+        if (targetWidth > 0) {
+            string.append("- 95% INTERVALS, TARGET WIDTH ").append(new DecimalFormat("0.######").format(targetWidth))
+                    .append(isConverged ? ": CONVERGED\n" : ": DEADLINE PASSED\n");
         }
-        //sortedDatabase.sort(Comparator.comparingDouble(o -> -1 * Double.parseDouble(o[1])));
-        sortedDatabase.sort(Comparator.comparing((String[] o) -> -1 * Double.parseDouble(o[1]))
-                .thenComparing(o -> o[0]));
 
-        for (String[] s: sortedDatabase) {
-            string.append(s[0].toLowerCase()).append(": ")
-                    .append(String.format("%.1f", Double.parseDouble(s[1])))
-                    .append("\n");
+        // ranking is kept by the table, so no sorting is needed here
+        Formatter formatter = new Formatter(string);
+        for (int slot: statisticsDatabase.ranking()) {
+            double survivalRate = statisticsDatabase.rate(slot);
+            string.append(statisticsDatabase.name(slot).toLowerCase()).append(": ");
+            formatter.format("%.1f", survivalRate);
+            if (targetWidth > 0) {
+                formatter.format(" [%.3f, %.3f]", statisticsDatabase.lowerBound(slot, Z_95),
+                        statisticsDatabase.upperBound(slot, Z_95));
+            }
+            string.append("\n");
         }
         string.append("--\n");
-        string.append("average age: ").append(new DecimalFormat("#.#")
-                .format(ageSum/surviveCount)).append("\n");
+        DecimalFormat decimal = new DecimalFormat("#.#");
+        string.append("average age: ").append(decimal.format(averageAge())).append("\n");
+        string.append("--\n");
+        string.append("ages: count, mean (sd), p10 / median / p90\n");
+        for (int i = 0; i < ageHistograms.length; i++) {
+            AgeHistogram ages = ageHistograms[i];
+            long count = ages.count();
+            string.append(AGE_GROUPS[i]).append(": ").append(count);
+            if (count > 0) {
+                string.append(", ").append(decimal.format(ages.mean()))
+                        .append(" (").append(decimal.format(ages.standardDeviation())).append("), ")
+                        .append(decimal.format(ages.quantile(0.1))).append(" / ")
+                        .append(decimal.format(ages.quantile(0.5))).append(" / ")
+                        .append(decimal.format(ages.quantile(0.9)));
+            }
+            string.append("\n");
+        }
         return string.toString();
     }
 
+    /**
+     * Convert audit statistics to a single line of JSON, with characteristics
+     * in the same order as toString
+     * @return JSON object representing an audit
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"audit\":");
+        appendJsonString(json, getAuditType());
+        json.append(",\"time\":\"").append(Instant.now()).append('"');
+        json.append(",\"runs\":").append(runCount);
+        if (statisticsDatabase.isWeighted()) {
+            json.append(",\"weighted\":true");
+        }
+        if (targetWidth > 0) {
+            json.append(",\"targetWidth\":").append(targetWidth);
+            json.append(",\"converged\":").append(isConverged);
+        }
+        json.append(",\"saved\":[");
+        int[] ranking = statisticsDatabase.ranking();
+        for (int i = 0; i < ranking.length; i++) {
+            int slot = ranking[i];
+            long saved = statisticsDatabase.saved(slot);
+            long total = statisticsDatabase.total(slot);
+            json.append(i > 0 ? ",{\"name\":" : "{\"name\":");
+            appendJsonString(json, statisticsDatabase.name(slot).toLowerCase());
+            json.append(",\"saved\":").append(saved);
+            json.append(",\"total\":").append(total);
+            json.append(",\"rate\":").append(statisticsDatabase.rate(slot));
+            if (targetWidth > 0) {
+                json.append(",\"low\":").append(statisticsDatabase.lowerBound(slot, Z_95));
+                json.append(",\"high\":").append(statisticsDatabase.upperBound(slot, Z_95));
+            }
+            json.append('}');
+        }
+        json.append("],\"averageAge\":");
+        if (surviveCount > 0) {
+            json.append(averageAge());
+        }
+        else {
+            json.append("null");
+        }
+        json.append(",\"ages\":[");
+        for (int i = 0; i < ageHistograms.length; i++) {
+            AgeHistogram ages = ageHistograms[i];
+            long count = ages.count();
+            json.append(i > 0 ? ",{\"group\":" : "{\"group\":");
+            appendJsonString(json, AGE_GROUPS[i]);
+            json.append(",\"count\":").append(count);
+            json.append(",\"mean\":").append(count > 0 ? Double.toString(ages.mean()) : "null");
+            json.append(",\"sd\":").append(count > 0 ? Double.toString(ages.standardDeviation()) : "null");
+            json.append(",\"p10\":").append(count > 0 ? Double.toString(ages.quantile(0.1)) : "null");
+            json.append(",\"median\":").append(count > 0 ? Double.toString(ages.quantile(0.5)) : "null");
+            json.append(",\"p90\":").append(count > 0 ? Double.toString(ages.quantile(0.9)) : "null");
+            json.append('}');
+        }
+        json.append(']');
+        return json.append('}').toString();
+    }
+
+    /**
+     * Get the average age of saved persons, by weighted counts if kept
+     * @return average age, NaN if none was saved
+     */
+    private double averageAge() {
+        return statisticsDatabase.isWeighted() ? ageHistograms[0].mean() : (double) ageSum / surviveCount;
+    }
+
+    private static void appendJsonString(StringBuilder json, String s) {
+        json.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            }
+            else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
     /**
      * Print statistics out
      */
@@ -219,6 +993,8 @@ public class Audit {
      * @param path path of file output
      */
     public void printToFile(String path) {
+        AuditEvents.PrintReportEvent event = new AuditEvents.PrintReportEvent();
+        event.begin();
         try {
             PrintWriter outputStream = new PrintWriter(new FileOutputStream(path, true));
             outputStream.println(toString());
@@ -228,5 +1004,10 @@ public class Audit {
             System.out.println(
                     "ERROR: could not print results. Target directory does not exist.");
         }
+        if (event.shouldCommit()) {
+            event.path = path;
+            event.runs = runCount;
+            event.commit();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,196 @@
+/*
+ * Moral Machine: AuditCheckpoint.java
+ * Snapshots of long random audits, to resume them after the process stops.
+ *
+ * ©Runfeng Du
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class AuditCheckpoint {
+    private static final int MAGIC = 0x4d4d4350; // "MMCP"
+    private static final int VERSION = 2;
+    // time between checkpoints of a running audit
+    static final long INTERVAL_MILLIS = 30_000;
+    // time the shutdown hook waits for the audit to reach a checkpoint
+    private static final long SHUTDOWN_WAIT_SECONDS = 30;
+
+    private final Path path;
+    private volatile boolean isRunning = false;
+    private volatile boolean isStopRequested = false;
+    // opened when the current run saves on stop or finishes; one per run
+    private volatile CountDownLatch stopped = new CountDownLatch(1);
+    private long lastSave;
+
+    // run being resumed, set by load
+    private long runs;
+    private long done;
+    private boolean isSeeded;
+    private long position;
+
+    /**
+     * Default constructor
+     * @param path path of checkpoint file
+     */
+    public AuditCheckpoint(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * On interrupt (or any other shutdown), let a running audit save a
+     * checkpoint before the program exits
+     */
+    public void saveOnShutdown() {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            isStopRequested = true;
+            // read after isRunning, so a run that has begun is seen with its own latch
+            if (isRunning) {
+                try {
+                    stopped.await(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException ignored) {
+                }
+            }
+        }));
+    }
+
+    /**
+     * Start a run, checkpointed from now on
+     */
+    void begin() {
+        lastSave = System.currentTimeMillis();
+        stopped = new CountDownLatch(1);
+        isRunning = true;
+    }
+
+    /**
+     * Is a checkpoint due: the interval has passed or the program is stopping
+     * @return should save?
+     */
+    boolean isDue() {
+        return isStopRequested || System.currentTimeMillis() - lastSave >= INTERVAL_MILLIS;
+    }
+
+    /**
+     * Save the state of a run. The file is replaced atomically, so a crash
+     * while saving keeps the previous checkpoint. When the program is
+     * stopping, the calling thread waits here for the exit.
+     * @param audit the audit running
+     * @param runs runs of the current call
+     * @param done runs of the current call already counted in the audit
+     * @param isSeeded is the run split into seeded chunks?
+     * @param position master seed of chunks, or state of the generator
+     */
+    void save(Audit audit, long runs, long done, boolean isSeeded, long position) {
+        try {
+            Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            FileOutputStream file = new FileOutputStream(temporary.toFile());
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(file))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeBoolean(isSeeded);
+                output.writeLong(runs);
+                output.writeLong(done);
+                output.writeLong(position);
+                audit.writeState(output);
+                output.flush();
+                file.getFD().sync();
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            System.out.println("ERROR: could not write checkpoint: " + e.getMessage());
+        }
+        lastSave = System.currentTimeMillis();
+        if (isStopRequested) {
+            System.out.println("Audit stopped after " + done + " of " + runs + " runs, checkpoint saved to " +
+                    path + ".");
+            stopped.countDown();
+            // the program exits once the shutdown hook returns
+            while (true) {
+                try {
+                    Thread.sleep(Long.MAX_VALUE);
+                }
+                catch (InterruptedException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * End a run, removing its checkpoint: its results are complete
+     */
+    void finish() {
+        isRunning = false;
+        stopped.countDown();
+        try {
+            Files.deleteIfExists(path);
+        }
+        catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Restore the state of a checkpoint into an empty audit
+     * @param audit an empty audit
+     * @throws IOException when the checkpoint cannot be read or is invalid
+     */
+    void load(Audit audit) throws IOException {
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path)))) {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("not a checkpoint file");
+            }
+            if (input.readInt() != VERSION) {
+                throw new IOException("checkpoint of another version");
+            }
+            isSeeded = input.readBoolean();
+            runs = input.readLong();
+            done = input.readLong();
+            position = input.readLong();
+            if (done < 0 || done > runs) {
+                throw new IOException("invalid checkpoint");
+            }
+            audit.readState(input);
+        }
+    }
+
+    /**
+     * Was the resumed run split into seeded chunks
+     * @return is seeded?
+     */
+    public boolean isSeeded() {
+        return isSeeded;
+    }
+
+    /**
+     * Get the master seed of the resumed run, if seeded
+     * @return master seed
+     */
+    public long getSeed() {
+        return position;
+    }
+
+    long getRuns() {
+        return runs;
+    }
+
+    long getDone() {
+        return done;
+    }
+
+    long getPosition() {
+        return position;
+    }
+}
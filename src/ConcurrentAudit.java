@@ -0,0 +1,217 @@
+/*
+ * Moral Machine: ConcurrentAudit.java
+ * counts decisions from many threads at once.
+ *
+ * ©Runfeng Du
+ */
+
+import ethicalengine.Scenario;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Decisions are counted into stripes, each a partial audit behind its own
+ * lock. A thread keeps the stripe it was first given, round robin, so while
+ * there are no more producer threads than stripes every lock stays
+ * uncontended and threads share no counters. A stripe is allocated by the
+ * first thread given it, in that thread's allocation buffer, rather than
+ * next to the other stripes.
+ *
+ * A snapshot is one instant across all threads: it holds the lock of every
+ * stripe at once, but only to swap each stripe's counts for an empty audit,
+ * so writers wait for a few swaps rather than for a merge. The swapped out
+ * counts, exactly those of the decisions counted before that instant, are
+ * then added to what earlier snapshots settled, with the writers going on.
+ * Snapshots are taken one at a time.
+ */
+public class ConcurrentAudit {
+    private final AtomicReferenceArray<Stripe> stripes;
+    private final AtomicInteger nextStripe = new AtomicInteger();
+    private final ThreadLocal<Stripe> stripe = ThreadLocal.withInitial(this::assignStripe);
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+    private volatile String auditType = "Unspecified";
+
+    /**
+     * Default constructor, with two stripes per core
+     */
+    public ConcurrentAudit() {
+        this(2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor
+     * @param stripes number of stripes, best at least the number of producer threads
+     */
+    public ConcurrentAudit(int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("stripes must be positive: " + stripes);
+        }
+        this.stripes = new AtomicReferenceArray<>(stripes);
+    }
+
+    private Stripe assignStripe() {
+        int index = (nextStripe.getAndIncrement() & Integer.MAX_VALUE) % stripes.length();
+        Stripe stripe = stripes.get(index);
+        if (stripe == null) {
+            stripes.compareAndSet(index, null, new Stripe());
+            stripe = stripes.get(index);
+        }
+        return stripe;
+    }
+
+    /**
+     * Decide a scenario with the engine and count the decision
+     * @param scenario a scenario
+     * @return decision of the engine
+     */
+    public EthicalEngine.Decision run(Scenario scenario) {
+        EthicalEngine.Decision decision = EthicalEngine.decide(scenario);
+        record(scenario, decision);
+        return decision;
+    }
+
+    /**
+     * Count a decision on a scenario
+     * @param scenario a scenario
+     * @param decision decision of the engine or a user
+     */
+    public void record(Scenario scenario, EthicalEngine.Decision decision) {
+        Stripe own = stripe.get();
+        own.lock.lock();
+        try {
+            own.counts.judge(scenario, decision);
+        }
+        finally {
+            own.lock.unlock();
+        }
+    }
+
+    /**
+     * Add the counts of an audit
+     * @param other an audit, not changed meanwhile
+     */
+    public void merge(Audit other) {
+        Stripe own = stripe.get();
+        own.lock.lock();
+        try {
+            own.counts.merge(other);
+        }
+        finally {
+            own.lock.unlock();
+        }
+    }
+
+    /**
+     * Take a copy of the counts at one instant
+     * @return an audit of exactly the decisions counted before the snapshot
+     */
+    public Audit snapshot() {
+        Audit[] empty = new Audit[stripes.length()];
+        for (int i = 0; i < empty.length; i++) {
+            empty[i] = new Audit();
+        }
+        Audit audit = new Audit();
+        audit.setAuditType(auditType);
+        snapshotLock.lock();
+        try {
+            Stripe[] held = lockAll();
+            Audit[] drained = new Audit[held.length];
+            try {
+                for (int i = 0; i < held.length; i++) {
+                    if (held[i] != null) {
+                        drained[i] = held[i].counts;
+                        held[i].counts = empty[i];
+                    }
+                }
+            }
+            finally {
+                for (Stripe stripe: held) {
+                    if (stripe != null) {
+                        stripe.lock.unlock();
+                    }
+                }
+            }
+            for (int i = 0; i < held.length; i++) {
+                if (held[i] != null) {
+                    held[i].settled.merge(drained[i]);
+                    audit.merge(held[i].settled);
+                }
+            }
+        }
+        finally {
+            snapshotLock.unlock();
+        }
+        return audit;
+    }
+
+    /**
+     * Lock every stripe allocated so far, until no more are allocated meanwhile
+     * @return the locked stripes by index, null where none is allocated
+     */
+    private Stripe[] lockAll() {
+        Stripe[] held = new Stripe[stripes.length()];
+        boolean isGrown = true;
+        while (isGrown) {
+            isGrown = false;
+            for (int i = 0; i < held.length; i++) {
+                Stripe stripe = stripes.get(i);
+                if (held[i] == null && stripe != null) {
+                    stripe.lock.lock();
+                    held[i] = stripe;
+                    isGrown = true;
+                }
+            }
+        }
+        return held;
+    }
+
+    /**
+     * get audit type
+     * @return the audit type
+     */
+    public String getAuditType() {
+        return auditType;
+    }
+
+    /**
+     * set audit type
+     * @param auditType the audit type
+     */
+    public void setAuditType(String auditType) {
+        this.auditType = auditType;
+    }
+
+    /**
+     * Report of a snapshot
+     * @return the report, as Audit.toString
+     */
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+
+    /**
+     * Print the report of a snapshot
+     */
+    public void printStatistic() {
+        snapshot().printStatistic();
+    }
+
+    /**
+     * Append the report of a snapshot to a file
+     * @param path path of file
+     */
+    public void printToFile(String path) {
+        snapshot().printToFile(path);
+    }
+
+    /**
+     * Counts since the last snapshot, behind a lock, and counts settled by snapshots
+     */
+    private static final class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private Audit counts = new Audit();
+        private final Audit settled = new Audit();
+    }
+}
@@ -6,57 +6,103 @@
  */
 
 import ethicalengine.Animal;
+import ethicalengine.AuditEvents;
 import ethicalengine.Character;
 import ethicalengine.Person;
 import ethicalengine.Scenario;
-import java.util.HashMap;
+import ethicalengine.ScenarioBatch;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
 import static ethicalengine.Character.BodyType.*;
-import static ethicalengine.Person.AgeCategory.*;
-import static ethicalengine.Person.Profession.*;
 
 public class DecisionEngine {
     /*
-     * Merits of characteristics
+     * Current weights. Snapshots are immutable and swapped as a whole, so a
+     * decision reads the field once and never sees a half-updated set.
      */
-    final HashMap<Person.Profession, Double> professionMerit = new HashMap<>() {
-                {
-                    put(CEO, 1.0);
-                    put(CRIMINAL, 0.5);
-                    put(DOCTOR, 1.5);
-                    put(FIREFIGHTER, 1.5);
-                    put(JANITOR, 1.0);
-                    put(HOMELESS, 0.7);
-                    put(UNEMPLOYED, 1.0);
-                    put(STUDENT, 1.1);
-                    put(PROFESSOR, 1.1);
-                    put(Person.Profession.UNKNOWN, 1.0);
-                    put(NONE, 1.0);
-                    put(null, 1.0);
-                }
-            };
-    final HashMap<Person.AgeCategory, Double> ageTypeMerit = new HashMap<>() {
-                {
-                    put(BABY, 3.0);
-                    put(CHILD, 2.5);
-                    put(ADULT, 1.0);
-                    put(SENIOR, 0.8);
-                    put(null, 1.0);
-                }
-            };
-    final HashMap<Character.BodyType, Double> bodyTypeMerit = new HashMap<>() {
-                {
-                    put(AVERAGE, 1.0);
-                    put(ATHLETIC, 1.05);
-                    put(OVERWEIGHT, 0.95);
-                    put(UNSPECIFIED, 1.0);
-                    put(null, 1.0);
+    private volatile DecisionWeights weights;
+    // ratings of a lane being summed, per thread since engines are shared
+    private static final ThreadLocal<double[]> SCRATCH = ThreadLocal.withInitial(() -> new double[16]);
+
+    /**
+     * Default constructor, uses the built-in weights
+     */
+    public DecisionEngine() {
+        this(DecisionWeights.defaults());
+    }
+
+    /**
+     * Constructor with weights specified
+     * @param weights weights of the engine
+     */
+    public DecisionEngine(DecisionWeights weights) {
+        this.weights = weights;
+    }
+
+    /**
+     * Get current weights
+     * @return current weights
+     */
+    public DecisionWeights getWeights() {
+        return weights;
+    }
+
+    /**
+     * Replace the weights, taking effect from the next decision
+     * @param weights new weights
+     */
+    public void setWeights(DecisionWeights weights) {
+        this.weights = weights;
+    }
+
+    /**
+     * Watch a weights file and swap in its weights whenever it changes.
+     * Invalid or partially written files are reported and the current weights kept.
+     * @param path path of weights file
+     * @throws IOException when the directory cannot be watched
+     */
+    public void watchWeights(Path path) throws IOException {
+        Path file = path.toAbsolutePath();
+        WatchService watcher = FileSystems.getDefault().newWatchService();
+        file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watcher.take();
+                    boolean changed = false;
+                    for (WatchEvent<?> event: key.pollEvents()) {
+                        changed |= file.getFileName().equals(event.context());
+                    }
+                    key.reset();
+                    if (changed) {
+                        // let a burst of writes settle before reading
+                        Thread.sleep(50);
+                        reloadWeights(file);
+                    }
                 }
-            };
-    final double illegalCrossingDemerit = 0.7;
-    final double pregnantMerit = 3.0;
-    final double animalMerit = 0.01;
-    final double petMerit = 20.0;
-    final double youMerit = 2.0;
+            }
+            catch (InterruptedException ignored) {}
+        }, "weights-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void reloadWeights(Path file) {
+        try {
+            setWeights(DecisionWeights.load(file));
+        }
+        catch (IOException | IllegalArgumentException e) {
+            System.out.println("WARNING: could not reload weights file: " + e.getMessage());
+        }
+    }
 
     /**
      * Make a decision on a scenario
@@ -64,37 +110,184 @@ public class DecisionEngine {
      * @return decision
      */
     public EthicalEngine.Decision decide(Scenario scenario){
-        double passengerRating = 0;
-        double pedestrianRating = 0;
-
-        for (Character c : scenario.getPassengersList()) {
-            passengerRating += rateCharacter(c);
+        AuditEvents.DecideEvent event = new AuditEvents.DecideEvent();
+        if (!event.isEnabled() || !AuditEvents.isSampled()) {
+            return decide(weights, scenario);
         }
-        for (Character c: scenario.getPedestriansList()) {
-            pedestrianRating += rateCharacter(c);
+        event.begin();
+        EthicalEngine.Decision decision = decide(weights, scenario);
+        event.end();
+        event.setScenario(scenario);
+        event.setDecision(decision.name());
+        event.commit();
+        return decision;
+    }
+
+    /**
+     * Make a decision on a scenario by given weights
+     * @param w weights to rate by
+     * @param scenario a scenario
+     * @return decision
+     */
+    private EthicalEngine.Decision decide(DecisionWeights w, Scenario scenario) {
+        ArrayList<Character> passengers = scenario.getPassengersList();
+        ArrayList<Character> pedestrians = scenario.getPedestriansList();
+        int longest = Math.max(passengers.size(), pedestrians.size());
+        // lanes of two or fewer are summed without the scratch array
+        double[] ratings = null;
+        if (longest > 2) {
+            ratings = SCRATCH.get();
+            if (ratings.length < longest) {
+                ratings = new double[2 * longest];
+                SCRATCH.set(ratings);
+            }
         }
+        double passengerRating = rateLane(w, passengers, ratings);
+        double pedestrianRating = rateLane(w, pedestrians, ratings);
         if (!scenario.isLegalCrossing()){
-            pedestrianRating = pedestrianRating * illegalCrossingDemerit;
+            pedestrianRating = pedestrianRating * w.illegalCrossingDemerit;
         }
         return (passengerRating > pedestrianRating) ?
                 EthicalEngine.Decision.PASSENGERS : EthicalEngine.Decision.PEDESTRIANS;
     }
 
+    /**
+     * Rate the characters of a lane
+     * @param w weights to rate by
+     * @param lane characters of a lane
+     * @param ratings scratch array of at least the lane size, unless the lane has two or fewer characters
+     * @return sum of ratings, independent of the order of characters
+     */
+    private double rateLane(DecisionWeights w, ArrayList<Character> lane, double[] ratings) {
+        int size = lane.size();
+        if (size <= 2) {
+            // a sum of two is the same in either order
+            double rating = 0;
+            for (Character c: lane) {
+                rating += rateCharacter(w, c);
+            }
+            return rating;
+        }
+        for (int i = 0; i < size; i++) {
+            ratings[i] = rateCharacter(w, lane.get(i));
+        }
+        return sumAscending(ratings, size);
+    }
+
+    /**
+     * Add ratings in ascending order. Rounding depends on the order of
+     * a sum, so this keeps decisions equal for scenarios listing the same
+     * characters in another order. It departs from the original sum in list
+     * order on near ties of lanes of three or more (see DecisionEngineTest).
+     * @param ratings ratings, sorted in place
+     * @param size number of ratings
+     * @return sum of ratings
+     */
+    private static double sumAscending(double[] ratings, int size) {
+        for (int i = 1; i < size; i++) {
+            double rating = ratings[i];
+            int j = i - 1;
+            for (; j >= 0 && ratings[j] > rating; j--) {
+                ratings[j + 1] = ratings[j];
+            }
+            ratings[j + 1] = rating;
+        }
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += ratings[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Make decisions on a whole batch of scenarios
+     * @param batch a batch of scenarios
+     * @param decisions array to reuse for the decisions, may be null
+     * @return decisions, indexed as the batch
+     */
+    public EthicalEngine.Decision[] decideBatch(ScenarioBatch batch, EthicalEngine.Decision[] decisions) {
+        if (decisions == null || decisions.length < batch.size()) {
+            decisions = new EthicalEngine.Decision[batch.size()];
+        }
+        DecisionWeights w = weights;
+        double[] personRatings = w.personRatings;
+        double[] animalRatings = w.animalRatings;
+        int[] offsets = batch.getOffsets();
+        long[] legalCrossings = batch.getLegalCrossings();
+        byte[] flags = batch.getFlags();
+        byte[] professions = batch.getProfessions();
+        byte[] ageCategories = batch.getAgeCategories();
+        byte[] bodyTypes = batch.getBodyTypes();
+        double[] ratings = SCRATCH.get();
+        int c = 0;
+        for (int s = 0; s < batch.size(); s++) {
+            int pedestrianStart = offsets[2 * s + 1];
+            int end = offsets[2 * s + 2];
+            int longest = Math.max(pedestrianStart - c, end - pedestrianStart);
+            if (ratings.length < longest) {
+                ratings = new double[2 * longest];
+                SCRATCH.set(ratings);
+            }
+            int size = 0;
+            for (; c < pedestrianStart; c++) {
+                ratings[size++] = rateCharacter(personRatings, animalRatings,
+                        flags[c], professions[c], ageCategories[c], bodyTypes[c]);
+            }
+            double passengerRating = sumAscending(ratings, size);
+            size = 0;
+            for (; c < end; c++) {
+                ratings[size++] = rateCharacter(personRatings, animalRatings,
+                        flags[c], professions[c], ageCategories[c], bodyTypes[c]);
+            }
+            double pedestrianRating = sumAscending(ratings, size);
+            if ((legalCrossings[s >>> 6] & (1L << s)) == 0) {
+                pedestrianRating = pedestrianRating * w.illegalCrossingDemerit;
+            }
+            decisions[s] = (passengerRating > pedestrianRating) ?
+                    EthicalEngine.Decision.PASSENGERS : EthicalEngine.Decision.PEDESTRIANS;
+        }
+        return decisions;
+    }
+
+    /**
+     * Rate a character of a batch
+     * @param personRatings rating table of persons
+     * @param animalRatings rating table of animals
+     * @param flags flags of character
+     * @param profession ordinal of profession
+     * @param ageCategory ordinal of age category
+     * @param bodyType ordinal of body type
+     * @return rating
+     */
+    private static double rateCharacter(double[] personRatings, double[] animalRatings, byte flags,
+                                        int profession, int ageCategory, int bodyType) {
+        if ((flags & ScenarioBatch.ANIMAL) != 0) {
+            return animalRatings[(flags & ScenarioBatch.PET) >>> 3];
+        }
+        // PREGNANT and YOU flags line up with the low bits of the table index
+        return personRatings[DecisionWeights.personIndex(profession, ageCategory, bodyType) |
+                ((flags >>> 1) & 3)];
+    }
+
     /**
      * Rate characters
+     * @param w weights to rate by
      * @param c a character
      * @return rating
      */
-    private double rateCharacter(Character c) {
+    private double rateCharacter(DecisionWeights w, Character c) {
         if (c instanceof Person) {
-            return professionMerit.get(((Person) c).getProfession()) *
-                    ageTypeMerit.get(((Person) c).getAgeCategory()) *
-                    bodyTypeMerit.get(c.getBodyType()) *
-                    ((((Person) c).isPregnant()) ? pregnantMerit : 1.0) *
-                    (c.isYou() ? youMerit : 1.0);
+            Person p = (Person) c;
+            // missing values rate as UNKNOWN / UNSPECIFIED
+            Person.Profession profession = (p.getProfession() == null) ?
+                    Person.Profession.UNKNOWN : p.getProfession();
+            Character.BodyType bodyType = (p.getBodyType() == null) ? UNSPECIFIED : p.getBodyType();
+            return w.personRatings[DecisionWeights.personIndex(profession.ordinal(),
+                    p.getAgeCategory().ordinal(), bodyType.ordinal()) |
+                    (p.isYou() ? 2 : 0) | (p.isPregnant() ? 1 : 0)];
         }
         if (c instanceof Animal) {
-            return animalMerit * (((Animal) c).isPet()? petMerit : 1.0);
+            return w.animalRatings[((Animal) c).isPet() ? 1 : 0];
         }
         return 0;
     }
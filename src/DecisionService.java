@@ -0,0 +1,327 @@
+/*
+ * Moral Machine: DecisionService.java
+ * Decides scenarios sent over local sockets in binary frames.
+ *
+ * ©Runfeng Du
+ */
+
+import ethicalengine.DecisionProtocol;
+import ethicalengine.ScenarioBatch;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+ * Connections are spread over event loops, each a thread with its own
+ * selector, batch and decision arrays, so loops share nothing but the
+ * engine (whose weights are immutable snapshots). A loop decodes every
+ * complete request frame it has read into a batch, decides the batch and
+ * queues the response; frames of one connection are answered in order.
+ * While a connection has responses left to write, it is not read, so a
+ * client that does not read its responses cannot grow them without bound.
+ * See DecisionProtocol for the frames.
+ */
+public class DecisionService implements Closeable {
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final int BACKLOG = 1024;
+
+    private final ServerSocketChannel server;
+    private final Loop[] loops;
+    private final Thread acceptor;
+    private volatile boolean isClosed = false;
+
+    /**
+     * Default constructor
+     * @param port port to listen on (on the loopback address), 0 for any free port
+     * @param threads number of event loops
+     * @throws IOException when the port cannot be bound
+     */
+    public DecisionService(int port, int threads) throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        loops = new Loop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new Loop(i);
+        }
+        acceptor = new Thread(this::accept, "decision-acceptor");
+    }
+
+    /**
+     * Start serving connections
+     */
+    public void start() {
+        for (Loop loop: loops) {
+            loop.thread.start();
+        }
+        acceptor.start();
+    }
+
+    /**
+     * Get the port the service listens on
+     * @return port
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Stop serving, closing all connections
+     */
+    @Override
+    public void close() throws IOException {
+        isClosed = true;
+        server.close();
+        for (Loop loop: loops) {
+            loop.selector.wakeup();
+        }
+    }
+
+    private void accept() {
+        int next = 0;
+        while (!isClosed) {
+            try {
+                SocketChannel channel = server.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[next].add(channel);
+                next = (next + 1) % loops.length;
+            }
+            catch (ClosedChannelException e) {
+                return;
+            }
+            catch (IOException e) {
+                if (!isClosed) {
+                    System.out.println("WARNING: could not accept connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * An event loop serving a share of the connections
+     */
+    private class Loop implements Runnable {
+        private final Thread thread;
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<SocketChannel> added = new ConcurrentLinkedQueue<>();
+        private final ScenarioBatch batch = new ScenarioBatch(1024, 8192);
+        private EthicalEngine.Decision[] decisions;
+        private long[] bits = new long[16];
+
+        /**
+         * Default constructor
+         * @param index index of loop
+         * @throws IOException when no selector can be opened
+         */
+        Loop(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "decision-loop-" + index);
+        }
+
+        /**
+         * Hand a new connection to the loop
+         * @param channel a non-blocking connection
+         */
+        void add(SocketChannel channel) {
+            added.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!isClosed) {
+                    selector.select();
+                    for (SocketChannel channel = added.poll(); channel != null; channel = added.poll()) {
+                        channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                connection.read(key);
+                            }
+                            else if (key.isWritable()) {
+                                connection.write(key);
+                            }
+                        }
+                        catch (IOException e) {
+                            key.cancel();
+                            connection.channel.close();
+                        }
+                    }
+                }
+            }
+            catch (IOException e) {
+                System.out.println("ERROR: decision loop failed: " + e.getMessage());
+            }
+            finally {
+                for (SelectionKey key: selector.keys()) {
+                    try {
+                        key.channel().close();
+                    }
+                    catch (IOException ignored) {
+                    }
+                }
+                try {
+                    selector.close();
+                }
+                catch (IOException ignored) {
+                }
+            }
+        }
+
+        /**
+         * Decide the scenarios of a request frame into a response
+         * @param frame the frame after its length, limited to its end
+         * @param out buffer of responses, in write mode
+         * @return the buffer, or a larger copy
+         * @throws ProtocolException when the frame is malformed
+         */
+        private ByteBuffer decide(ByteBuffer frame, ByteBuffer out) throws ProtocolException {
+            batch.clear();
+            int requestId = DecisionProtocol.readRequest(frame, batch);
+            int count = batch.size();
+            decisions = EthicalEngine.decideBatch(batch, decisions);
+            if (bits.length < (count + 63) >>> 6) {
+                bits = new long[2 * ((count + 63) >>> 6)];
+            }
+            for (int i = 0; i < (count + 63) >>> 6; i++) {
+                bits[i] = 0;
+            }
+            for (int i = 0; i < count; i++) {
+                bits[i >>> 6] |= (long) decisions[i].ordinal() << i;
+            }
+            return DecisionProtocol.writeResponse(out, requestId, DecisionProtocol.OK, bits, count);
+        }
+
+        /**
+         * A client connection and its unsent responses
+         */
+        private class Connection {
+            private final SocketChannel channel;
+            // write mode: bytes read, starting at a frame
+            private ByteBuffer in = ByteBuffer.allocate(BUFFER_BYTES);
+            // write mode: responses not yet written
+            private ByteBuffer out = ByteBuffer.allocate(BUFFER_BYTES);
+            private boolean isClosing = false;
+
+            Connection(SocketChannel channel) {
+                this.channel = channel;
+            }
+
+            /**
+             * Read what has arrived and answer it
+             * @param key key of connection
+             * @throws IOException when the connection fails
+             */
+            void read(SelectionKey key) throws IOException {
+                if (channel.read(in) < 0) {
+                    throw new ClosedChannelException();
+                }
+                serve(key);
+            }
+
+            /**
+             * Write queued responses, then answer frames read meanwhile
+             * @param key key of connection
+             * @throws IOException when the connection fails
+             */
+            void write(SelectionKey key) throws IOException {
+                serve(key);
+            }
+
+            /**
+             * Answer complete frames and write the responses until either no
+             * complete frame is left (wait to read) or responses cannot all
+             * be written (wait to write, not reading meanwhile)
+             * @param key key of connection
+             * @throws IOException when the connection fails
+             */
+            private void serve(SelectionKey key) throws IOException {
+                while (true) {
+                    boolean isFull = answer();
+                    out.flip();
+                    channel.write(out);
+                    out.compact();
+                    if (out.position() > 0) {
+                        key.interestOps(SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    if (isClosing) {
+                        key.cancel();
+                        channel.close();
+                        return;
+                    }
+                    if (!isFull) {
+                        key.interestOps(SelectionKey.OP_READ);
+                        return;
+                    }
+                }
+            }
+
+            /**
+             * Answer complete frames read, until BUFFER_BYTES of responses are queued
+             * @return were frames left for want of room for responses?
+             */
+            private boolean answer() {
+                in.flip();
+                boolean isFull = false;
+                while (in.remaining() >= 4) {
+                    if (out.position() >= BUFFER_BYTES) {
+                        isFull = true;
+                        break;
+                    }
+                    int length = in.getInt(in.position());
+                    if (length < 5 || length > DecisionProtocol.MAX_FRAME_BYTES) {
+                        malformed(-1);
+                        break;
+                    }
+                    if (in.remaining() < 4 + length) {
+                        if (in.capacity() < 4 + length) {
+                            in = ByteBuffer.allocate(Math.max(4 + length, 2 * in.capacity())).put(in).flip();
+                        }
+                        break;
+                    }
+                    ByteBuffer frame = in.slice();
+                    frame.position(4).limit(4 + length);
+                    in.position(in.position() + 4 + length);
+                    try {
+                        out = decide(frame.slice(), out);
+                    }
+                    catch (ProtocolException e) {
+                        malformed(frame.getInt(4));
+                        break;
+                    }
+                }
+                in.compact();
+                return isFull;
+            }
+
+            /**
+             * Answer a malformed frame, dropping the rest of the input, and
+             * close once the answers are written
+             * @param requestId id of the request, -1 if unknown
+             */
+            private void malformed(int requestId) {
+                out = DecisionProtocol.writeResponse(out, requestId, DecisionProtocol.MALFORMED, bits, 0);
+                isClosing = true;
+                in.position(in.limit());
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Moral Machine: DecisionWeights.java
+ * Immutable, compiled set of merits used by the decision engine.
+ *
+ * ©Runfeng Du
+ */
+
+import ethicalengine.Character;
+import ethicalengine.Person;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Properties;
+import static ethicalengine.Character.BodyType.*;
+import static ethicalengine.Person.AgeCategory.*;
+import static ethicalengine.Person.Profession.*;
+
+public final class DecisionWeights {
+    private static final Person.Profession[] PROFESSIONS = Person.Profession.values();
+    private static final Person.AgeCategory[] AGE_CATEGORIES = Person.AgeCategory.values();
+    private static final Character.BodyType[] BODY_TYPES = Character.BodyType.values();
+
+    /*
+     * Merits of characteristics, enum merits indexed by ordinal
+     */
+    private final double[] professionMerit;
+    private final double[] ageTypeMerit;
+    private final double[] bodyTypeMerit;
+    final double illegalCrossingDemerit;
+    private final double pregnantMerit;
+    private final double animalMerit;
+    private final double petMerit;
+    private final double youMerit;
+
+    /*
+     * Merits compiled into flat tables. Person ratings are indexed by
+     * (((profession * ageCategories + ageCategory) * bodyTypes + bodyType) << 2)
+     * | (you << 1) | pregnant; animal ratings by pet.
+     */
+    final double[] personRatings =
+            new double[PROFESSIONS.length * AGE_CATEGORIES.length * BODY_TYPES.length * 4];
+    final double[] animalRatings = new double[2];
+
+    private static final DecisionWeights defaultWeights = createDefaults();
+
+    /**
+     * Default constructor, compiles the rating tables
+     * @param professionMerit merits of professions, by ordinal
+     * @param ageTypeMerit merits of age categories, by ordinal
+     * @param bodyTypeMerit merits of body types, by ordinal
+     * @param illegalCrossingDemerit factor of pedestrians crossing at red light
+     * @param pregnantMerit factor of pregnant persons
+     * @param animalMerit merit of animals
+     * @param petMerit factor of pets
+     * @param youMerit factor of you
+     */
+    private DecisionWeights(double[] professionMerit, double[] ageTypeMerit, double[] bodyTypeMerit,
+                            double illegalCrossingDemerit, double pregnantMerit, double animalMerit,
+                            double petMerit, double youMerit) {
+        this.professionMerit = professionMerit;
+        this.ageTypeMerit = ageTypeMerit;
+        this.bodyTypeMerit = bodyTypeMerit;
+        this.illegalCrossingDemerit = illegalCrossingDemerit;
+        this.pregnantMerit = pregnantMerit;
+        this.animalMerit = animalMerit;
+        this.petMerit = petMerit;
+        this.youMerit = youMerit;
+
+        for (Person.Profession p: PROFESSIONS) {
+            for (Person.AgeCategory a: AGE_CATEGORIES) {
+                for (Character.BodyType b: BODY_TYPES) {
+                    for (int flags = 0; flags < 4; flags++) {
+                        personRatings[personIndex(p.ordinal(), a.ordinal(), b.ordinal()) | flags] =
+                                professionMerit[p.ordinal()] *
+                                ageTypeMerit[a.ordinal()] *
+                                bodyTypeMerit[b.ordinal()] *
+                                (((flags & 1) != 0) ? pregnantMerit : 1.0) *
+                                (((flags & 2) != 0) ? youMerit : 1.0);
+                    }
+                }
+            }
+        }
+        animalRatings[0] = animalMerit * 1.0;
+        animalRatings[1] = animalMerit * petMerit;
+    }
+
+    private static DecisionWeights createDefaults() {
+        double[] professionMerit = new double[PROFESSIONS.length];
+        professionMerit[CEO.ordinal()] = 1.0;
+        professionMerit[CRIMINAL.ordinal()] = 0.5;
+        professionMerit[DOCTOR.ordinal()] = 1.5;
+        professionMerit[FIREFIGHTER.ordinal()] = 1.5;
+        professionMerit[JANITOR.ordinal()] = 1.0;
+        professionMerit[HOMELESS.ordinal()] = 0.7;
+        professionMerit[UNEMPLOYED.ordinal()] = 1.0;
+        professionMerit[STUDENT.ordinal()] = 1.1;
+        professionMerit[PROFESSOR.ordinal()] = 1.1;
+        professionMerit[Person.Profession.UNKNOWN.ordinal()] = 1.0;
+        professionMerit[NONE.ordinal()] = 1.0;
+
+        double[] ageTypeMerit = new double[AGE_CATEGORIES.length];
+        ageTypeMerit[BABY.ordinal()] = 3.0;
+        ageTypeMerit[CHILD.ordinal()] = 2.5;
+        ageTypeMerit[ADULT.ordinal()] = 1.0;
+        ageTypeMerit[SENIOR.ordinal()] = 0.8;
+
+        double[] bodyTypeMerit = new double[BODY_TYPES.length];
+        bodyTypeMerit[AVERAGE.ordinal()] = 1.0;
+        bodyTypeMerit[ATHLETIC.ordinal()] = 1.05;
+        bodyTypeMerit[OVERWEIGHT.ordinal()] = 0.95;
+        bodyTypeMerit[UNSPECIFIED.ordinal()] = 1.0;
+
+        return new DecisionWeights(professionMerit, ageTypeMerit, bodyTypeMerit,
+                0.7, 3.0, 0.01, 20.0, 2.0);
+    }
+
+    /**
+     * Get the built-in weights
+     * @return default weights
+     */
+    public static DecisionWeights defaults() {
+        return defaultWeights;
+    }
+
+    /**
+     * Load weights from a weights file. Every weight has to be present,
+     * so a partially written file is rejected rather than half applied.
+     * @param path path of weights file
+     * @return loaded weights
+     * @throws IOException when the file cannot be read
+     * @throws IllegalArgumentException when a weight is missing, unknown or invalid
+     */
+    public static DecisionWeights load(Path path) throws IOException, IllegalArgumentException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path)) {
+            properties.load(reader);
+        }
+        HashSet<String> unused = new HashSet<>(properties.stringPropertyNames());
+
+        double[] professionMerit = new double[PROFESSIONS.length];
+        for (Person.Profession p: PROFESSIONS) {
+            professionMerit[p.ordinal()] = weight(properties, unused, "profession." + p.name().toLowerCase());
+        }
+        double[] ageTypeMerit = new double[AGE_CATEGORIES.length];
+        for (Person.AgeCategory a: AGE_CATEGORIES) {
+            ageTypeMerit[a.ordinal()] = weight(properties, unused, "age." + a.name().toLowerCase());
+        }
+        double[] bodyTypeMerit = new double[BODY_TYPES.length];
+        for (Character.BodyType b: BODY_TYPES) {
+            bodyTypeMerit[b.ordinal()] = weight(properties, unused, "body." + b.name().toLowerCase());
+        }
+        DecisionWeights weights = new DecisionWeights(professionMerit, ageTypeMerit, bodyTypeMerit,
+                weight(properties, unused, "illegalCrossing"),
+                weight(properties, unused, "pregnant"),
+                weight(properties, unused, "animal"),
+                weight(properties, unused, "pet"),
+                weight(properties, unused, "you"));
+        if (!unused.isEmpty()) {
+            throw new IllegalArgumentException("unknown weight " + unused.iterator().next());
+        }
+        return weights;
+    }
+
+    private static double weight(Properties properties, HashSet<String> unused, String key) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            throw new IllegalArgumentException("missing weight " + key);
+        }
+        unused.remove(key);
+        try {
+            double weight = Double.parseDouble(value.trim());
+            if (weight >= 0 && weight < Double.POSITIVE_INFINITY) {
+                return weight;
+            }
+        }
+        catch (NumberFormatException ignored) {}
+        throw new IllegalArgumentException("invalid weight " + key + " = " + value);
+    }
+
+    /**
+     * Get index of a person in the rating table, without the pregnant and you bits
+     * @param profession ordinal of profession
+     * @param ageCategory ordinal of age category
+     * @param bodyType ordinal of body type
+     * @return index into personRatings
+     */
+    static int personIndex(int profession, int ageCategory, int bodyType) {
+        return ((profession * AGE_CATEGORIES.length + ageCategory) * BODY_TYPES.length + bodyType) << 2;
+    }
+
+    /**
+     * Get merit of a profession
+     * @param profession a profession
+     * @return merit
+     */
+    public double getProfessionMerit(Person.Profession profession) {
+        return professionMerit[profession.ordinal()];
+    }
+
+    /**
+     * Get merit of an age category
+     * @param ageCategory an age category
+     * @return merit
+     */
+    public double getAgeTypeMerit(Person.AgeCategory ageCategory) {
+        return ageTypeMerit[ageCategory.ordinal()];
+    }
+
+    /**
+     * Get merit of a body type
+     * @param bodyType a body type
+     * @return merit
+     */
+    public double getBodyTypeMerit(Character.BodyType bodyType) {
+        return bodyTypeMerit[bodyType.ordinal()];
+    }
+
+    /**
+     * Get factor of pedestrians crossing at red light
+     * @return illegal crossing demerit
+     */
+    public double getIllegalCrossingDemerit() {
+        return illegalCrossingDemerit;
+    }
+
+    /**
+     * Get factor of pregnant persons
+     * @return pregnant merit
+     */
+    public double getPregnantMerit() {
+        return pregnantMerit;
+    }
+
+    /**
+     * Get merit of animals
+     * @return animal merit
+     */
+    public double getAnimalMerit() {
+        return animalMerit;
+    }
+
+    /**
+     * Get factor of pets
+     * @return pet merit
+     */
+    public double getPetMerit() {
+        return petMerit;
+    }
+
+    /**
+     * Get factor of you
+     * @return you merit
+     */
+    public double getYouMerit() {
+        return youMerit;
+    }
+}
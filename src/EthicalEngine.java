@@ -6,14 +6,26 @@
  */
 
 import ethicalengine.*;
-import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
 
 public class EthicalEngine {
     public enum Decision {PEDESTRIANS, PASSENGERS}
+    // engine swaps immutable weight snapshots, so it is shared by all callers
+    private static final DecisionEngine engine = new DecisionEngine();
+    private static final String STANDARD_INPUT = "<stdin>";
     /**
      * The main method for commandline management
      * @param args commandline arguments
@@ -21,8 +33,41 @@ public class EthicalEngine {
     public static void main(String[] args) {
         boolean isInteractive = false;
         boolean isConfig = false;
-        ArrayList<Scenario> configBuffer = new ArrayList<>();
+        boolean isSeeded = false;
+        long seed = new Random().nextLong();
+        int threads = 1;
+        int progressInterval = 0;
+        ScenarioReader configReader = null;
+        ScenarioFile scenarioFile = null;
+        Path configPath = null;
+        Path binaryOutput = null;
+        boolean useIndex = false;
+        boolean isDedup = false;
         String resultOutput = "result.log";
+        ResultLog.Format logFormat = ResultLog.Format.TEXT;
+        ResultLog.SyncPolicy syncPolicy = ResultLog.SyncPolicy.NONE;
+        long rotateBytes = 0;
+        Path checkpointPath = null;
+        boolean isResume = false;
+        int workers = 0;
+        double targetWidth = 0;
+        long timeoutMillis = 0;
+        Path weightsPath = null;
+        boolean isExpected = false;
+        ScenarioGenerator.Sampling sampling = ScenarioGenerator.Sampling.UNIFORM;
+        long expectedRuns = 0;
+        boolean isSeedGiven = false;
+        long rangeFrom = 0;
+        long rangeTo = -1;
+        long replayIndex = -1;
+        int servePort = -1;
+        int servicePort = -1;
+        // a lone "-" (standard input) would be lost when splitting options
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-")) {
+                args[i] = STANDARD_INPUT;
+            }
+        }
         String joinedArgs = String.join(" ",args);
         String[] commandBundle = (" "+ joinedArgs).split(" -");
 
@@ -36,29 +81,25 @@ public class EthicalEngine {
                         if (parameters.length < 2) {
                             helpScreen();
                         } else {
-                            ArrayList<String[]> importedFile = new ArrayList<>();
                             try {
-                                BufferedReader inputStream = new BufferedReader(new FileReader(parameters[1]));
-                                String line = inputStream.readLine();
-                                int lineCount = 1;
-
-                                while (line != null) {
-                                    // if not the first row: read that row
-                                    if (lineCount != 1) {
-                                        importedFile.add(line.split(",", -1));
+                                if (parameters[1].equals(STANDARD_INPUT)) {
+                                    configReader = new ScenarioReader(System.in);
+                                } else {
+                                    configPath = Paths.get(parameters[1]);
+                                    // binary scenario files are told apart by their magic bytes
+                                    if (ScenarioFile.isScenarioFile(configPath)) {
+                                        scenarioFile = new ScenarioFile(configPath);
+                                    } else {
+                                        configReader = new ScenarioReader(configPath);
                                     }
-                                    lineCount += 1;
-                                    line = inputStream.readLine();
                                 }
-                                inputStream.close();
-                                // send imported file to scenario generator
-                                ScenarioGenerator generator = new ScenarioGenerator();
-                                configBuffer = generator.parseScenario(importedFile);
                                 isConfig = true;
                             } catch (FileNotFoundException e) {
                                 System.out.println("ERROR: could not find config file.");
                                 System.exit(0);
-                            } catch (IOException ignored) {
+                            } catch (IOException e) {
+                                System.out.println("ERROR: could not read config file.");
+                                System.exit(0);
                             }
                         }
                         break;
@@ -86,37 +127,447 @@ public class EthicalEngine {
                         }
                         // input is fine: change save path
                         resultOutput = parameters[1];
+                        break;
+
+                    case "l":
+                    case "-log-format":
+                        if (parameters.length < 2) {
+                            helpScreen();
+                        }
+                        logFormat = parseOption(ResultLog.Format.class, parameters[1]);
+                        break;
+
+                    case "y":
+                    case "-fsync":
+                        if (parameters.length < 2) {
+                            helpScreen();
+                        }
+                        syncPolicy = parseOption(ResultLog.SyncPolicy.class, parameters[1]);
+                        break;
+
+                    case "t":
+                    case "-rotate":
+                        if (parameters.length < 2) {
+                            helpScreen();
+                        }
+                        rotateBytes = Long.parseLong(parameters[1]);
+                        if (rotateBytes < 0) {
+                            helpScreen();
+                        }
+                        break;
+
+                    case "p":
+                    case "-parallel":
+                        // thread count defaults to all available cores
+                        threads = Runtime.getRuntime().availableProcessors();
+                        if (parameters.length >= 2) {
+                            threads = Integer.parseInt(parameters[1]);
+                        }
+                        if (threads < 1) {
+                            helpScreen();
+                        }
+                        isSeeded = true;
+                        break;
+
+                    case "n":
+                    case "-progress":
+                        if (parameters.length < 2) {
+                            helpScreen();
+                        }
+                        progressInterval = Integer.parseInt(parameters[1]);
+                        if (progressInterval < 1) {
+                            helpScreen();
+                        }
+                        break;
+
+                    case "s":
+                    case "-seed":
+                        if (parameters.length < 2) {
+                            helpScreen();
+                        }
+                        seed = Long.parseLong(parameters[1]);
+                        isSeeded = true;
+                        isSeedGiven = true;
+                        break;
+
+                    case "k":
+                    case "-checkpoint":
+                    case "u":
+                    case "-resume":
+                        if (parameters.length < 2) {
+                            helpScreen();
+                        }
+                        checkpointPath = Paths.get(parameters[1]);
+                        isResume = isResume || parameters[0].equals("u") || parameters[0].equals("-resume");
+                        break;
+
+                    case "j":
+                    case "-workers":
+                        if (parameters.length < 2) {
+                            helpScreen();
+                        }
+                        workers = Integer.parseInt(parameters[1]);
+                        if (workers < 1) {
+                            helpScreen();
+                        }
+                        isSeeded = true;
+                        break;
+
+                    case "a":
+                    case "-adaptive":
+                        if (parameters.length < 2) {
+                            helpScreen();
+                        }
+                        targetWidth = Double.parseDouble(parameters[1]);
+                        if (!(targetWidth > 0 && targetWidth < 1)) {
+                            helpScreen();
+                        }
+                        break;
+
+                    case "d":
+                    case "-deadline":
+                        if (parameters.length < 2) {
+                            helpScreen();
+                        }
+                        timeoutMillis = Math.round(Double.parseDouble(parameters[1]) * 1000);
+                        if (timeoutMillis <= 0) {
+                            helpScreen();
+                        }
+                        break;
+
+                    case "m":
+                    case "-sampling":
+                        if (parameters.length < 2) {
+                            helpScreen();
+                        }
+                        sampling = parseOption(ScenarioGenerator.Sampling.class, parameters[1]);
+                        isSeeded = true;
+                        break;
+
+                    case "o":
+                    case "-range":
+                        if (parameters.length < 3) {
+                            helpScreen();
+                        }
+                        rangeFrom = Long.parseLong(parameters[1]);
+                        rangeTo = Long.parseLong(parameters[2]);
+                        if (rangeFrom < 0 || rangeTo < rangeFrom) {
+                            helpScreen();
+                        }
+                        break;
+
+                    case "v":
+                    case "-replay":
+                        if (parameters.length < 2) {
+                            helpScreen();
+                        }
+                        replayIndex = Long.parseLong(parameters[1]);
+                        if (replayIndex < 0) {
+                            helpScreen();
+                        }
+                        break;
+
+                    case "q":
+                    case "-serve":
+                        servePort = 0;
+                        if (parameters.length >= 2) {
+                            servePort = Integer.parseInt(parameters[1]);
+                        }
+                        if (servePort < 0 || servePort > 65535) {
+                            helpScreen();
+                        }
+                        break;
+
+                    case "z":
+                    case "-service":
+                        servicePort = 0;
+                        if (parameters.length >= 2) {
+                            servicePort = Integer.parseInt(parameters[1]);
+                        }
+                        if (servicePort < 0 || servicePort > 65535) {
+                            helpScreen();
+                        }
+                        break;
+
+                    case "x":
+                    case "-index":
+                        useIndex = true;
+                        break;
+
+                    case "e":
+                    case "-dedup":
+                        isDedup = true;
+                        break;
+
+                    case "g":
+                    case "-expected":
+                        isExpected = true;
+                        if (parameters.length >= 2) {
+                            expectedRuns = Long.parseLong(parameters[1]);
+                        }
+                        if (expectedRuns < 0) {
+                            helpScreen();
+                        }
+                        break;
+
+                    case "b":
+                    case "-binary":
+                        if (parameters.length < 2) {
+                            helpScreen();
+                        }
+                        binaryOutput = Paths.get(parameters[1]);
+                        break;
+
+                    case "f":
+                    case "-profile":
+                        if (parameters.length < 2) {
+                            helpScreen();
+                        }
+                        try {
+                            startProfile(Paths.get(parameters[1]));
+                        } catch (IOException | ParseException e) {
+                            System.out.println("ERROR: could not start profile recording.");
+                            System.exit(0);
+                        }
+                        break;
+
+                    case "w":
+                    case "-weights":
+                        if (parameters.length < 2) {
+                            helpScreen();
+                        }
+                        weightsPath = Paths.get(parameters[1]);
+                        try {
+                            engine.setWeights(DecisionWeights.load(weightsPath));
+                            engine.watchWeights(weightsPath);
+                        } catch (NoSuchFileException e) {
+                            System.out.println("ERROR: could not find weights file.");
+                            System.exit(0);
+                        } catch (IOException | IllegalArgumentException e) {
+                            System.out.println("ERROR: invalid weights file: " + e.getMessage());
+                            System.exit(0);
+                        }
                 }
             }
             catch (ArrayIndexOutOfBoundsException ignored) {}
+            catch (NumberFormatException e) {
+                helpScreen();
+            }
         }
 
         /*
          * Initiate sessions by parameters parsed
          */
-        if (isInteractive) {
+        if (sampling != ScenarioGenerator.Sampling.UNIFORM &&
+                (workers > 0 || checkpointPath != null || targetWidth > 0)) {
+            // weighted counts are neither sent by workers nor checkpointed
+            helpScreen();
+        }
+        if (isResume && targetWidth > 0) {
+            // an adaptive run starts from an empty audit, so its rounds equal a fixed run
+            helpScreen();
+        }
+        if ((rangeTo >= 0 || replayIndex >= 0) && (!isSeedGiven || isConfig || isInteractive || workers > 0 ||
+                checkpointPath != null || targetWidth > 0)) {
+            // scenarios by index are those of a given seed only
+            helpScreen();
+        }
+        if (replayIndex >= 0) {
+            // scenario number [index] of the seed and its decision, then exit
+            ScenarioGenerator generator = new ScenarioGenerator();
+            generator.setSampling(sampling);
+            Scenario scenario = generator.generate(seed, replayIndex);
+            System.out.println(scenario);
+            System.out.println("Decision: " + decide(scenario));
+            System.exit(0);
+        }
+        if (servicePort >= 0) {
+            // decisions on scenarios sent by other programs, until the program is stopped
+            try {
+                DecisionService service = new DecisionService(servicePort, threads);
+                service.start();
+                System.out.println("Decision service listening on localhost:" + service.getPort());
+            } catch (IOException e) {
+                System.out.println("ERROR: could not start service: " + e.getMessage());
+                System.exit(0);
+            }
+            return;
+        }
+        if (isExpected) {
+            // exact statistics of random audits, optionally checked by a seeded audit, then exit
+            ExpectedAudit expected = new ExpectedAudit(engine.getWeights(), new ScenarioGenerator());
+            expected.run(threads);
+            expected.printStatistic();
+            if (expectedRuns > 0) {
+                Audit sampled = new Audit();
+                sampled.run(expectedRuns, seed, threads);
+                System.out.println(expected.compare(sampled));
+            }
+            System.exit(0);
+        }
+        Closeable config = (scenarioFile != null) ? scenarioFile : configReader;
+        Iterator<Scenario> configScenarios = (scenarioFile != null) ? scenarioFile.iterator() : configReader;
+        if (binaryOutput != null) {
+            // convert the config to a binary scenario file and exit
+            if (!isConfig) {
+                helpScreen();
+            }
+            try {
+                int count = ScenarioFile.write(configScenarios, binaryOutput);
+                System.out.println("Converted " + count + " scenarios to " + binaryOutput + ".");
+            } catch (IOException e) {
+                System.out.println("ERROR: could not write scenario file.");
+            }
+            closeConfig(config);
+            System.exit(0);
+        }
+        // results are appended by a background writer, flushed on exit
+        ResultLog results = new ResultLog(Paths.get(resultOutput), logFormat, syncPolicy, rotateBytes);
+        if (servePort >= 0) {
+            // judgments of many users over HTTP, until the program is stopped
+            if (isInteractive) {
+                helpScreen();
+            }
+            ArrayList<Scenario> configBuffer = null;
+            if (isConfig) {
+                configBuffer = new ArrayList<>();
+                configScenarios.forEachRemaining(configBuffer::add);
+                closeConfig(config);
+            }
+            try {
+                JudgmentServer server = new JudgmentServer(servePort, threads, seed, configBuffer);
+                server.setResultLog(results);
+                server.start();
+                System.out.println("Judgment server listening on http://localhost:" + server.getPort() + "/");
+            } catch (IOException e) {
+                System.out.println("ERROR: could not start server: " + e.getMessage());
+                System.exit(0);
+            }
+        }
+        else if (isInteractive) {
             // interactive mode
+            ArrayList<Scenario> configBuffer = new ArrayList<>();
+            if (isConfig) {
+                configScenarios.forEachRemaining(configBuffer::add);
+                closeConfig(config);
+            }
             InteractiveMode interactive = new InteractiveMode(configBuffer, isConfig);
             interactive.setResultPath(resultOutput);
+            interactive.setResultLog(results);
             interactive.run();
         }
         else {
             // normal mode
             boolean response = true;
             Audit audit = new Audit();
-            if (isConfig) {
-                audit = new Audit(configBuffer);
-                audit.run();
-                audit.printToFile(resultOutput);
+            if (rangeTo >= 0) {
+                // scenarios [from] to [to] of the seed, split over threads by index
+                audit.runRange(seed, rangeFrom, rangeTo, threads, sampling);
+                results.write(audit);
+                audit.printStatistic();
+            }
+            else if (isConfig) {
+                if (isDedup) {
+                    // duplicates are decided once and counted by multiplicity
+                    Iterator<Scenario> scenarios = configScenarios;
+                    if (threads > 1 && configPath != null && scenarioFile == null) {
+                        // parse chunks of the config file on all threads
+                        try {
+                            scenarios = ParallelConfigLoader.load(configPath, threads, useIndex).iterator();
+                        } catch (IOException e) {
+                            System.out.println("ERROR: could not read config file.");
+                            System.exit(0);
+                        }
+                    }
+                    ScenarioCorpus corpus = ScenarioCorpus.dedup(scenarios);
+                    closeConfig(config);
+                    audit.run(corpus, threads);
+                }
+                else if (workers > 0) {
+                    // shards of the scenarios are audited by worker processes
+                    audit = runSharded(new ShardCoordinator(workers, weightsPath), config, configScenarios,
+                            scenarioFile != null ? configPath : null);
+                }
+                else if (scenarioFile != null) {
+                    // shards of the scenario file are audited on all threads
+                    audit.run(scenarioFile, threads);
+                    closeConfig(scenarioFile);
+                }
+                else if (threads > 1 && configPath != null) {
+                    // parse chunks of the config file on all threads
+                    closeConfig(configReader);
+                    try {
+                        audit = new Audit(ParallelConfigLoader.load(configPath, threads, useIndex));
+                    } catch (IOException e) {
+                        System.out.println("ERROR: could not read config file.");
+                        System.exit(0);
+                    }
+                    audit.run();
+                }
+                else {
+                    // scenarios are streamed from the config while auditing
+                    audit = new Audit(configReader);
+                    audit.run();
+                    closeConfig(configReader);
+                }
+                results.write(audit);
                 audit.printStatistic();
             }
             else {
+                if (progressInterval > 0) {
+                    audit.setProgressListener(progressInterval, Audit::printStatistic);
+                }
+                AuditCheckpoint checkpoint = null;
+                if (checkpointPath != null) {
+                    checkpoint = new AuditCheckpoint(checkpointPath);
+                    checkpoint.saveOnShutdown();
+                    audit.setCheckpoint(checkpoint);
+                }
                 while (response) {
-                    InteractiveMode.welcomeMessage();
-                    System.out.println();
-                    System.out.println("How many runs do you want?");
-                    audit.run(Integer.parseInt(Audit.scannerObject.nextLine()));
-                    audit.printToFile(resultOutput);
+                    if (isResume) {
+                        // finish the stopped run first, then continue as usual
+                        isResume = false;
+                        try {
+                            audit.resume(checkpoint, threads);
+                        } catch (IOException e) {
+                            System.out.println("ERROR: could not read checkpoint.");
+                            System.exit(0);
+                        }
+                        if (checkpoint.isSeeded()) {
+                            isSeeded = true;
+                            seed = new Random(checkpoint.getSeed()).nextLong();
+                        }
+                    }
+                    else if (targetWidth > 0) {
+                        // the first round runs until the intervals converge
+                        audit.runUntil(targetWidth, timeoutMillis, seed, threads);
+                        seed = new Random(seed).nextLong();
+                        targetWidth = 0;
+                    }
+                    else {
+                        InteractiveMode.welcomeMessage();
+                        System.out.println();
+                        System.out.println("How many runs do you want?");
+                        long runs = Long.parseLong(Audit.scannerObject.nextLine());
+                        if (workers > 0) {
+                            try {
+                                audit.merge(new ShardCoordinator(workers, weightsPath).run(runs, seed));
+                            } catch (IOException e) {
+                                System.out.println("ERROR: sharded audit failed: " + e.getMessage());
+                                System.exit(0);
+                            }
+                            seed = new Random(seed).nextLong();
+                        }
+                        else if (isSeeded) {
+                            audit.run(runs, seed, threads, sampling);
+                            // continue with a fresh stream on the next round
+                            seed = new Random(seed).nextLong();
+                        }
+                        else {
+                            audit.run(runs);
+                        }
+                    }
+                    results.write(audit);
                     audit.printStatistic();
                     System.out.println("Would you like to continue? (yes/no)");
                     if (!Audit.scannerObject.nextLine().equals("yes")){
@@ -124,6 +575,7 @@ public class EthicalEngine {
                     }
                 }
             }
+            results.close();
         }
     }
 
@@ -134,7 +586,102 @@ public class EthicalEngine {
      * @see DecisionEngine
      */
     public static Decision decide(Scenario scenario) {
-        return (new DecisionEngine()).decide(scenario);
+        return engine.decide(scenario);
+    }
+
+    /**
+     * Decide a batch of scenarios (implemented by decision engine)
+     * @param batch a batch of scenarios
+     * @param decisions array to reuse for the decisions, may be null
+     * @return decisions, indexed as the batch
+     * @see DecisionEngine#decideBatch(ScenarioBatch, Decision[])
+     */
+    public static Decision[] decideBatch(ScenarioBatch batch, Decision[] decisions) {
+        return engine.decideBatch(batch, decisions);
+    }
+
+    /**
+     * Audit a config on worker processes. Configs other than binary scenario
+     * files are converted to a temporary one first.
+     * @param coordinator coordinator of workers
+     * @param config reader or file of config, closed here
+     * @param scenarios scenarios of config
+     * @param binaryPath path of the config if it is a binary scenario file, or null
+     * @return audit of all scenarios
+     */
+    private static Audit runSharded(ShardCoordinator coordinator, Closeable config, Iterator<Scenario> scenarios,
+                                    Path binaryPath) {
+        Path temporary = null;
+        try {
+            if (binaryPath == null) {
+                temporary = Files.createTempFile("moralmachine", ".scenarios");
+                ScenarioFile.write(scenarios, temporary);
+                binaryPath = temporary;
+            }
+            closeConfig(config);
+            return coordinator.run(binaryPath);
+        } catch (IOException e) {
+            System.out.println("ERROR: sharded audit failed: " + e.getMessage());
+            System.exit(0);
+            return null;
+        } finally {
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace the weights of the decision engine
+     * @param weights new weights
+     */
+    static void setWeights(DecisionWeights weights) {
+        engine.setWeights(weights);
+    }
+
+    /**
+     * Record the session with flight recorder, including allocation samples
+     * and audit events. The recording is written when the program exits.
+     * @param path path of .jfr output
+     * @throws IOException when the output cannot be written
+     * @throws ParseException when the recording settings are invalid
+     */
+    private static void startProfile(Path path) throws IOException, ParseException {
+        Recording recording = new Recording(Configuration.getConfiguration("profile"));
+        recording.setName("Moral Machine");
+        recording.setDestination(path);
+        recording.setDumpOnExit(true);
+        recording.start();
+    }
+
+    /**
+     * Parse an option value naming an enum constant, ignoring case
+     * @param type enum of option values
+     * @param value commandline value
+     * @param <E> type of option
+     * @return the named constant, or the help screen when there is none
+     */
+    private static <E extends Enum<E>> E parseOption(Class<E> type, String value) {
+        try {
+            return Enum.valueOf(type, value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            helpScreen();
+            return null;
+        }
+    }
+
+    /**
+     * Close a config after reading
+     * @param config reader or file of config
+     */
+    private static void closeConfig(Closeable config) {
+        try {
+            config.close();
+        } catch (IOException ignored) {
+        }
     }
 
     /**
@@ -146,10 +693,33 @@ public class EthicalEngine {
         System.out.println("Usage: java EthicalEngine [arguments]");
         System.out.println();
         System.out.println("Arguments:");
-        System.out.println("   -c or --config      Optional: path to config file");
+        System.out.println("   -c or --config      Optional: path to config file (- for standard input)");
         System.out.println("   -h or --help        Print Help (this message) and exit");
         System.out.println("   -r or --results     Optional: path to result log file");
+        System.out.println("   -l or --log-format  Optional: format of result log, text (default) or jsonl");
+        System.out.println("   -y or --fsync       Optional: sync result log to disk: none (default), batch or periodic");
+        System.out.println("   -t or --rotate      Optional: rotate result log at [n] bytes, keeping 5 old logs");
         System.out.println("   -i or --interactive Optional: launches interactive mode");
+        System.out.println("   -p or --parallel    Optional: run audits on [n] threads (default: all cores)");
+        System.out.println("   -n or --progress    Optional: print the audit every [n] runs of long audits");
+        System.out.println("   -s or --seed        Optional: master seed for reproducible audits");
+        System.out.println("   -k or --checkpoint  Optional: save random audits to a checkpoint file every 30 seconds");
+        System.out.println("   -u or --resume      Optional: resume the audit of a checkpoint file, then continue");
+        System.out.println("   -j or --workers     Optional: run seeded or config audits on [n] worker processes");
+        System.out.println("   -a or --adaptive    Optional: run until every 95% interval is at most [width] wide");
+        System.out.println("   -d or --deadline    Optional: stop adaptive runs after [seconds]");
+        System.out.println("   -m or --sampling    Optional: sampling of random audits: uniform (default), stratified or importance");
+        System.out.println("   -e or --dedup       Optional: decide duplicate config scenarios only once");
+        System.out.println("   -g or --expected    Optional: print exact expected statistics of random audits and exit,");
+        System.out.println("                       checked against [n] seeded runs if given");
+        System.out.println("   -o or --range       Optional: audit scenarios [from] to [to] (exclusive) of the seed of -s and exit");
+        System.out.println("   -v or --replay      Optional: print scenario [index] of the seed of -s and its decision, and exit");
+        System.out.println("   -q or --serve       Optional: serve scenarios to many users over HTTP on [port] (default: any)");
+        System.out.println("   -z or --service     Optional: decide scenarios sent in binary frames to [port] (default: any)");
+        System.out.println("   -x or --index       Optional: keep a sidecar offset index for parallel config loads");
+        System.out.println("   -b or --binary      Optional: convert the config to a binary scenario file and exit");
+        System.out.println("   -f or --profile     Optional: record the session to a .jfr file");
+        System.out.println("   -w or --weights     Optional: path to weights file, reloaded on change");
         System.exit(0);
     }
 }
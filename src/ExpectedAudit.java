@@ -0,0 +1,824 @@
+/*
+ * Moral Machine: ExpectedAudit.java
+ * Exact expected statistics of audits by randomly generated scenarios.
+ *
+ * ©Runfeng Du
+ */
+
+import ethicalengine.Animal;
+import ethicalengine.Character;
+import ethicalengine.Person;
+import ethicalengine.ScenarioGenerator;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.Formatter;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+
+public class ExpectedAudit {
+    /*
+     * The generator draws characters independently, so a lane is a multiset
+     * and a decision only depends on the rating sums of both lanes.
+     * Characters are compressed to their distinct ratings, each with the
+     * odds of drawing it and the expected attributes of characters rated so.
+     * The sums of a lane are found by dynamic programming over the ratings
+     * in ascending order, the order in which the engine adds them, so each
+     * sum is rounded exactly as in a decision. Lanes of the same size are
+     * shared by passengers and pedestrians and computed once.
+     *
+     * Attributes are the fixed statistics slots, then one slot per person
+     * age, then one per animal age.
+     */
+    private static final int PERSON_AGE_BASE = StatisticsTable.FIXED_SLOTS;
+    private static final int ANIMAL_AGE_BASE = PERSON_AGE_BASE + ScenarioGenerator.PERSON_AGES;
+    private static final int ATTRIBUTES = ANIMAL_AGE_BASE + ScenarioGenerator.ANIMAL_AGES;
+    private static final int LIGHTS = 2;
+    private static final String[] AGE_GROUPS = {"saved persons", "sacrificed persons",
+            "saved animals", "sacrificed animals"};
+
+    private final DecisionWeights weights;
+    private final int passMin;
+    private final int passMax;
+    private final int pedMin;
+    private final int pedMax;
+
+    // distinct ratings, ascending, with the odds of a random character and of you having each
+    private double[] ratings;
+    private double[] randomOdds;
+    private double[] youOdds;
+    // expected attributes of a character having each rating, by rating
+    private double[][] randomAttributes;
+    private double[][] youAttributes;
+    // expected attributes of a random character and of you
+    private final double[] randomMean = new double[ATTRIBUTES];
+    private final double[] youMean = new double[ATTRIBUTES];
+    // lanes by 2 * random characters + (1 if you are in the lane)
+    private Lane[] lanes;
+
+    // expected attributes per run, by light (StatisticsTable.GREEN or RED)
+    private final double[][] saved = new double[LIGHTS][ATTRIBUTES];
+    private final double[][] total = new double[LIGHTS][ATTRIBUTES];
+
+    /**
+     * Partial sums of a lane after the ratings below a given one, keyed
+     * by (characters added, sum), in an open-addressing table
+     */
+    private static class Stage {
+        private int[] slots = new int[16];
+        int size = 0;
+        // random characters * 2 + (1 if you are added)
+        int[] codes = new int[8];
+        double[] sums = new double[8];
+        // odds of reaching the state, without the order factor of the lane
+        double[] forward = new double[8];
+        // expected win weight of completing the state, by light
+        double[] backward;
+
+        private static int hash(int code, double sum) {
+            long h = (Double.doubleToLongBits(sum) + code) * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        /**
+         * Find a state
+         * @param code characters added
+         * @param sum partial sum
+         * @return index of state, -1 if absent
+         */
+        int find(int code, double sum) {
+            int mask = slots.length - 1;
+            for (int slot = hash(code, sum) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+                int index = slots[slot] - 1;
+                if (codes[index] == code && sums[index] == sum) {
+                    return index;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Find a state, adding it if absent
+         * @param code characters added
+         * @param sum partial sum
+         * @return index of state
+         */
+        int add(int code, double sum) {
+            int mask = slots.length - 1;
+            int slot = hash(code, sum) & mask;
+            for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+                int index = slots[slot] - 1;
+                if (codes[index] == code && sums[index] == sum) {
+                    return index;
+                }
+            }
+            if (size == codes.length) {
+                codes = Arrays.copyOf(codes, 2 * size);
+                sums = Arrays.copyOf(sums, 2 * size);
+                forward = Arrays.copyOf(forward, 2 * size);
+            }
+            codes[size] = code;
+            sums[size] = sum;
+            slots[slot] = ++size;
+            if (2 * size > slots.length) {
+                grow();
+            }
+            return size - 1;
+        }
+
+        private void grow() {
+            slots = new int[2 * slots.length];
+            int mask = slots.length - 1;
+            for (int index = 0; index < size; index++) {
+                int slot = hash(codes[index], sums[index]) & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = index + 1;
+            }
+        }
+    }
+
+    /**
+     * A lane of a number of random characters, with or without you
+     */
+    private static class Lane {
+        final int randoms;
+        final int you;
+        // stages[i]: states after the ratings below i
+        Stage[] stages;
+        // odds of each final sum, ascending by sum
+        double[] sums;
+        double[] odds;
+        // final state of each sum
+        int[] states;
+        // cumulative odds of the sums scaled by the demerit of each light, ascending
+        double[][] scaledSums = new double[LIGHTS][];
+        double[][] scaledCumulative = new double[LIGHTS][];
+        // odds of the lane being saved with each final sum, by light, summed over scenario shapes
+        double[][] wins;
+        // expected saved attributes of the lane, by light
+        double[][] saved = new double[LIGHTS][ATTRIBUTES];
+
+        Lane(int randoms, int you) {
+            this.randoms = randoms;
+            this.you = you;
+        }
+
+        /**
+         * Get the odds that the scaled sum of this lane is below a value
+         * @param light light of scenario
+         * @param value a rating sum
+         * @param isInclusive count sums equal to the value?
+         * @return odds
+         */
+        double oddsBelow(int light, double value, boolean isInclusive) {
+            double[] values = scaledSums[light];
+            int low = 0;
+            int high = values.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values[middle] < value || (isInclusive && values[middle] == value)) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+            return low == 0 ? 0 : scaledCumulative[light][low - 1];
+        }
+    }
+
+    /**
+     * Default constructor
+     * @param weights weights of the decision engine
+     * @param generator generator whose passenger and pedestrian counts are audited
+     */
+    public ExpectedAudit(DecisionWeights weights, ScenarioGenerator generator) {
+        this.weights = weights;
+        this.passMin = generator.getPassengerCountMin();
+        this.passMax = generator.getPassengerCountMax();
+        this.pedMin = generator.getPedestrianCountMin();
+        this.pedMax = generator.getPedestrianCountMax();
+    }
+
+    /**
+     * Compute the expected statistics on a fork-join pool, one task per lane
+     * @param threads number of worker threads
+     */
+    public void run(int threads) {
+        compressCharacters();
+        lanes = new Lane[2 * (Math.max(passMax, pedMax) + 1)];
+        for (int passengers = passMin; passengers <= passMax; passengers++) {
+            for (int pedestrians = pedMin; pedestrians <= pedMax; pedestrians++) {
+                for (int position = 0; position < 3; position++) {
+                    lane(passengers, position == 1);
+                    lane(pedestrians, position == 2);
+                }
+            }
+        }
+        Lane[] used = Arrays.stream(lanes).filter(lane -> lane != null).toArray(Lane[]::new);
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new LaneTask(used, 0, used.length, true));
+            weighWins();
+            pool.invoke(new LaneTask(used, 0, used.length, false));
+        }
+        finally {
+            pool.shutdown();
+        }
+        for (Lane lane: used) {
+            for (int light = 0; light < LIGHTS; light++) {
+                for (int a = 0; a < ATTRIBUTES; a++) {
+                    saved[light][a] += lane.saved[light][a];
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the lane of a number of characters, creating it if needed
+     * @param characters characters drawn for the lane
+     * @param hasYou are you in the lane?
+     * @return the lane
+     */
+    private Lane lane(int characters, boolean hasYou) {
+        // you take the place of a random character, and are placed even in an empty lane
+        int randoms = hasYou ? Math.max(0, characters - 1) : characters;
+        int index = 2 * randoms + (hasYou ? 1 : 0);
+        if (lanes[index] == null) {
+            lanes[index] = new Lane(randoms, hasYou ? 1 : 0);
+        }
+        return lanes[index];
+    }
+
+    /**
+     * Fork-join task running a phase on a range of lanes
+     */
+    private class LaneTask extends RecursiveAction {
+        private final Lane[] lanes;
+        private final int from;
+        private final int to;
+        private final boolean isForward;
+
+        /**
+         * Default constructor
+         * @param lanes all lanes
+         * @param from first lane (inclusive)
+         * @param to last lane (exclusive)
+         * @param isForward find the sums of lanes, or else attribute their wins
+         */
+        LaneTask(Lane[] lanes, int from, int to, boolean isForward) {
+            this.lanes = lanes;
+            this.from = from;
+            this.to = to;
+            this.isForward = isForward;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                if (isForward) {
+                    forward(lanes[from]);
+                }
+                else {
+                    backward(lanes[from]);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            LaneTask left = new LaneTask(lanes, from, middle, isForward);
+            left.fork();
+            new LaneTask(lanes, middle, to, isForward).compute();
+            left.join();
+        }
+    }
+
+    /**
+     * Compress the characters of the generator to their distinct ratings
+     */
+    private void compressCharacters() {
+        // odds (last element) and attributes of characters by rating
+        TreeMap<Double, double[]> randoms = new TreeMap<>();
+        TreeMap<Double, double[]> yous = new TreeMap<>();
+        Character.Gender[] genders = Character.Gender.values();
+        Character.BodyType[] bodyTypes = Character.BodyType.values();
+        Person.Profession[] professions = Person.Profession.values();
+        // the generator draws professions other than NONE
+        int drawnProfessions = professions.length - 1;
+        double personOdds = 1.0 / ((double) ScenarioGenerator.PERSON_AGES * genders.length *
+                bodyTypes.length * drawnProfessions);
+        for (int age = 0; age < ScenarioGenerator.PERSON_AGES; age++) {
+            Person.AgeCategory ageCategory = Person.ageCategoryOf(age);
+            for (Character.Gender gender: genders) {
+                for (Character.BodyType bodyType: bodyTypes) {
+                    for (int p = 0; p < drawnProfessions; p++) {
+                        Person.Profession profession = (ageCategory == Person.AgeCategory.ADULT) ?
+                                professions[p] : Person.Profession.NONE;
+                        int index = DecisionWeights.personIndex(profession.ordinal(), ageCategory.ordinal(),
+                                bodyType.ordinal());
+                        for (int pregnant = 0; pregnant < 2; pregnant++) {
+                            double odds = personOdds;
+                            if (ScenarioGenerator.canBePregnant(gender, age)) {
+                                odds *= (pregnant == 1) ? 1.0 / ScenarioGenerator.PREGNANCY_ODDS :
+                                        1 - 1.0 / ScenarioGenerator.PREGNANCY_ODDS;
+                            }
+                            else if (pregnant == 1) {
+                                continue;
+                            }
+                            // random characters are persons half of the time
+                            double[] random = attributes(randoms, weights.personRatings[index | pregnant]);
+                            double[] you = attributes(yous, weights.personRatings[index | 2 | pregnant]);
+                            countPerson(random, odds / 2, age, gender, bodyType, profession, ageCategory,
+                                    pregnant == 1, false);
+                            countPerson(you, odds, age, gender, bodyType, profession, ageCategory,
+                                    pregnant == 1, true);
+                        }
+                    }
+                }
+            }
+        }
+        // animal statistics do not count gender or body type, so those are not drawn here
+        StatisticsTable speciesSlots = new StatisticsTable();
+        Animal.Species[] species = Animal.Species.values();
+        double animalOdds = 0.5 / ((double) ScenarioGenerator.ANIMAL_AGES * species.length);
+        for (int age = 0; age < ScenarioGenerator.ANIMAL_AGES; age++) {
+            for (Animal.Species s: species) {
+                for (int pet = 0; pet < 2; pet++) {
+                    double odds = animalOdds * ((pet == 1) ? 1.0 / ScenarioGenerator.PET_ODDS :
+                            1 - 1.0 / ScenarioGenerator.PET_ODDS);
+                    double[] random = attributes(randoms, weights.animalRatings[pet]);
+                    random[ATTRIBUTES] += odds;
+                    count(random, StatisticsTable.ANIMAL, odds);
+                    count(random, speciesSlots.speciesSlot(s.name()), odds);
+                    count(random, (pet == 1) ? StatisticsTable.PET : -1, odds);
+                    count(random, ANIMAL_AGE_BASE + age, odds);
+                }
+            }
+        }
+
+        TreeMap<Double, Integer> indices = new TreeMap<>();
+        randoms.keySet().forEach(rating -> indices.put(rating, 0));
+        yous.keySet().forEach(rating -> indices.put(rating, 0));
+        int size = indices.size();
+        ratings = new double[size];
+        randomOdds = new double[size];
+        youOdds = new double[size];
+        randomAttributes = new double[size][ATTRIBUTES];
+        youAttributes = new double[size][ATTRIBUTES];
+        int i = 0;
+        for (Double rating: indices.keySet()) {
+            ratings[i] = rating;
+            double[] random = randoms.get(rating);
+            if (random != null) {
+                randomOdds[i] = random[ATTRIBUTES];
+                System.arraycopy(random, 0, randomAttributes[i], 0, ATTRIBUTES);
+            }
+            double[] you = yous.get(rating);
+            if (you != null) {
+                youOdds[i] = you[ATTRIBUTES];
+                System.arraycopy(you, 0, youAttributes[i], 0, ATTRIBUTES);
+            }
+            for (int a = 0; a < ATTRIBUTES; a++) {
+                randomMean[a] += randomAttributes[i][a];
+                youMean[a] += youAttributes[i][a];
+            }
+            i++;
+        }
+    }
+
+    private static double[] attributes(TreeMap<Double, double[]> byRating, double rating) {
+        return byRating.computeIfAbsent(rating, r -> new double[ATTRIBUTES + 1]);
+    }
+
+    private static void countPerson(double[] attributes, double odds, int age, Character.Gender gender,
+                                    Character.BodyType bodyType, Person.Profession profession,
+                                    Person.AgeCategory ageCategory, boolean isPregnant, boolean isYou) {
+        attributes[ATTRIBUTES] += odds;
+        count(attributes, StatisticsTable.PERSON, odds);
+        count(attributes, StatisticsTable.slotOf(gender), odds);
+        count(attributes, StatisticsTable.slotOf(bodyType), odds);
+        count(attributes, StatisticsTable.slotOf(profession), odds);
+        count(attributes, StatisticsTable.slotOf(ageCategory), odds);
+        count(attributes, isPregnant ? StatisticsTable.PREGNANT : -1, odds);
+        count(attributes, isYou ? StatisticsTable.YOU : -1, odds);
+        count(attributes, PERSON_AGE_BASE + age, odds);
+    }
+
+    private static void count(double[] attributes, int slot, double odds) {
+        if (slot >= 0) {
+            attributes[slot] += odds;
+        }
+    }
+
+    /**
+     * Find the odds of every sum of a lane
+     * @param lane a lane
+     */
+    private void forward(Lane lane) {
+        lane.stages = new Stage[ratings.length + 1];
+        Stage start = new Stage();
+        start.forward[start.add(0, 0.0)] = 1;
+        lane.stages[0] = start;
+        for (int i = 0; i < ratings.length; i++) {
+            lane.stages[i + 1] = new Stage();
+            step(lane, i);
+        }
+
+        // final states hold all characters; the odds of a multiset have the order factor randoms!
+        Stage last = lane.stages[ratings.length];
+        Integer[] order = new Integer[last.size];
+        for (int s = 0; s < last.size; s++) {
+            order[s] = s;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(last.sums[a], last.sums[b]));
+        double factorial = factorial(lane.randoms);
+        lane.sums = new double[last.size];
+        lane.odds = new double[last.size];
+        lane.states = new int[last.size];
+        for (int j = 0; j < last.size; j++) {
+            lane.states[j] = order[j];
+            lane.sums[j] = last.sums[order[j]];
+            lane.odds[j] = last.forward[order[j]] * factorial;
+        }
+        for (int light = 0; light < LIGHTS; light++) {
+            double[] scaled = new double[last.size];
+            for (int j = 0; j < last.size; j++) {
+                scaled[j] = scale(light, lane.sums[j]);
+            }
+            Integer[] byScaled = new Integer[last.size];
+            for (int j = 0; j < last.size; j++) {
+                byScaled[j] = j;
+            }
+            Arrays.sort(byScaled, (a, b) -> Double.compare(scaled[a], scaled[b]));
+            lane.scaledSums[light] = new double[last.size];
+            lane.scaledCumulative[light] = new double[last.size];
+            double cumulative = 0;
+            for (int j = 0; j < last.size; j++) {
+                cumulative += lane.odds[byScaled[j]];
+                lane.scaledSums[light][j] = scaled[byScaled[j]];
+                lane.scaledCumulative[light][j] = cumulative;
+            }
+        }
+    }
+
+    /**
+     * Scale the pedestrian sum of a light, as the decision engine does
+     * @param light StatisticsTable.GREEN or RED
+     * @param sum a rating sum
+     * @return sum compared with the passenger sum
+     */
+    private double scale(int light, double sum) {
+        return (light == StatisticsTable.GREEN) ? sum : sum * weights.illegalCrossingDemerit;
+    }
+
+    /**
+     * Weigh every final sum of every lane by the odds of saving the lane
+     * with it, over all scenario shapes; lanes of a shape are independent
+     */
+    private void weighWins() {
+        for (Lane lane: lanes) {
+            if (lane != null) {
+                lane.wins = new double[LIGHTS][lane.sums.length];
+            }
+        }
+        int passCounts = passMax - passMin + 1;
+        int pedCounts = pedMax - pedMin + 1;
+        double shapeOdds = 1.0 / ((double) passCounts * pedCounts * 3 * LIGHTS);
+        for (int passCount = passMin; passCount <= passMax; passCount++) {
+            for (int pedCount = pedMin; pedCount <= pedMax; pedCount++) {
+                for (int position = 0; position < 3; position++) {
+                    Lane passengers = lane(passCount, position == 1);
+                    Lane pedestrians = lane(pedCount, position == 2);
+                    for (int light = 0; light < LIGHTS; light++) {
+                        // passengers are saved when their sum is above the scaled pedestrian sum
+                        for (int j = 0; j < passengers.sums.length; j++) {
+                            passengers.wins[light][j] += shapeOdds *
+                                    pedestrians.oddsBelow(light, passengers.sums[j], false);
+                        }
+                        for (int j = 0; j < pedestrians.sums.length; j++) {
+                            pedestrians.wins[light][j] += shapeOdds *
+                                    passengers.oddsBelow(StatisticsTable.GREEN, scale(light, pedestrians.sums[j]), true);
+                        }
+                        countLane(total[light], passengers, shapeOdds);
+                        countLane(total[light], pedestrians, shapeOdds);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the expected attributes of a lane
+     * @param attributes attributes to add to
+     * @param lane a lane
+     * @param odds odds of the lane
+     */
+    private void countLane(double[] attributes, Lane lane, double odds) {
+        for (int a = 0; a < ATTRIBUTES; a++) {
+            attributes[a] += odds * (lane.randoms * randomMean[a] + lane.you * youMean[a]);
+        }
+    }
+
+    /**
+     * Attribute the win weights of a lane's sums back to the characters
+     * making them up
+     * @param lane a lane with weighed wins
+     */
+    private void backward(Lane lane) {
+        Stage last = lane.stages[ratings.length];
+        last.backward = new double[LIGHTS * last.size];
+        for (int j = 0; j < lane.states.length; j++) {
+            for (int light = 0; light < LIGHTS; light++) {
+                last.backward[LIGHTS * lane.states[j] + light] = lane.wins[light][j];
+            }
+        }
+        // expected saved characters of each rating, by light
+        double[][] randomSaved = new double[LIGHTS][ratings.length];
+        double[][] youSaved = new double[LIGHTS][ratings.length];
+        for (int i = ratings.length - 1; i >= 0; i--) {
+            Stage from = lane.stages[i];
+            from.backward = new double[LIGHTS * from.size];
+            step(lane, i, randomSaved, youSaved);
+            lane.stages[i + 1] = null;
+        }
+        lane.stages = null;
+
+        double factorial = factorial(lane.randoms);
+        for (int light = 0; light < LIGHTS; light++) {
+            for (int i = 0; i < ratings.length; i++) {
+                for (int a = 0; a < ATTRIBUTES; a++) {
+                    if (randomOdds[i] > 0) {
+                        lane.saved[light][a] += factorial * randomSaved[light][i] * randomAttributes[i][a] /
+                                randomOdds[i];
+                    }
+                    if (youOdds[i] > 0) {
+                        lane.saved[light][a] += factorial * youSaved[light][i] * youAttributes[i][a] / youOdds[i];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the characters of rating i to the states of a lane, filling
+     * stage i + 1 from stage i
+     * @param lane a lane
+     * @param i index of rating
+     */
+    private void step(Lane lane, int i) {
+        step(lane, i, null, null);
+    }
+
+    /**
+     * Add the characters of rating i to the states of a lane. Forward,
+     * stage i + 1 is filled from stage i; backward (when saved counts are
+     * given), the win weights of stage i are gathered from stage i + 1 and
+     * the saved characters of rating i are counted.
+     * @param lane a lane
+     * @param i index of rating
+     * @param randomSaved saved random characters by light and rating, null forward
+     * @param youSaved saved you by light and rating, null forward
+     */
+    private void step(Lane lane, int i, double[][] randomSaved, double[][] youSaved) {
+        Stage from = lane.stages[i];
+        Stage to = lane.stages[i + 1];
+        double rating = ratings[i];
+        boolean isForward = randomSaved == null;
+        boolean hasRandomsLeft = false;
+        boolean hasYouLeft = false;
+        for (int j = i + 1; j < ratings.length; j++) {
+            hasRandomsLeft |= randomOdds[j] > 0;
+            hasYouLeft |= youOdds[j] > 0;
+        }
+        for (int s = 0; s < from.size; s++) {
+            int randoms = from.codes[s] >> 1;
+            int you = from.codes[s] & 1;
+            int yous = (you < lane.you && youOdds[i] > 0) ? 1 : 0;
+            for (int y = 0; y <= yous; y++) {
+                double sum = from.sums[s];
+                double odds = 1;
+                if (y == 1) {
+                    sum += rating;
+                    odds = youOdds[i];
+                }
+                for (int k = 0; randoms + k <= lane.randoms; k++) {
+                    if (k > 0) {
+                        if (randomOdds[i] == 0) {
+                            break;
+                        }
+                        // characters are added one at a time, as by DecisionEngine
+                        sum += rating;
+                        odds *= randomOdds[i] / k;
+                    }
+                    // states which cannot take all characters of the lane are dropped
+                    if ((randoms + k < lane.randoms && !hasRandomsLeft) || (you + y < lane.you && !hasYouLeft)) {
+                        continue;
+                    }
+                    int code = 2 * (randoms + k) + you + y;
+                    if (isForward) {
+                        int next = to.add(code, sum);
+                        to.forward[next] += from.forward[s] * odds;
+                        continue;
+                    }
+                    int next = to.find(code, sum);
+                    for (int light = 0; light < LIGHTS; light++) {
+                        double win = odds * to.backward[LIGHTS * next + light];
+                        from.backward[LIGHTS * s + light] += win;
+                        randomSaved[light][i] += from.forward[s] * win * k;
+                        youSaved[light][i] += from.forward[s] * win * y;
+                    }
+                }
+            }
+        }
+    }
+
+    private static double factorial(int n) {
+        double factorial = 1;
+        for (int i = 2; i <= n; i++) {
+            factorial *= i;
+        }
+        return factorial;
+    }
+
+    /**
+     * Get the expected times a key is saved per run
+     * @param slot a fixed statistics slot
+     * @return expected saved
+     */
+    public double saved(int slot) {
+        if (slot == StatisticsTable.GREEN || slot == StatisticsTable.RED) {
+            return saved[slot][StatisticsTable.PERSON] + saved[slot][StatisticsTable.ANIMAL];
+        }
+        return saved[StatisticsTable.GREEN][slot] + saved[StatisticsTable.RED][slot];
+    }
+
+    /**
+     * Get the expected times a key is seen per run
+     * @param slot a fixed statistics slot
+     * @return expected seen
+     */
+    public double total(int slot) {
+        if (slot == StatisticsTable.GREEN || slot == StatisticsTable.RED) {
+            return total[slot][StatisticsTable.PERSON] + total[slot][StatisticsTable.ANIMAL];
+        }
+        return total[StatisticsTable.GREEN][slot] + total[StatisticsTable.RED][slot];
+    }
+
+    /**
+     * Rank the keys seen by expected survival rate (highest first), then by name
+     * @return ranked slots
+     */
+    private Integer[] ranking() {
+        StatisticsTable names = new StatisticsTable();
+        return IntStream.range(0, StatisticsTable.FIXED_SLOTS)
+                .filter(slot -> names.name(slot) != null && total(slot) > 0)
+                .boxed()
+                .sorted((a, b) -> {
+                    int byRate = Double.compare(saved(b) / total(b), saved(a) / total(a));
+                    return byRate != 0 ? byRate : names.name(a).compareTo(names.name(b));
+                })
+                .toArray(Integer[]::new);
+    }
+
+    /**
+     * Get the expected age distribution of a group
+     * @param group index of AGE_GROUPS
+     * @return expected count of each age per run
+     */
+    private double[] ages(int group) {
+        boolean isPerson = group < 2;
+        int base = isPerson ? PERSON_AGE_BASE : ANIMAL_AGE_BASE;
+        double[] ages = new double[isPerson ? ScenarioGenerator.PERSON_AGES : ScenarioGenerator.ANIMAL_AGES];
+        for (int age = 0; age < ages.length; age++) {
+            for (int light = 0; light < LIGHTS; light++) {
+                ages[age] += (group % 2 == 0) ? saved[light][base + age] :
+                        total[light][base + age] - saved[light][base + age];
+            }
+        }
+        return ages;
+    }
+
+    /**
+     * Get the age of a given rank of an expected distribution (nearest-rank method)
+     * @param ages expected count of each age
+     * @param count expected count of all ages
+     * @param q quantile, between 0 and 1
+     * @return age at quantile
+     */
+    private static int quantile(double[] ages, double count, double q) {
+        // a rank falling on the edge of an age, up to rounding, stays within it
+        double rank = q * count * (1 - 1e-12);
+        double seen = 0;
+        for (int age = 0; age < ages.length; age++) {
+            seen += ages[age];
+            if (ages[age] > 0 && seen >= rank) {
+                return age;
+            }
+        }
+        return ages.length - 1;
+    }
+
+    /**
+     * Convert expected statistics to string, in the layout of an audit
+     * @return string representing the expected audit
+     */
+    @Override
+    public String toString() {
+        StringBuilder string = new StringBuilder();
+        string.append("======================================\n");
+        string.append("# Expected Audit\n");
+        string.append("======================================\n");
+        string.append("- % SAVED, EXACT FOR ").append(passMin).append("-").append(passMax)
+                .append(" PASSENGERS AND ").append(pedMin).append("-").append(pedMax).append(" PEDESTRIANS\n");
+        StatisticsTable names = new StatisticsTable();
+        Formatter formatter = new Formatter(string);
+        for (int slot: ranking()) {
+            string.append(names.name(slot).toLowerCase()).append(": ");
+            formatter.format("%.4f", saved(slot) / total(slot));
+            string.append("\n");
+        }
+        string.append("--\n");
+        DecimalFormat decimal = new DecimalFormat("#.#");
+        double[] savedPersons = ages(0);
+        string.append("average age: ").append(decimal.format(mean(savedPersons))).append("\n");
+        string.append("--\n");
+        string.append("ages: expected count per run, mean (sd), p10 / median / p90\n");
+        for (int group = 0; group < AGE_GROUPS.length; group++) {
+            double[] ages = ages(group);
+            double count = Arrays.stream(ages).sum();
+            string.append(AGE_GROUPS[group]).append(": ").append(new DecimalFormat("0.###").format(count));
+            if (count > 0) {
+                double mean = mean(ages);
+                double m2 = 0;
+                for (int age = 0; age < ages.length; age++) {
+                    m2 += ages[age] * (age - mean) * (age - mean);
+                }
+                string.append(", ").append(decimal.format(mean))
+                        .append(" (").append(decimal.format(Math.sqrt(m2 / count))).append("), ")
+                        .append(quantile(ages, count, 0.1)).append(" / ")
+                        .append(quantile(ages, count, 0.5)).append(" / ")
+                        .append(quantile(ages, count, 0.9));
+            }
+            string.append("\n");
+        }
+        return string.toString();
+    }
+
+    private static double mean(double[] ages) {
+        double count = 0;
+        double sum = 0;
+        for (int age = 0; age < ages.length; age++) {
+            count += ages[age];
+            sum += age * ages[age];
+        }
+        return sum / count;
+    }
+
+    /**
+     * Compare the expected survival rates with those of a random audit, in
+     * standard errors of the sampled rates
+     * @param sampled an audit of scenarios of the same generator and weights
+     * @return comparison, one key per line
+     */
+    public String compare(Audit sampled) {
+        StatisticsTable statistics = sampled.getStatistics();
+        StringBuilder string = new StringBuilder();
+        string.append("- EXACT VS SAMPLED, DEVIATION IN STANDARD ERRORS\n");
+        Formatter formatter = new Formatter(string);
+        double largest = 0;
+        String largestName = null;
+        for (int slot: ranking()) {
+            String name = statistics.name(slot).toLowerCase();
+            double rate = saved(slot) / total(slot);
+            long n = statistics.total(slot);
+            string.append(name).append(": ");
+            formatter.format("%.4f", rate);
+            if (n == 0) {
+                string.append(" vs none\n");
+                continue;
+            }
+            double sampledRate = statistics.rate(slot);
+            double error = Math.sqrt(rate * (1 - rate) / n);
+            double deviation = (error > 0) ? (sampledRate - rate) / error : 0;
+            formatter.format(" vs %.4f (%+.1f)\n", sampledRate, deviation);
+            if (Math.abs(deviation) >= Math.abs(largest)) {
+                largest = deviation;
+                largestName = name;
+            }
+        }
+        if (largestName != null) {
+            formatter.format("largest deviation: %+.1f (%s)\n", largest, largestName);
+        }
+        return string.toString();
+    }
+
+    /**
+     * Print expected statistics out
+     */
+    public void printStatistic() {
+        System.out.println(toString());
+    }
+}
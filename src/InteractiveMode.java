@@ -17,6 +17,8 @@ public class InteractiveMode {
     private boolean configMode = false;
     private boolean saveToFile = false;
     private String resultPath = "result.log";
+    // writes results in the background when set, instead of to resultPath
+    private ResultLog resultLog;
 
     /**
      * Empty constructor
@@ -76,7 +78,10 @@ public class InteractiveMode {
         audit.loadScenarios(config);
         audit.interactiveRun();
         audit.printStatistic();
-        if (saveToFile){
+        if (saveToFile && resultLog != null) {
+            resultLog.write(audit);
+        }
+        else if (saveToFile){
             audit.printToFile(resultPath);
         }
     }
@@ -134,6 +139,9 @@ public class InteractiveMode {
         }
         System.out.println("That's all. Press any key to quit.");
         Audit.scannerObject.nextLine();
+        if (resultLog != null) {
+            resultLog.close();
+        }
         System.exit(0);
     }
 
@@ -145,6 +153,14 @@ public class InteractiveMode {
         this.resultPath = resultPath;
     }
 
+    /**
+     * Set the result log to save results to
+     * @param resultLog a result log, written to when the user consents
+     */
+    public void setResultLog(ResultLog resultLog) {
+        this.resultLog = resultLog;
+    }
+
     /**
      * Get path of file saving
      * @return path of file saving
@@ -0,0 +1,384 @@
+/*
+ * Moral Machine: JudgmentServer.java
+ * Serves scenarios to many users at once over HTTP and audits their judgments.
+ *
+ * ©Runfeng Du
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import ethicalengine.Scenario;
+import ethicalengine.ScenarioGenerator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Sessions hold no thread while their user thinks: each request is handled
+ * on a small pool, and a session is only state (its scenarios and audit),
+ * guarded by its own lock. Judgments are also counted into a concurrent
+ * global audit, striped by request thread, so sessions never wait on each
+ * other and the global report is a snapshot of it.
+ *
+ * Endpoints, answered in text (or the audit as JSON with format=json):
+ *   POST   /sessions                     new session and its first scenario
+ *   GET    /sessions/{id}                current scenario of a session
+ *   POST   /sessions/{id}/judgments      judge scenario=n with decision=passengers|pedestrians,
+ *                                        answered with the next scenario
+ *   GET    /sessions/{id}/audit          audit of a session
+ *   DELETE /sessions/{id}                end a session (save=yes writes its audit to the result log)
+ *   GET    /audit                        audit of all judgments
+ */
+public class JudgmentServer {
+    // random scenarios generated per session at a time
+    static final int BATCH_SIZE = 16;
+    // random scenarios of a session are indices id * SESSION_SCENARIOS + n of the seed
+    private static final long SESSION_SCENARIOS = 1L << 32;
+    private static final int BACKLOG = 1024;
+    // sessions not used for this long are dropped; their judgments stay in the global audit
+    private static final long SESSION_TIMEOUT_MILLIS = 30 * 60 * 1000;
+
+    static {
+        // the server writes headers and body apart; without TCP_NODELAY the body
+        // waits for the client's delayed acknowledgement of the headers (40 ms)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService sweeper;
+    private final ConcurrentHashMap<Long, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final ConcurrentAudit global;
+    private final long seed;
+    // scenarios of config sessions, null for random sessions
+    private final ArrayList<Scenario> configs;
+    private final ThreadLocal<ScenarioGenerator> generators = ThreadLocal.withInitial(ScenarioGenerator::new);
+    private ResultLog resultLog;
+
+    /**
+     * Default constructor
+     * @param port port to listen on (on the loopback address), 0 for any free port
+     * @param threads number of request threads
+     * @param seed seed of random scenarios
+     * @param configs scenarios every session judges in order, or null for random scenarios
+     * @throws IOException when the port cannot be bound
+     */
+    public JudgmentServer(int port, int threads, long seed, ArrayList<Scenario> configs) throws IOException {
+        this.seed = seed;
+        this.configs = configs;
+        global = new ConcurrentAudit(threads);
+        global.setAuditType("Users");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/sessions", this::handleSession);
+        server.createContext("/audit", this::handleAudit);
+        sweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Set the result log to save the audits of sessions to
+     * @param resultLog a result log, written to when a session ends with save=yes
+     */
+    public void setResultLog(ResultLog resultLog) {
+        this.resultLog = resultLog;
+    }
+
+    /**
+     * Start serving requests
+     */
+    public void start() {
+        server.start();
+        sweeper.scheduleWithFixedDelay(this::dropIdleSessions, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Stop serving requests, waiting for those in progress
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+        sweeper.shutdown();
+    }
+
+    /**
+     * Get the port the server listens on
+     * @return port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Get the audit of all judgments so far
+     * @return merged audit of all sessions
+     */
+    public Audit globalAudit() {
+        return global.snapshot();
+    }
+
+    /**
+     * Count open sessions
+     * @return number of sessions
+     */
+    public int sessionCount() {
+        return sessions.size();
+    }
+
+    private void dropIdleSessions() {
+        long now = System.currentTimeMillis();
+        sessions.values().removeIf(session -> now - session.lastUsed > SESSION_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * A user judging scenarios one at a time
+     */
+    private class Session {
+        private final long id;
+        private final Audit audit = new Audit();
+        private final Scenario[] batch = new Scenario[BATCH_SIZE];
+        // index of batch[0], -1 before the first batch
+        private long batchStart = -1;
+        // index of the scenario being judged
+        private long current = 0;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        /**
+         * Default constructor
+         * @param id id of session
+         */
+        Session(long id) {
+            this.id = id;
+            audit.setAuditType("User");
+        }
+
+        /**
+         * Get the scenario being judged
+         * @return the scenario, null when a config session has judged all
+         */
+        synchronized Scenario scenario() {
+            lastUsed = System.currentTimeMillis();
+            if (configs != null) {
+                return (current < configs.size()) ? configs.get((int) current) : null;
+            }
+            if (batchStart < 0 || current >= batchStart + BATCH_SIZE) {
+                // the next scenarios are drawn together, by index of the seed
+                ScenarioGenerator generator = generators.get();
+                batchStart = current;
+                for (int i = 0; i < BATCH_SIZE; i++) {
+                    batch[i] = generator.generate(seed, id * SESSION_SCENARIOS + batchStart + i);
+                }
+            }
+            return batch[(int) (current - batchStart)];
+        }
+
+        /**
+         * Judge the scenario being judged and move to the next one
+         * @param index index of the judged scenario, to reject stale or repeated judgments
+         * @param decision decision of the user
+         * @return was the judgment counted?
+         */
+        synchronized boolean judge(long index, EthicalEngine.Decision decision) {
+            Scenario scenario = scenario();
+            if (index != current || scenario == null) {
+                return false;
+            }
+            audit.judge(scenario, decision);
+            global.record(scenario, decision);
+            current += 1;
+            return true;
+        }
+    }
+
+    private void handleSession(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String[] path = exchange.getRequestURI().getPath().split("/");
+            // path is "", "sessions", id, action
+            if (path.length == 2 && method.equals("POST")) {
+                long id = nextId.getAndIncrement();
+                Session session = new Session(id);
+                sessions.put(id, session);
+                respond(exchange, 201, "session " + id + "\n" + renderScenario(session));
+                return;
+            }
+            Session session = (path.length >= 3) ? findSession(path[2]) : null;
+            if (session == null) {
+                respond(exchange, 404, "ERROR: no such session.\n");
+                return;
+            }
+            String action = (path.length >= 4) ? path[3] : "";
+            Map<String, String> parameters = parameters(exchange);
+            if (action.isEmpty() && method.equals("GET")) {
+                respond(exchange, 200, renderScenario(session));
+            }
+            else if (action.equals("judgments") && method.equals("POST")) {
+                EthicalEngine.Decision decision = parseDecision(parameters.get("decision"));
+                long index = Long.parseLong(parameters.getOrDefault("scenario", "-1"));
+                if (decision == null) {
+                    respond(exchange, 400, "ERROR: decision must be passengers or pedestrians.\n");
+                }
+                else if (!session.judge(index, decision)) {
+                    respond(exchange, 409, "ERROR: scenario " + index + " is not the current scenario.\n" +
+                            renderScenario(session));
+                }
+                else {
+                    respond(exchange, 200, renderScenario(session));
+                }
+            }
+            else if (action.equals("audit") && method.equals("GET")) {
+                String report;
+                synchronized (session) {
+                    report = renderAudit(session.audit, parameters);
+                }
+                respond(exchange, 200, report);
+            }
+            else if (action.isEmpty() && method.equals("DELETE")) {
+                sessions.remove(session.id);
+                String report;
+                synchronized (session) {
+                    if ("yes".equals(parameters.get("save")) && resultLog != null) {
+                        resultLog.write(session.audit);
+                    }
+                    report = renderAudit(session.audit, parameters);
+                }
+                respond(exchange, 200, report);
+            }
+            else {
+                respond(exchange, 405, "ERROR: unsupported request.\n");
+            }
+        }
+        catch (NumberFormatException e) {
+            respond(exchange, 400, "ERROR: invalid number.\n");
+        }
+        catch (IllegalArgumentException e) {
+            respond(exchange, 400, "ERROR: invalid parameters.\n");
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    private void handleAudit(HttpExchange exchange) throws IOException {
+        try {
+            if (exchange.getRequestMethod().equals("GET")) {
+                respond(exchange, 200, renderAudit(globalAudit(), parameters(exchange)));
+            }
+            else {
+                respond(exchange, 405, "ERROR: unsupported request.\n");
+            }
+        }
+        catch (IllegalArgumentException e) {
+            respond(exchange, 400, "ERROR: invalid parameters.\n");
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    private Session findSession(String id) {
+        try {
+            return sessions.get(Long.parseLong(id));
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Render the scenario being judged in a session
+     * @param session a session
+     * @return "scenario n" and the scenario, or "done" when there are no more
+     */
+    private static String renderScenario(Session session) {
+        synchronized (session) {
+            Scenario scenario = session.scenario();
+            return (scenario == null) ? "done\n" : "scenario " + session.current + "\n" + scenario;
+        }
+    }
+
+    private static String renderAudit(Audit audit, Map<String, String> parameters) {
+        return "json".equals(parameters.get("format")) ? audit.toJson() + "\n" : audit.toString();
+    }
+
+    /**
+     * Parse a decision, in the words of the interactive mode
+     * @param value decision given
+     * @return decision, null if invalid
+     */
+    private static EthicalEngine.Decision parseDecision(String value) {
+        if (value == null) {
+            return null;
+        }
+        switch (value) {
+            case "passenger":
+            case "passengers":
+            case "1":
+                return EthicalEngine.Decision.PASSENGERS;
+            case "pedestrian":
+            case "pedestrians":
+            case "2":
+                return EthicalEngine.Decision.PEDESTRIANS;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Read the parameters of the query and of a form body
+     * @param exchange a request
+     * @return parameters by name
+     * @throws IOException when the body cannot be read
+     * @throws IllegalArgumentException when a parameter has a malformed escape
+     */
+    private static Map<String, String> parameters(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        addParameters(parameters, exchange.getRequestURI().getRawQuery());
+        try (InputStream body = exchange.getRequestBody()) {
+            addParameters(parameters, new String(body.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    private static void addParameters(Map<String, String> parameters, String encoded) {
+        if (encoded == null || encoded.isEmpty()) {
+            return;
+        }
+        for (String pair: encoded.trim().split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+}
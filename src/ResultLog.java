@@ -0,0 +1,244 @@
+/*
+ * Moral Machine: ResultLog.java
+ * Appends audit results to a log file from a background writer.
+ *
+ * ©Runfeng Du
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class ResultLog implements Closeable {
+    public enum Format {TEXT, JSONL}
+    public enum SyncPolicy {NONE, BATCH, PERIODIC}
+
+    private static final int QUEUE_CAPACITY = 64;
+    private static final long SYNC_PERIOD_MILLIS = 1000;
+    // rotated logs kept next to the current one, as <log>.1 (newest) to <log>.5
+    private static final int BACKUPS = 5;
+    private static final byte[] END = new byte[0];
+
+    private final Path path;
+    private final Format format;
+    private final SyncPolicy syncPolicy;
+    private final long maxBytes;
+    private final ArrayBlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writer;
+    private final Thread shutdownHook;
+    private volatile boolean isClosed = false;
+
+    // owned by the writer thread
+    private FileChannel channel;
+    private long size;
+    private long lastSync;
+    private boolean isUnsynced = false;
+
+    /**
+     * Constructor with default settings: text reports appended as by
+     * Audit.printToFile, no fsync, no rotation
+     * @param path path of log file
+     */
+    public ResultLog(Path path) {
+        this(path, Format.TEXT, SyncPolicy.NONE, 0);
+    }
+
+    /**
+     * Default constructor
+     * @param path path of log file
+     * @param format format of records
+     * @param syncPolicy when to force written records to disk
+     * @param maxBytes rotate the log before it grows past this size, 0 to never rotate
+     */
+    public ResultLog(Path path, Format format, SyncPolicy syncPolicy, long maxBytes) {
+        this.path = path;
+        this.format = format;
+        this.syncPolicy = syncPolicy;
+        this.maxBytes = maxBytes;
+        writer = new Thread(this::writeRecords, "result-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        // flush queued records when the program exits without closing the log
+        shutdownHook = new Thread(this::close);
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Queue an audit report. The report is rendered now and written by the
+     * background writer; blocks only while the queue is full.
+     * @param audit an audit
+     * @throws IllegalStateException when the log is closed
+     */
+    public void write(Audit audit) {
+        if (isClosed) {
+            throw new IllegalStateException("result log is closed");
+        }
+        String record = (format == Format.JSONL) ? audit.toJson() : audit.toString();
+        enqueue((record + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void enqueue(byte[] record) {
+        boolean isInterrupted = false;
+        while (true) {
+            try {
+                queue.put(record);
+                break;
+            }
+            catch (InterruptedException e) {
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write queued records until the log is closed, committing everything
+     * queued at once as a single write. With periodic sync, the writer also
+     * wakes when a sync period has passed since the last sync, so records
+     * written before the log goes idle are forced within a period.
+     */
+    private void writeRecords() {
+        ArrayList<byte[]> batch = new ArrayList<>();
+        boolean isEnd = false;
+        while (!isEnd) {
+            try {
+                byte[] record = isUnsynced ?
+                        queue.poll(lastSync + SYNC_PERIOD_MILLIS - System.currentTimeMillis(),
+                                TimeUnit.MILLISECONDS) :
+                        queue.take();
+                if (record != null) {
+                    batch.add(record);
+                }
+            }
+            catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(batch);
+            isEnd = !batch.isEmpty() && batch.get(batch.size() - 1) == END;
+            try {
+                commit(batch);
+                sync();
+                if (isEnd && channel != null) {
+                    if (syncPolicy != SyncPolicy.NONE) {
+                        channel.force(false);
+                    }
+                    channel.close();
+                }
+            }
+            catch (NoSuchFileException e) {
+                System.out.println("ERROR: could not print results. Target directory does not exist.");
+            }
+            catch (IOException e) {
+                System.out.println("ERROR: could not print results: " + e.getMessage());
+            }
+            batch.clear();
+        }
+    }
+
+    private void commit(ArrayList<byte[]> batch) throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+        long bytes = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.wrap(batch.get(i));
+            bytes += buffers[i].remaining();
+        }
+        if (bytes == 0) {
+            return;
+        }
+        if (channel == null) {
+            open();
+        }
+        // a batch is never split, so a log only exceeds maxBytes by holding a single batch
+        if (maxBytes > 0 && size > 0 && size + bytes > maxBytes) {
+            rotate();
+            open();
+        }
+        for (long written = 0; written < bytes; ) {
+            written += channel.write(buffers);
+        }
+        size += bytes;
+        isUnsynced = syncPolicy != SyncPolicy.NONE;
+    }
+
+    /**
+     * Force written records to disk, after every batch or once a period has
+     * passed since the last sync
+     * @throws IOException when the log cannot be forced
+     */
+    private void sync() throws IOException {
+        long now = System.currentTimeMillis();
+        if (isUnsynced && (syncPolicy == SyncPolicy.BATCH || now - lastSync >= SYNC_PERIOD_MILLIS)) {
+            channel.force(false);
+            lastSync = now;
+            isUnsynced = false;
+        }
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        size = channel.size();
+    }
+
+    /**
+     * Move the current log to <log>.1, shifting older logs up and dropping the last
+     * @throws IOException when a log cannot be moved
+     */
+    private void rotate() throws IOException {
+        if (syncPolicy != SyncPolicy.NONE) {
+            channel.force(false);
+            isUnsynced = false;
+        }
+        channel.close();
+        channel = null;
+        Files.deleteIfExists(backup(BACKUPS));
+        for (int i = BACKUPS - 1; i >= 1; i--) {
+            if (Files.exists(backup(i))) {
+                Files.move(backup(i), backup(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(path, backup(1), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path backup(int i) {
+        return path.resolveSibling(path.getFileName() + "." + i);
+    }
+
+    /**
+     * Write all queued records and stop the writer
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+        }
+        enqueue(END);
+        try {
+            writer.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        }
+        catch (IllegalStateException ignored) {
+            // closed by the hook itself while shutting down
+        }
+    }
+}
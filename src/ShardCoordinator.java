@@ -0,0 +1,333 @@
+/*
+ * Moral Machine: ShardCoordinator.java
+ * Runs an audit on worker processes and merges their statistics.
+ *
+ * ©Runfeng Du
+ */
+
+import ethicalengine.ScenarioFile;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ShardCoordinator {
+    // shards are smaller than a worker's share, so fast workers take more of them
+    private static final int SHARDS_PER_WORKER = 4;
+    // restarts of a shard's worker before the audit fails
+    private static final int MAX_RESTARTS = 3;
+    private static final int CONNECT_TIMEOUT_MILLIS = 30_000;
+    // a worker sending nothing for this long is considered hung
+    private static final int READ_TIMEOUT_MILLIS = 120_000;
+
+    private final int workers;
+    private final Path weightsPath;
+
+    /**
+     * Chunks [from, to) audited by one worker at a time
+     */
+    private static class Shard {
+        final int to;
+        int next;
+        int restarts = 0;
+        final Audit result = new Audit();
+
+        Shard(int from, int to) {
+            this.next = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Message assigning chunks of a shard to a worker
+     */
+    private interface Assignment {
+        void write(DataOutputStream out, int from, int to) throws IOException;
+    }
+
+    /**
+     * Default constructor
+     * @param workers number of worker processes
+     * @param weightsPath weights file loaded by workers, null for default weights
+     */
+    public ShardCoordinator(int workers, Path weightsPath) {
+        this.workers = workers;
+        this.weightsPath = weightsPath;
+    }
+
+    /**
+     * Run a seeded audit on the workers. The result equals that of
+     * Audit.run(runs, seed, threads) for any number of workers.
+     * @param runs number of audit to be run
+     * @param seed master seed for scenario generation
+     * @return audit of all runs
+     * @throws IOException when a shard fails after all restarts
+     */
+    public Audit run(long runs, long seed) throws IOException {
+        int chunks = (int) ((runs + Audit.CHUNK_SIZE - 1) / Audit.CHUNK_SIZE);
+        return run(chunks, (out, from, to) -> {
+            out.writeByte(ShardWorker.ASSIGN_SEEDED);
+            out.writeLong(runs);
+            out.writeLong(seed);
+            out.writeInt(from);
+            out.writeInt(to);
+        });
+    }
+
+    /**
+     * Run an audit of the scenarios of a scenario file on the workers
+     * @param path path of scenario file
+     * @return audit of all scenarios
+     * @throws IOException when the file cannot be read or a shard fails after all restarts
+     */
+    public Audit run(Path path) throws IOException {
+        int size;
+        try (ScenarioFile file = new ScenarioFile(path)) {
+            size = file.size();
+        }
+        String absolutePath = path.toAbsolutePath().toString();
+        return run((size + Audit.CHUNK_SIZE - 1) / Audit.CHUNK_SIZE, (out, from, to) -> {
+            out.writeByte(ShardWorker.ASSIGN_FILE);
+            out.writeUTF(absolutePath);
+            out.writeInt(from);
+            out.writeInt(to);
+        });
+    }
+
+    private Audit run(int chunks, Assignment assignment) throws IOException {
+        if (chunks == 0) {
+            return new Audit();
+        }
+        int shardCount = Math.min(chunks, workers * SHARDS_PER_WORKER);
+        Shard[] shards = new Shard[shardCount];
+        ConcurrentLinkedQueue<Shard> queue = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard((int) ((long) chunks * i / shardCount),
+                    (int) ((long) chunks * (i + 1) / shardCount));
+            queue.add(shards[i]);
+        }
+
+        // one thread per worker process, taking shards until none are left
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        ArrayList<Thread> slots = new ArrayList<>();
+        for (int i = 0; i < Math.min(workers, shardCount); i++) {
+            Thread slot = new Thread(() -> {
+                try {
+                    runSlot(queue, assignment);
+                }
+                catch (IOException e) {
+                    failure.compareAndSet(null, e);
+                    queue.clear();
+                }
+            }, "shard-slot-" + i);
+            slot.start();
+            slots.add(slot);
+        }
+        for (Thread slot: slots) {
+            try {
+                slot.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for workers");
+            }
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return mergeTree(shards, 0, shards.length);
+    }
+
+    /**
+     * Audit shards from the queue on one worker process, restarting it on
+     * the unfinished chunks of its shard when it dies
+     * @param queue shards to audit
+     * @param assignment message assigning chunks
+     * @throws IOException when a shard fails after all restarts
+     */
+    private void runSlot(ConcurrentLinkedQueue<Shard> queue, Assignment assignment) throws IOException {
+        Worker worker = null;
+        try {
+            Shard shard;
+            while ((shard = queue.poll()) != null) {
+                while (shard.next < shard.to) {
+                    try {
+                        if (worker == null) {
+                            worker = new Worker();
+                        }
+                        worker.audit(shard, assignment);
+                    }
+                    catch (IOException e) {
+                        if (worker != null) {
+                            worker.kill();
+                            worker = null;
+                        }
+                        shard.restarts += 1;
+                        if (shard.restarts > MAX_RESTARTS) {
+                            throw new IOException("chunks " + shard.next + "-" + shard.to +
+                                    " failed on " + MAX_RESTARTS + " restarted workers: " + e.getMessage());
+                        }
+                        System.out.println("WARNING: worker stopped (" + e.getMessage() +
+                                "), restarting on chunks " + shard.next + "-" + shard.to + ".");
+                    }
+                }
+            }
+        }
+        finally {
+            if (worker != null) {
+                worker.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Merge the results of shards pairwise
+     * @param shards all shards
+     * @param from first shard (inclusive)
+     * @param to last shard (exclusive)
+     * @return merged audit
+     */
+    private static Audit mergeTree(Shard[] shards, int from, int to) {
+        if (to - from == 1) {
+            return shards[from].result;
+        }
+        int middle = (from + to) >>> 1;
+        Audit merged = mergeTree(shards, from, middle);
+        merged.merge(mergeTree(shards, middle, to));
+        return merged;
+    }
+
+    /**
+     * A worker process and its connection
+     */
+    private class Worker {
+        private final Process process;
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        /**
+         * Start a worker process and wait for it to connect
+         * @throws IOException when the worker cannot be started or does not connect
+         */
+        Worker() throws IOException {
+            try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                ArrayList<String> command = new ArrayList<>();
+                command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add(ShardWorker.class.getName());
+                command.add(Integer.toString(server.getLocalPort()));
+                if (weightsPath != null) {
+                    command.add(weightsPath.toAbsolutePath().toString());
+                }
+                process = new ProcessBuilder(command)
+                        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start();
+
+                // accept in short waits, giving up early if the process dies
+                server.setSoTimeout(1000);
+                Socket accepted = null;
+                long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+                while (accepted == null) {
+                    try {
+                        accepted = server.accept();
+                    }
+                    catch (SocketTimeoutException e) {
+                        if (!process.isAlive() || System.currentTimeMillis() > deadline) {
+                            process.destroyForcibly();
+                            throw new IOException("worker did not connect");
+                        }
+                    }
+                }
+                socket = accepted;
+            }
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        /**
+         * Audit the unfinished chunks of a shard, merging each partial as it arrives
+         * @param shard a shard
+         * @param assignment message assigning chunks
+         * @throws IOException when the worker fails
+         */
+        void audit(Shard shard, Assignment assignment) throws IOException {
+            assignment.write(out, shard.next, shard.to);
+            out.flush();
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                }
+                catch (EOFException e) {
+                    throw new IOException("worker exited");
+                }
+                if (type == ShardWorker.DONE) {
+                    if (shard.next != shard.to) {
+                        throw new IOException("worker finished early");
+                    }
+                    return;
+                }
+                if (type != ShardWorker.PARTIAL || in.readInt() != shard.next) {
+                    throw new IOException("unexpected message from worker");
+                }
+                Audit partial = new Audit();
+                partial.readState(in);
+                shard.result.merge(partial);
+                shard.next += 1;
+            }
+        }
+
+        /**
+         * Ask the worker to exit and wait for it
+         */
+        void shutdown() {
+            try {
+                out.writeByte(ShardWorker.SHUTDOWN);
+                out.flush();
+                if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            }
+            catch (IOException e) {
+                process.destroyForcibly();
+            }
+            catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+            closeSocket();
+        }
+
+        /**
+         * Stop a failed worker
+         */
+        void kill() {
+            process.destroyForcibly();
+            closeSocket();
+        }
+
+        private void closeSocket() {
+            try {
+                socket.close();
+            }
+            catch (IOException ignored) {
+            }
+        }
+    }
+}
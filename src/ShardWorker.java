@@ -0,0 +1,126 @@
+/*
+ * Moral Machine: ShardWorker.java
+ * Worker process of a sharded audit.
+ *
+ * ©Runfeng Du
+ */
+
+import ethicalengine.ScenarioFile;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/*
+ * Wire format, over a loopback socket per worker (DataOutputStream encoding):
+ *   coordinator -> worker
+ *     ASSIGN_SEEDED  long runs, long seed, int fromChunk, int toChunk
+ *     ASSIGN_FILE    UTF path, int fromChunk, int toChunk
+ *     SHUTDOWN
+ *   worker -> coordinator, for each assignment
+ *     PARTIAL        int chunk, partial audit (Audit.writeState), one per chunk in order
+ *     DONE
+ * A chunk is Audit.CHUNK_SIZE runs (or scenarios of a file), so partials of
+ * a seeded run are those of Audit.run(runs, seed, threads).
+ */
+public class ShardWorker {
+    static final byte ASSIGN_SEEDED = 1;
+    static final byte ASSIGN_FILE = 2;
+    static final byte SHUTDOWN = 3;
+    static final byte PARTIAL = 4;
+    static final byte DONE = 5;
+
+    private ScenarioFile file;
+    private Path filePath;
+
+    /**
+     * Connect to the coordinator and audit shards until shut down
+     * @param args port of coordinator, then optionally the path of a weights file
+     */
+    public static void main(String[] args) {
+        try {
+            if (args.length > 1) {
+                EthicalEngine.setWeights(DecisionWeights.load(Paths.get(args[1])));
+            }
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(args[0]))) {
+                new ShardWorker().serve(
+                        new DataInputStream(new BufferedInputStream(socket.getInputStream())),
+                        new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+            }
+        }
+        catch (IOException | IllegalArgumentException e) {
+            System.err.println("ERROR: shard worker failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private void serve(DataInputStream in, DataOutputStream out) throws IOException {
+        try {
+            while (true) {
+                byte type = in.readByte();
+                if (type == ASSIGN_SEEDED) {
+                    long runs = in.readLong();
+                    long seed = in.readLong();
+                    int from = in.readInt();
+                    int to = in.readInt();
+                    long[] chunkSeeds = Audit.chunkSeeds(runs, seed);
+                    for (int chunk = from; chunk < to; chunk++) {
+                        sendPartial(out, chunk, Audit.runChunk(chunkSeeds, runs, chunk));
+                    }
+                }
+                else if (type == ASSIGN_FILE) {
+                    Path path = Paths.get(in.readUTF());
+                    int from = in.readInt();
+                    int to = in.readInt();
+                    openFile(path);
+                    for (int chunk = from; chunk < to; chunk++) {
+                        int first = chunk * Audit.CHUNK_SIZE;
+                        Audit partial = new Audit(file.iterator(first,
+                                Math.min(file.size(), first + Audit.CHUNK_SIZE)));
+                        partial.run();
+                        sendPartial(out, chunk, partial);
+                    }
+                }
+                else if (type == SHUTDOWN) {
+                    return;
+                }
+                else {
+                    throw new IOException("unknown message " + type);
+                }
+                out.writeByte(DONE);
+                out.flush();
+            }
+        }
+        catch (EOFException e) {
+            // coordinator is gone
+        }
+        finally {
+            if (file != null) {
+                file.close();
+            }
+        }
+    }
+
+    private void sendPartial(DataOutputStream out, int chunk, Audit partial) throws IOException {
+        out.writeByte(PARTIAL);
+        out.writeInt(chunk);
+        partial.writeState(out);
+        out.flush();
+    }
+
+    private void openFile(Path path) throws IOException {
+        if (!path.equals(filePath)) {
+            if (file != null) {
+                file.close();
+            }
+            file = new ScenarioFile(path);
+            filePath = path;
+        }
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Moral Machine: StatisticsTable.java
+ * Dense counters of audit statistics.
+ *
+ * ©Runfeng Du
+ */
+
+import ethicalengine.Animal;
+import ethicalengine.Character;
+import ethicalengine.Person;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class StatisticsTable {
+    /*
+     * Slot layout: fixed keys, then one slot per enum constant (by ordinal),
+     * then a dictionary-encoded overflow area for free-form species.
+     */
+    public static final int GREEN = 0;
+    public static final int RED = 1;
+    public static final int PERSON = 2;
+    public static final int ANIMAL = 3;
+    public static final int YOU = 4;
+    public static final int PREGNANT = 5;
+    public static final int PET = 6;
+    private static final String[] KEY_NAMES = {"green", "red", "person", "animal", "you", "pregnant", "pet"};
+
+    private static final Character.Gender[] GENDERS = Character.Gender.values();
+    private static final Character.BodyType[] BODY_TYPES = Character.BodyType.values();
+    private static final Person.Profession[] PROFESSIONS = Person.Profession.values();
+    private static final Person.AgeCategory[] AGE_CATEGORIES = Person.AgeCategory.values();
+    private static final Animal.Species[] SPECIES = Animal.Species.values();
+
+    private static final int GENDER_BASE = KEY_NAMES.length;
+    private static final int BODY_TYPE_BASE = GENDER_BASE + GENDERS.length;
+    private static final int PROFESSION_BASE = BODY_TYPE_BASE + BODY_TYPES.length;
+    private static final int AGE_CATEGORY_BASE = PROFESSION_BASE + PROFESSIONS.length;
+    private static final int SPECIES_BASE = AGE_CATEGORY_BASE + AGE_CATEGORIES.length;
+    public static final int FIXED_SLOTS = SPECIES_BASE + SPECIES.length;
+
+    // names of fixed slots, null for values which are never recorded
+    private static final String[] FIXED_NAMES = new String[FIXED_SLOTS];
+    private static final HashMap<String, Integer> FIXED_INDEX = new HashMap<>();
+
+    static {
+        System.arraycopy(KEY_NAMES, 0, FIXED_NAMES, 0, KEY_NAMES.length);
+        for (Character.Gender g: GENDERS) {
+            FIXED_NAMES[GENDER_BASE + g.ordinal()] = g.name();
+        }
+        for (Character.BodyType b: BODY_TYPES) {
+            FIXED_NAMES[BODY_TYPE_BASE + b.ordinal()] = b.name();
+        }
+        for (Person.Profession p: PROFESSIONS) {
+            FIXED_NAMES[PROFESSION_BASE + p.ordinal()] = p.name();
+        }
+        for (Person.AgeCategory a: AGE_CATEGORIES) {
+            FIXED_NAMES[AGE_CATEGORY_BASE + a.ordinal()] = a.name();
+        }
+        for (Animal.Species s: SPECIES) {
+            FIXED_NAMES[SPECIES_BASE + s.ordinal()] = s.name();
+        }
+        for (int i = 0; i < FIXED_SLOTS; i++) {
+            if (isIgnored(FIXED_NAMES[i])) {
+                FIXED_NAMES[i] = null;
+            }
+            else {
+                FIXED_INDEX.put(FIXED_NAMES[i], i);
+            }
+        }
+    }
+
+    // counters[2 * slot]: times seen, counters[2 * slot + 1]: times saved
+    private long[] counters = new long[2 * FIXED_SLOTS];
+    // weighted counters, laid out as counters; kept once a weight other than 1 is counted
+    private double[] weights;
+    private final ArrayList<String> overflowNames = new ArrayList<>();
+    private final HashMap<String, Integer> overflowIndex = new HashMap<>();
+    // slots with counts, in the order of the last ranking
+    private int[] ranking = new int[FIXED_SLOTS];
+    private int rankedCount = 0;
+    private boolean[] isRanked = new boolean[FIXED_SLOTS];
+    private double[] rates = new double[FIXED_SLOTS];
+
+    /**
+     * Is the key excluded from statistics
+     * @param key name of a key
+     * @return is ignored?
+     */
+    private static boolean isIgnored(String key) {
+        return key.equals("UNKNOWN") || key.equals("NONE") || key.equals("UNSPECIFIED");
+    }
+
+    /**
+     * Get slot of a gender
+     * @param gender a gender
+     * @return slot, or -1 if not recorded
+     */
+    public static int slotOf(Character.Gender gender) {
+        return slotOrIgnored(GENDER_BASE + gender.ordinal());
+    }
+
+    /**
+     * Get slot of a body type
+     * @param bodyType a body type
+     * @return slot, or -1 if not recorded
+     */
+    public static int slotOf(Character.BodyType bodyType) {
+        return slotOrIgnored(BODY_TYPE_BASE + bodyType.ordinal());
+    }
+
+    /**
+     * Get slot of a profession
+     * @param profession a profession
+     * @return slot, or -1 if not recorded
+     */
+    public static int slotOf(Person.Profession profession) {
+        return slotOrIgnored(PROFESSION_BASE + profession.ordinal());
+    }
+
+    /**
+     * Get slot of an age category
+     * @param ageCategory an age category
+     * @return slot, or -1 if not recorded
+     */
+    public static int slotOf(Person.AgeCategory ageCategory) {
+        return slotOrIgnored(AGE_CATEGORY_BASE + ageCategory.ordinal());
+    }
+
+    private static int slotOrIgnored(int slot) {
+        return FIXED_NAMES[slot] == null ? -1 : slot;
+    }
+
+    /**
+     * Get slot of a species, adding it to the overflow dictionary if needed
+     * @param species species of an animal
+     * @return slot, or -1 if not recorded
+     */
+    public int speciesSlot(String species) {
+        Integer slot = FIXED_INDEX.get(species);
+        if (slot != null) {
+            return slot;
+        }
+        slot = overflowIndex.get(species);
+        if (slot != null) {
+            return slot;
+        }
+        if (isIgnored(species)) {
+            return -1;
+        }
+        slot = FIXED_SLOTS + overflowNames.size();
+        overflowNames.add(species);
+        overflowIndex.put(species, slot);
+        if (counters.length < 2 * size()) {
+            counters = Arrays.copyOf(counters, 2 * counters.length);
+            if (weights != null) {
+                weights = Arrays.copyOf(weights, counters.length);
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Count a character in a slot
+     * @param slot slot of the key, ignored if negative
+     * @param modifier 1 if survived, 0 otherwise
+     */
+    public void update(int slot, int modifier) {
+        update(slot, modifier, 1);
+    }
+
+    /**
+     * Count a character in a slot a number of times
+     * @param slot slot of the key, ignored if negative
+     * @param modifier 1 if survived, 0 otherwise
+     * @param count times to count
+     */
+    public void update(int slot, int modifier, long count) {
+        update(slot, modifier, count, 1);
+    }
+
+    /**
+     * Count a weighted character in a slot a number of times. Rates of a
+     * table with weights are rates of weighted counts.
+     * @param slot slot of the key, ignored if negative
+     * @param modifier 1 if survived, 0 otherwise
+     * @param count times to count
+     * @param weight weight of each count
+     */
+    public void update(int slot, int modifier, long count, double weight) {
+        if (slot >= 0) {
+            if (weight != 1 && weights == null) {
+                weigh();
+            }
+            counters[2 * slot] += count;
+            counters[2 * slot + 1] += modifier * count;
+            if (weights != null) {
+                weights[2 * slot] += count * weight;
+                weights[2 * slot + 1] += modifier * count * weight;
+            }
+        }
+    }
+
+    /**
+     * Start keeping weighted counters, counting each count so far by weight 1
+     */
+    private void weigh() {
+        weights = new double[counters.length];
+        for (int i = 0; i < counters.length; i++) {
+            weights[i] = counters[i];
+        }
+    }
+
+    /**
+     * Merge counters of another table into this table
+     * @param other a table
+     */
+    public void merge(StatisticsTable other) {
+        if (other.weights != null && weights == null) {
+            weigh();
+        }
+        for (int i = 0; i < 2 * FIXED_SLOTS; i++) {
+            counters[i] += other.counters[i];
+        }
+        for (int i = FIXED_SLOTS; i < other.size(); i++) {
+            int slot = speciesSlot(other.name(i));
+            counters[2 * slot] += other.total(i);
+            counters[2 * slot + 1] += other.saved(i);
+        }
+        if (weights != null) {
+            for (int i = 0; i < other.size(); i++) {
+                int slot = (i < FIXED_SLOTS) ? i : speciesSlot(other.name(i));
+                weights[2 * slot] += other.weightedTotal(i);
+                weights[2 * slot + 1] += other.weightedSaved(i);
+            }
+        }
+    }
+
+    /**
+     * Write counters of all slots with counts, keyed by name. Weighted
+     * counters are not written: weighted audits are neither sharded nor
+     * checkpointed.
+     * @param out destination
+     * @throws IOException when the destination cannot be written
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        int count = 0;
+        for (int slot = 0; slot < size(); slot++) {
+            count += total(slot) > 0 ? 1 : 0;
+        }
+        out.writeInt(count);
+        for (int slot = 0; slot < size(); slot++) {
+            if (total(slot) > 0) {
+                out.writeUTF(name(slot));
+                out.writeLong(total(slot));
+                out.writeLong(saved(slot));
+            }
+        }
+    }
+
+    /**
+     * Add counters written by writeTo into this table
+     * @param in source
+     * @throws IOException when the source cannot be read or holds an unknown key
+     */
+    public void readFrom(DataInput in) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            int slot = speciesSlot(name);
+            if (slot < 0) {
+                throw new IOException("unknown statistics key " + name);
+            }
+            counters[2 * slot] += in.readLong();
+            counters[2 * slot + 1] += in.readLong();
+        }
+    }
+
+    /**
+     * Count slots in use or reserved
+     * @return number of slots
+     */
+    public int size() {
+        return FIXED_SLOTS + overflowNames.size();
+    }
+
+    /**
+     * Get key name of a slot
+     * @param slot a slot
+     * @return key name, null if never recorded
+     */
+    public String name(int slot) {
+        return slot < FIXED_SLOTS ? FIXED_NAMES[slot] : overflowNames.get(slot - FIXED_SLOTS);
+    }
+
+    /**
+     * Get times a key has been seen
+     * @param slot a slot
+     * @return times seen
+     */
+    public long total(int slot) {
+        return counters[2 * slot];
+    }
+
+    /**
+     * Get times a key has been saved
+     * @param slot a slot
+     * @return times saved
+     */
+    public long saved(int slot) {
+        return counters[2 * slot + 1];
+    }
+
+    /**
+     * Does the table keep weighted counters
+     * @return is weighted?
+     */
+    public boolean isWeighted() {
+        return weights != null;
+    }
+
+    /**
+     * Get the weighted times a key has been seen
+     * @param slot a slot
+     * @return weighted times seen, times seen if unweighted
+     */
+    public double weightedTotal(int slot) {
+        return (weights != null) ? weights[2 * slot] : counters[2 * slot];
+    }
+
+    /**
+     * Get the weighted times a key has been saved
+     * @param slot a slot
+     * @return weighted times saved, times saved if unweighted
+     */
+    public double weightedSaved(int slot) {
+        return (weights != null) ? weights[2 * slot + 1] : counters[2 * slot + 1];
+    }
+
+    /**
+     * Get the survival rate of a key, by weighted counts if kept
+     * @param slot a slot with counts
+     * @return survival rate
+     */
+    public double rate(int slot) {
+        return weightedSaved(slot) / weightedTotal(slot);
+    }
+
+    /**
+     * Get the lower bound of the Wilson score interval of a survival rate
+     * @param slot a slot with counts
+     * @param z standard normal quantile of the confidence level
+     * @return lower bound
+     */
+    public double lowerBound(int slot, double z) {
+        return wilsonCenter(slot, z) - wilsonHalfWidth(slot, z);
+    }
+
+    /**
+     * Get the upper bound of the Wilson score interval of a survival rate
+     * @param slot a slot with counts
+     * @param z standard normal quantile of the confidence level
+     * @return upper bound
+     */
+    public double upperBound(int slot, double z) {
+        return wilsonCenter(slot, z) + wilsonHalfWidth(slot, z);
+    }
+
+    private double wilsonCenter(int slot, double z) {
+        double n = total(slot);
+        double p = saved(slot) / n;
+        return (p + z * z / (2 * n)) / (1 + z * z / n);
+    }
+
+    private double wilsonHalfWidth(int slot, double z) {
+        double n = total(slot);
+        double p = saved(slot) / n;
+        return z * Math.sqrt(p * (1 - p) / n + z * z / (4 * n * n)) / (1 + z * z / n);
+    }
+
+    /**
+     * Rank the slots with counts by survival rate (highest first), then by name.
+     * The order of the last call is repaired by insertion sort, which is linear
+     * while rates change little between calls.
+     * @return ranked slots
+     */
+    public int[] ranking() {
+        int size = size();
+        if (isRanked.length < size) {
+            ranking = Arrays.copyOf(ranking, 2 * size);
+            isRanked = Arrays.copyOf(isRanked, 2 * size);
+            rates = Arrays.copyOf(rates, 2 * size);
+        }
+        for (int slot = 0; slot < size; slot++) {
+            if (total(slot) > 0) {
+                rates[slot] = rate(slot);
+                if (!isRanked[slot]) {
+                    isRanked[slot] = true;
+                    ranking[rankedCount++] = slot;
+                }
+            }
+        }
+        for (int i = 1; i < rankedCount; i++) {
+            int slot = ranking[i];
+            int j = i - 1;
+            for (; j >= 0 && ranksBefore(slot, ranking[j]); j--) {
+                ranking[j + 1] = ranking[j];
+            }
+            ranking[j + 1] = slot;
+        }
+        return Arrays.copyOf(ranking, rankedCount);
+    }
+
+    private boolean ranksBefore(int a, int b) {
+        int byRate = Double.compare(rates[b], rates[a]);
+        return byRate < 0 || (byRate == 0 && name(a).compareTo(name(b)) < 0);
+    }
+}
@@ -7,10 +7,12 @@
 package ethicalengine;
 
 public class Animal extends Character{
-    enum Species {cat, dog, monkey, pig, duck, chicken, horse}
+    public enum Species {cat, dog, monkey, pig, duck, chicken, horse}
 
     private String species;
     private boolean isPet;
+    // sorts animals after persons of the same age, gender and body type
+    private static final long ANIMAL_ATTRIBUTE = 1L << 7;
 
     /**
      * Empty constructor
@@ -53,6 +55,7 @@ public class Animal extends Character{
      * @param species species of animal
      */
     public void setSpecies(String species) {
+        checkMutable();
         this.species = species;
     }
 
@@ -77,9 +80,20 @@ public class Animal extends Character{
      * @param isPet is pet?
      */
     public void setPet(boolean isPet) {
+        checkMutable();
         this.isPet = isPet;
     }
 
+    /**
+     * Encode attributes: age, gender and body type, then the animal bit and
+     * pet. Species is compared apart, as it is free-form.
+     * @return attributes
+     */
+    @Override
+    long canonicalAttributes() {
+        return baseAttributes() | ANIMAL_ATTRIBUTE | (isPet ? 1 : 0);
+    }
+
     /**
      * Convert animal to string
      * @return a string representing the animal
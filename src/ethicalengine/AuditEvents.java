@@ -0,0 +1,172 @@
+/*
+ * Moral Machine: ethicalengine/AuditEvents.java
+ * Flight recorder events of the audit pipeline.
+ *
+ * ©Runfeng Du
+ */
+package ethicalengine;
+
+import java.util.concurrent.ThreadLocalRandom;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/*
+ * Per-scenario events are committed for one call in SAMPLE_INTERVAL, and
+ * batch events summarise every BATCH_SIZE scenarios of an audit. Callers
+ * test isEnabled() first, so with no recording running an event costs a
+ * field read and its allocation is removed by the JIT.
+ */
+public final class AuditEvents {
+    public static final int SAMPLE_INTERVAL = 64;
+    public static final int BATCH_SIZE = 1024;
+
+    private AuditEvents() {}
+
+    /**
+     * Should this call commit its (enabled) per-scenario event
+     * @return is sampled?
+     */
+    public static boolean isSampled() {
+        return ThreadLocalRandom.current().nextInt(SAMPLE_INTERVAL) == 0;
+    }
+
+    /**
+     * Base of events describing one scenario
+     */
+    @Category({"Moral Machine", "Scenario"})
+    @StackTrace(false)
+    public abstract static class ScenarioEvent extends Event {
+        @Label("Passengers")
+        int passengers;
+
+        @Label("Pedestrians")
+        int pedestrians;
+
+        @Label("Legal Crossing")
+        boolean isLegalCrossing;
+
+        @Label("Decision")
+        String decision;
+
+        /**
+         * Record the size of a scenario
+         * @param scenario a scenario
+         */
+        public void setScenario(Scenario scenario) {
+            passengers = scenario.getPassengerCount();
+            pedestrians = scenario.getPedestrianCount();
+            isLegalCrossing = scenario.isLegalCrossing();
+        }
+
+        /**
+         * Record the decision on the scenario
+         * @param decision name of decision
+         */
+        public void setDecision(String decision) {
+            this.decision = decision;
+        }
+    }
+
+    @Name("moralmachine.Generate")
+    @Label("Generate Scenario")
+    @Description("ScenarioGenerator.generate, sampled")
+    public static class GenerateEvent extends ScenarioEvent {}
+
+    @Name("moralmachine.Decide")
+    @Label("Decide Scenario")
+    @Description("DecisionEngine.decide, sampled")
+    public static class DecideEvent extends ScenarioEvent {}
+
+    @Name("moralmachine.UpdateStatistics")
+    @Label("Update Statistics")
+    @Description("Audit.updateStatistics, sampled")
+    public static class UpdateStatisticsEvent extends ScenarioEvent {}
+
+    @Name("moralmachine.AuditBatch")
+    @Label("Audit Batch")
+    @Description("Scenarios audited in a row, up to BATCH_SIZE")
+    @Category({"Moral Machine", "Audit"})
+    @StackTrace(false)
+    public static class AuditBatchEvent extends Event {
+        @Label("Audit Type")
+        String auditType;
+
+        @Label("Scenarios")
+        int scenarios;
+
+        @Label("Characters")
+        long characters;
+
+        @Label("Passengers Saved")
+        int passengersSaved;
+
+        /**
+         * Count an audited scenario
+         * @param scenario a scenario
+         * @param isPassengersSaved were the passengers saved
+         * @return is the batch full?
+         */
+        public boolean add(Scenario scenario, boolean isPassengersSaved) {
+            scenarios += 1;
+            characters += scenario.getPassengerCount() + scenario.getPedestrianCount();
+            passengersSaved += isPassengersSaved ? 1 : 0;
+            return scenarios == BATCH_SIZE;
+        }
+
+        /**
+         * Start a batch of an audit
+         * @param auditType type of audit
+         * @return the batch, or null when the event is disabled
+         */
+        public static AuditBatchEvent start(String auditType) {
+            AuditBatchEvent event = new AuditBatchEvent();
+            if (!event.isEnabled()) {
+                return null;
+            }
+            event.auditType = auditType;
+            event.begin();
+            return event;
+        }
+
+        /**
+         * Commit a batch if it holds any scenario
+         * @param event a batch, may be null
+         */
+        public static void finish(AuditBatchEvent event) {
+            if (event != null && event.scenarios > 0) {
+                event.commit();
+            }
+        }
+    }
+
+    @Name("moralmachine.Report")
+    @Label("Render Report")
+    @Description("Audit.toString")
+    @Category({"Moral Machine", "Audit"})
+    public static class ReportEvent extends Event {
+        @Label("Audit Type")
+        public String auditType;
+
+        @Label("Runs")
+        public long runs;
+
+        @Label("Length")
+        public int length;
+    }
+
+    @Name("moralmachine.PrintReport")
+    @Label("Print Report")
+    @Description("Audit.printToFile")
+    @Category({"Moral Machine", "Audit"})
+    public static class PrintReportEvent extends Event {
+        @Label("Path")
+        public String path;
+
+        @Label("Runs")
+        public long runs;
+    }
+}
@@ -21,9 +21,13 @@ public abstract class Character {
     public enum Gender {MALE, FEMALE, UNKNOWN}
     public enum BodyType {AVERAGE, ATHLETIC, OVERWEIGHT, UNSPECIFIED}
 
+    // body types and a missing body type, for canonical attributes
+    private static final int BODY_TYPE_CODES = BodyType.values().length + 1;
+
     private int age;
     private Gender gender = Gender.UNKNOWN;
     private BodyType bodyType = BodyType.UNSPECIFIED;
+    private boolean isFrozen = false;
 
     /**
      * Empty constructor
@@ -71,6 +75,7 @@ public abstract class Character {
      * @throws NumberFormatException when invalid age received
      */
     public void setAge(int age) throws NumberFormatException {
+        checkMutable();
         if (age>=0) {
             this.age = age;
         }
@@ -109,6 +114,7 @@ public abstract class Character {
      * @param gender gender of character
      */
     public void setGender(Gender gender) {
+        checkMutable();
         this.gender = gender;
     }
 
@@ -121,6 +127,7 @@ public abstract class Character {
      */
     public void setGender(String gender, int lineNumber)
             throws InvalidCharacteristicException {
+        checkMutable();
         if (gender.toLowerCase().equals("female")){
             this.gender = Gender.FEMALE;
         }
@@ -149,6 +156,7 @@ public abstract class Character {
      * @param bodyType body type of character
      */
     public void setBodyType(BodyType bodyType) {
+        checkMutable();
         this.bodyType = bodyType;
     }
 
@@ -160,6 +168,7 @@ public abstract class Character {
      */
     public void setBodyType(String bodyType, int lineNumber)
             throws InvalidCharacteristicException {
+        checkMutable();
         boolean bodyTypeSet = false;
         for (BodyType b: BodyType.values()) {
             if (b.name().equals(bodyType.toUpperCase())){
@@ -174,6 +183,55 @@ public abstract class Character {
         }
     }
 
+    /**
+     * Make character immutable; setters throw from now on
+     * @see CharacterPool
+     */
+    void freeze() {
+        isFrozen = true;
+    }
+
+    /**
+     * Is character immutable (e.g. a shared canonical instance)
+     * @return is frozen?
+     */
+    public boolean isFrozen() {
+        return isFrozen;
+    }
+
+    /**
+     * Check that character may be changed
+     * @throws UnsupportedOperationException when character is frozen
+     */
+    void checkMutable() {
+        if (isFrozen) {
+            throw new UnsupportedOperationException("character is immutable");
+        }
+    }
+
+    /**
+     * Encode all attributes but species in one number, for the canonical
+     * form of scenarios. Missing values encode as 0. Layout: age in bits
+     * 32-63, gender and body type from bit 8, animal bit 7, profession in
+     * bits 2-5, then pregnant or pet and you.
+     * @return attributes, ordered by age first
+     * @see Scenario#fingerprint()
+     */
+    abstract long canonicalAttributes();
+
+    /**
+     * Encode age, gender and body type, the attributes of all characters
+     * @return age in the high half, gender and body type in the low half
+     */
+    long baseAttributes() {
+        return ((long) age << 32) | (long) (ordinalOf(gender) * BODY_TYPE_CODES +
+                ordinalOf(bodyType)) << 8;
+    }
+
+    static int ordinalOf(Enum<?> e) {
+        return (e == null) ? 0 : e.ordinal() + 1;
+    }
+
     /**
      * Convert character to string
      * @return string represents a character
@@ -0,0 +1,188 @@
+/*
+ * Moral Machine: ethicalengine/CharacterPool.java
+ * Bounded intern table of immutable canonical characters.
+ *
+ * ©Runfeng Du
+ */
+package ethicalengine;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public final class CharacterPool {
+    private static final int GENDERS = Character.Gender.values().length;
+    private static final int BODY_TYPES = Character.BodyType.values().length;
+    private static final int PROFESSIONS = Person.Profession.values().length;
+    private static final Animal.Species[] SPECIES = Animal.Species.values();
+
+    // common characters live in dense tables indexed by their attributes
+    private static final int DENSE_AGES = 128;
+    private static final AtomicReferenceArray<Person> persons =
+            new AtomicReferenceArray<>(DENSE_AGES * GENDERS * BODY_TYPES * PROFESSIONS * 4);
+    private static final AtomicReferenceArray<Animal> animals =
+            new AtomicReferenceArray<>(DENSE_AGES * SPECIES.length * GENDERS * BODY_TYPES * 2);
+    // other ages and species, up to a bound; beyond it instances are not shared
+    private static final int MAX_OVERFLOW = 1 << 16;
+    private static final ConcurrentHashMap<Key, Character> overflow = new ConcurrentHashMap<>();
+    private static final long ANIMAL_KEY = 1L << 31;
+
+    /**
+     * Key of a character outside the dense tables
+     */
+    private static final class Key {
+        private final long attributes;
+        private final String species;
+
+        Key(long attributes, String species) {
+            this.attributes = attributes;
+            this.species = species;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return attributes == k.attributes && Objects.equals(species, k.species);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(attributes) * 31 + Objects.hashCode(species);
+        }
+    }
+
+    private CharacterPool() {}
+
+    /**
+     * Get the canonical person with given attributes. Attributes are stored as
+     * given, so callers apply the setter rules (profession of non-adults,
+     * pregnancy of non-females) beforehand.
+     * @param age age of person
+     * @param gender gender of person
+     * @param bodyType body type of person
+     * @param profession profession of person
+     * @param isPregnant is pregnant?
+     * @param isYou is you?
+     * @return an immutable person, shared with other callers
+     * @throws NumberFormatException when age is negative
+     */
+    public static Person person(int age, Character.Gender gender, Character.BodyType bodyType,
+                                Person.Profession profession, boolean isPregnant, boolean isYou) {
+        int attributes = (((gender.ordinal() * BODY_TYPES + bodyType.ordinal()) * PROFESSIONS +
+                profession.ordinal()) << 2) | (isPregnant ? 2 : 0) | (isYou ? 1 : 0);
+        if (age >= 0 && age < DENSE_AGES) {
+            int index = age * (GENDERS * BODY_TYPES * PROFESSIONS * 4) + attributes;
+            Person p = persons.getAcquire(index);
+            if (p == null) {
+                p = newPerson(age, gender, bodyType, profession, isPregnant, isYou);
+                if (!persons.compareAndSet(index, null, p)) {
+                    p = persons.getAcquire(index);
+                }
+            }
+            return p;
+        }
+        Key key = new Key(((long) age << 32) | attributes, null);
+        Character c = overflow.get(key);
+        if (c == null) {
+            c = newPerson(age, gender, bodyType, profession, isPregnant, isYou);
+            if (overflow.size() < MAX_OVERFLOW) {
+                Character previous = overflow.putIfAbsent(key, c);
+                c = (previous != null) ? previous : c;
+            }
+        }
+        return (Person) c;
+    }
+
+    /**
+     * Get the canonical animal with given attributes
+     * @param age age of animal
+     * @param species species of animal
+     * @param gender gender of animal
+     * @param bodyType body type of animal
+     * @param isPet is pet?
+     * @return an immutable animal, shared with other callers
+     * @throws NumberFormatException when age is negative
+     */
+    public static Animal animal(int age, String species, Character.Gender gender,
+                                Character.BodyType bodyType, boolean isPet) {
+        if (age >= 0 && age < DENSE_AGES) {
+            // decoded species are usually the name constants themselves
+            for (Animal.Species s: SPECIES) {
+                if (s.name() == species) {
+                    return animal(age, s, gender, bodyType, isPet);
+                }
+            }
+            for (Animal.Species s: SPECIES) {
+                if (s.name().equals(species)) {
+                    return animal(age, s, gender, bodyType, isPet);
+                }
+            }
+        }
+        int attributes = ((gender.ordinal() * BODY_TYPES + bodyType.ordinal()) << 1) | (isPet ? 1 : 0);
+        Key key = new Key(((long) age << 32) | ANIMAL_KEY | attributes, species);
+        Character c = overflow.get(key);
+        if (c == null) {
+            c = newAnimal(age, species, gender, bodyType, isPet);
+            if (overflow.size() < MAX_OVERFLOW) {
+                Character previous = overflow.putIfAbsent(key, c);
+                c = (previous != null) ? previous : c;
+            }
+        }
+        return (Animal) c;
+    }
+
+    /**
+     * Get the canonical animal of a generated species
+     * @param age age of animal
+     * @param species species of animal
+     * @param gender gender of animal
+     * @param bodyType body type of animal
+     * @param isPet is pet?
+     * @return an immutable animal, shared with other callers
+     * @throws NumberFormatException when age is negative
+     */
+    public static Animal animal(int age, Animal.Species species, Character.Gender gender,
+                                Character.BodyType bodyType, boolean isPet) {
+        if (age < 0 || age >= DENSE_AGES) {
+            return animal(age, species.name(), gender, bodyType, isPet);
+        }
+        int index = ((age * SPECIES.length + species.ordinal()) * GENDERS * BODY_TYPES +
+                gender.ordinal() * BODY_TYPES + bodyType.ordinal()) * 2 + (isPet ? 1 : 0);
+        Animal a = animals.getAcquire(index);
+        if (a == null) {
+            a = newAnimal(age, species.name(), gender, bodyType, isPet);
+            if (!animals.compareAndSet(index, null, a)) {
+                a = animals.getAcquire(index);
+            }
+        }
+        return a;
+    }
+
+    private static Person newPerson(int age, Character.Gender gender, Character.BodyType bodyType,
+                                    Person.Profession profession, boolean isPregnant, boolean isYou) {
+        Person p = new Person();
+        p.setGender(gender);
+        p.setAge(age);
+        p.setBodyType(bodyType);
+        p.restoreProfession(profession);
+        p.setPregnant(isPregnant);
+        p.setAsYou(isYou);
+        p.freeze();
+        return p;
+    }
+
+    private static Animal newAnimal(int age, String species, Character.Gender gender,
+                                    Character.BodyType bodyType, boolean isPet) {
+        Animal a = new Animal();
+        a.setGender(gender);
+        a.setAge(age);
+        a.setBodyType(bodyType);
+        a.setSpecies(species);
+        a.setPet(isPet);
+        a.freeze();
+        return a;
+    }
+}
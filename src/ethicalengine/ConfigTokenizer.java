@@ -0,0 +1,247 @@
+/*
+ * Moral Machine: ethicalengine/ConfigTokenizer.java
+ * Splits config rows into fields and decodes them without allocating.
+ *
+ * ©Runfeng Du
+ */
+package ethicalengine;
+
+import java.nio.charset.Charset;
+
+class ConfigTokenizer {
+    static final int FIELDS = 10;
+    // results of decoding an enum field
+    static final int EMPTY = -1;
+    static final int INVALID = -2;
+
+    private static final byte[] PERSON = bytes("person");
+    private static final byte[] ANIMAL = bytes("animal");
+    private static final byte[] SCENARIO_GREEN = bytes("scenario:green");
+    private static final byte[] SCENARIO_RED = bytes("scenario:red");
+    private static final byte[] PASSENGER = bytes("passenger");
+    private static final byte[] TRUE = bytes("true");
+    private static final byte[][] GENDERS = new byte[Character.Gender.values().length][];
+    private static final byte[][] BODY_TYPES = names(Character.BodyType.values());
+    private static final byte[][] PROFESSIONS = names(Person.Profession.values());
+    private static final byte[][] SPECIES = new byte[Animal.Species.values().length][];
+    private static final String[] SPECIES_NAMES = new String[SPECIES.length];
+    private static final String DEFAULT_SPECIES = "dog";
+
+    static {
+        // only female and male can be given, unknown is the empty field
+        GENDERS[Character.Gender.FEMALE.ordinal()] = bytes("female");
+        GENDERS[Character.Gender.MALE.ordinal()] = bytes("male");
+        for (Animal.Species s: Animal.Species.values()) {
+            SPECIES_NAMES[s.ordinal()] = s.name();
+            SPECIES[s.ordinal()] = bytes(s.name());
+        }
+    }
+
+    // row classes
+    static final int OTHER = 0;
+    static final int PERSON_ROW = 1;
+    static final int ANIMAL_ROW = 2;
+    static final int GREEN_ROW = 3;
+    static final int RED_ROW = 4;
+
+    private byte[] line;
+    private final int[] starts = new int[FIELDS];
+    private final int[] ends = new int[FIELDS];
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(Charset.defaultCharset());
+    }
+
+    private static byte[][] names(Enum<?>[] values) {
+        byte[][] names = new byte[values.length][];
+        for (Enum<?> e: values) {
+            names[e.ordinal()] = bytes(e.name().toLowerCase());
+        }
+        return names;
+    }
+
+    /**
+     * Split a row into fields, keeping only their offsets
+     * @param line buffer holding the row
+     * @param start first byte of the row
+     * @param end end of the row (exclusive)
+     * @return number of fields of the row
+     */
+    int split(byte[] line, int start, int end) {
+        this.line = line;
+        int count = 0;
+        int fieldStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || line[i] == ',') {
+                if (count < FIELDS) {
+                    starts[count] = fieldStart;
+                    ends[count] = i;
+                }
+                count += 1;
+                fieldStart = i + 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the class of the row (first field, ignoring case)
+     * @return one of OTHER, PERSON_ROW, ANIMAL_ROW, GREEN_ROW, RED_ROW
+     */
+    int rowClass() {
+        if (equalsIgnoreCase(0, PERSON)) {
+            return PERSON_ROW;
+        }
+        if (equalsIgnoreCase(0, ANIMAL)) {
+            return ANIMAL_ROW;
+        }
+        if (equalsIgnoreCase(0, SCENARIO_GREEN)) {
+            return GREEN_ROW;
+        }
+        if (equalsIgnoreCase(0, SCENARIO_RED)) {
+            return RED_ROW;
+        }
+        return OTHER;
+    }
+
+    /**
+     * Decode the gender field
+     * @param field index of field
+     * @return ordinal of gender, EMPTY or INVALID
+     */
+    int gender(int field) {
+        return decodeEnum(field, GENDERS);
+    }
+
+    /**
+     * Decode the body type field
+     * @param field index of field
+     * @return ordinal of body type, EMPTY or INVALID
+     */
+    int bodyType(int field) {
+        return decodeEnum(field, BODY_TYPES);
+    }
+
+    /**
+     * Decode the profession field
+     * @param field index of field
+     * @return ordinal of profession, EMPTY or INVALID
+     */
+    int profession(int field) {
+        return decodeEnum(field, PROFESSIONS);
+    }
+
+    /**
+     * Decode an age field, as Integer.parseInt followed by a positive check
+     * @param field index of field
+     * @return age, or INVALID
+     */
+    int age(int field) {
+        int i = starts[field];
+        int end = ends[field];
+        boolean isNegative = false;
+        if (i < end && (line[i] == '-' || line[i] == '+')) {
+            isNegative = line[i] == '-';
+            i++;
+        }
+        if (i == end) {
+            return INVALID;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE) {
+                return INVALID;
+            }
+        }
+        return (isNegative && value != 0) ? INVALID : (int) value;
+    }
+
+    /**
+     * Decode a boolean field, as Boolean.parseBoolean
+     * @param field index of field
+     * @return is "true", ignoring case?
+     */
+    boolean bool(int field) {
+        return equalsIgnoreCase(field, TRUE);
+    }
+
+    /**
+     * Is the role field "passenger"
+     * @param field index of field
+     * @return is passenger?
+     */
+    boolean isPassenger(int field) {
+        return equals(field, PASSENGER);
+    }
+
+    /**
+     * Decode the species field. Generated species share their name constants,
+     * other species are decoded to a new string.
+     * @param field index of field
+     * @return species, "dog" if empty
+     */
+    String species(int field) {
+        if (starts[field] == ends[field]) {
+            return DEFAULT_SPECIES;
+        }
+        for (int i = 0; i < SPECIES.length; i++) {
+            if (equals(field, SPECIES[i])) {
+                return SPECIES_NAMES[i];
+            }
+        }
+        return new String(line, starts[field], ends[field] - starts[field], Charset.defaultCharset());
+    }
+
+    private int decodeEnum(int field, byte[][] names) {
+        int length = ends[field] - starts[field];
+        if (length == 0) {
+            return EMPTY;
+        }
+        for (int i = 0; i < names.length; i++) {
+            // the length check rejects almost all candidates
+            if (names[i] != null && names[i].length == length && equalsIgnoreCase(field, names[i])) {
+                return i;
+            }
+        }
+        return INVALID;
+    }
+
+    private boolean equals(int field, byte[] expected) {
+        int start = starts[field];
+        if (ends[field] - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (line[start + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare a field to a lower case keyword, ignoring ASCII case
+     * @param field index of field
+     * @param lowerCase keyword in lower case
+     * @return is equal?
+     */
+    private boolean equalsIgnoreCase(int field, byte[] lowerCase) {
+        int start = starts[field];
+        if (ends[field] - start != lowerCase.length) {
+            return false;
+        }
+        for (int i = 0; i < lowerCase.length; i++) {
+            byte b = line[start + i];
+            byte expected = lowerCase[i];
+            if (b != expected && !(expected >= 'a' && expected <= 'z' && b == expected - 32)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
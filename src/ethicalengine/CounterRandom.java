@@ -0,0 +1,60 @@
+/*
+ * Moral Machine: ethicalengine/CounterRandom.java
+ * Counter-based random numbers, keyed by a seed and an index.
+ *
+ * ©Runfeng Du
+ */
+package ethicalengine;
+
+import java.util.Random;
+
+/*
+ * SplitMix64 over a counter: the k-th number of key (seed, index) is the
+ * SplitMix64 finalizer of key + k * GOLDEN_GAMMA, where the key is itself
+ * a mix of seed and index. Any number of any index can be drawn without
+ * drawing the ones before it, and no state is shared between indices.
+ */
+class CounterRandom extends Random {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    // not initialised here: Random's constructor sets it through setSeed
+    private long counter;
+
+    /**
+     * Empty constructor
+     */
+    CounterRandom() {
+        super();
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        key(seed, 0);
+    }
+
+    /**
+     * Start the numbers of an index of a seed
+     * @param seed seed of sequence
+     * @param index index within the seed
+     */
+    void key(long seed, long index) {
+        counter = mix64(mix64(seed) + index * GOLDEN_GAMMA);
+    }
+
+    @Override
+    protected int next(int bits) {
+        counter += GOLDEN_GAMMA;
+        return (int) (mix64(counter) >>> (64 - bits));
+    }
+
+    /**
+     * SplitMix64 finalizer (variant 13 of Stafford's mixers)
+     * @param z value to mix
+     * @return mixed value
+     */
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Moral Machine: ethicalengine/DecisionClient.java
+ * Client of the decision service.
+ *
+ * ©Runfeng Du
+ */
+package ethicalengine;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+/*
+ * One connection, used by one thread at a time. send() only buffers a
+ * request, so many can be pipelined before their responses are read by
+ * receive() in the same order; decide() is a send and its receive. Keep
+ * the requests in flight bounded: the service stops reading a connection
+ * whose responses are not being read.
+ */
+public class DecisionClient implements Closeable {
+    // buffered requests are written once they reach this size
+    private static final int FLUSH_BYTES = 1 << 16;
+
+    private final SocketChannel channel;
+    private ByteBuffer out = ByteBuffer.allocate(FLUSH_BYTES);
+    // read mode, holding bytes received but not yet returned
+    private ByteBuffer in = ByteBuffer.allocate(FLUSH_BYTES).flip();
+    private int nextRequest = 0;
+    private int nextResponse = 0;
+
+    /**
+     * Connect to a service on this machine
+     * @param port port of service
+     * @throws IOException when the service cannot be reached
+     */
+    public DecisionClient(int port) throws IOException {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Connect to a service
+     * @param address address of service
+     * @throws IOException when the service cannot be reached
+     */
+    public DecisionClient(InetSocketAddress address) throws IOException {
+        channel = SocketChannel.open(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    /**
+     * Decide scenarios, waiting for the answer
+     * @param scenarios scenarios to decide
+     * @return for every scenario, are the passengers saved (EthicalEngine.Decision.PASSENGERS)?
+     * @throws IOException when the connection fails or the service rejects the request
+     */
+    public boolean[] decide(List<Scenario> scenarios) throws IOException {
+        send(scenarios);
+        return receive();
+    }
+
+    /**
+     * Queue a request without waiting for its answer
+     * @param scenarios scenarios to decide
+     * @throws IOException when the connection fails
+     */
+    public void send(List<Scenario> scenarios) throws IOException {
+        out = DecisionProtocol.writeRequest(out, nextRequest++, scenarios);
+        if (out.position() >= FLUSH_BYTES) {
+            flush();
+        }
+    }
+
+    /**
+     * Write all queued requests
+     * @throws IOException when the connection fails
+     */
+    public void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Wait for the answer to the oldest request not yet received
+     * @return for every scenario, are the passengers saved (EthicalEngine.Decision.PASSENGERS)?
+     * @throws IOException when the connection fails or the service rejects the request
+     */
+    public boolean[] receive() throws IOException {
+        if (nextResponse == nextRequest) {
+            throw new IllegalStateException("no request in flight");
+        }
+        flush();
+        fill(4);
+        int length = in.getInt(in.position());
+        if (length < 0 || length > DecisionProtocol.MAX_FRAME_BYTES) {
+            throw new ProtocolException("invalid frame length " + length);
+        }
+        fill(4 + length);
+        ByteBuffer frame = in.slice();
+        frame.position(4).limit(4 + length);
+        in.position(in.position() + 4 + length);
+        return DecisionProtocol.readResponse(frame.slice(), nextResponse++);
+    }
+
+    /**
+     * Read until at least a number of bytes are buffered
+     * @param bytes bytes needed
+     * @throws IOException when the connection fails or closes
+     */
+    private void fill(int bytes) throws IOException {
+        if (in.remaining() >= bytes) {
+            return;
+        }
+        if (in.capacity() < bytes) {
+            in = ByteBuffer.allocate(Math.max(bytes, 2 * in.capacity())).put(in);
+        }
+        else {
+            in.compact();
+        }
+        while (in.position() < bytes) {
+            if (channel.read(in) < 0) {
+                throw new EOFException("service closed the connection");
+            }
+        }
+        in.flip();
+    }
+
+    /**
+     * Count requests sent but not yet received
+     * @return requests in flight
+     */
+    public int inFlight() {
+        return nextRequest - nextResponse;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Moral Machine: ethicalengine/DecisionProtocol.java
+ * Binary frames of the decision service.
+ *
+ * ©Runfeng Du
+ */
+package ethicalengine;
+
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ * Frames over a stream socket (big endian). A client may send any number of
+ * requests before reading a response; responses come back in request order.
+ *   request   int length of the rest of the frame, int request id,
+ *             varint scenario count, then every scenario: byte light
+ *             (1 green), varint passenger count, varint pedestrian count
+ *             and its characters as in ScenarioFile (byte of packed
+ *             attributes, varint age, then a profession byte for a person
+ *             or a varint species code for an animal)
+ *   response  int length of the rest of the frame, int request id,
+ *             byte status, varint scenario count, then one bit per
+ *             scenario, low bit of the first byte first: the ordinal of
+ *             EthicalEngine.Decision (1 when passengers are saved)
+ * Species codes are the ordinals of Animal.Species; OTHER_SPECIES is
+ * followed by the varint length and UTF-8 bytes of the species name.
+ */
+public final class DecisionProtocol {
+    public static final int MAX_FRAME_BYTES = 1 << 24;
+    public static final byte OK = 0;
+    public static final byte MALFORMED = 1;
+
+    private static final int ANIMAL = 1;
+    private static final int SPECIAL = 1 << 5;
+    private static final int YOU = 1 << 6;
+    private static final Animal.Species[] SPECIES = Animal.Species.values();
+    private static final int OTHER_SPECIES = SPECIES.length;
+    private static final HashMap<String, Integer> SPECIES_CODES = new HashMap<>();
+    static {
+        for (Animal.Species s: SPECIES) {
+            SPECIES_CODES.put(s.name(), s.ordinal());
+        }
+    }
+
+    private static final Character.Gender[] GENDERS = Character.Gender.values();
+    private static final Character.BodyType[] BODY_TYPES = Character.BodyType.values();
+    private static final Person.Profession[] PROFESSIONS = Person.Profession.values();
+
+    private DecisionProtocol() {}
+
+    /**
+     * Append a request frame to a buffer
+     * @param out buffer in write mode
+     * @param requestId id of request, echoed by the response
+     * @param scenarios scenarios to decide
+     * @return the buffer, or a larger copy if it was full
+     * @throws IllegalArgumentException when the frame would exceed MAX_FRAME_BYTES
+     */
+    public static ByteBuffer writeRequest(ByteBuffer out, int requestId, List<Scenario> scenarios) {
+        out = ensure(out, 16);
+        int start = out.position();
+        out.putInt(0).putInt(requestId);
+        out = putVarint(out, scenarios.size());
+        for (Scenario s: scenarios) {
+            out = ensure(out, 16);
+            out.put((byte) (s.isLegalCrossing() ? 1 : 0));
+            out = putVarint(out, s.getPassengerCount());
+            out = putVarint(out, s.getPedestrianCount());
+            for (Character c: s.getPassengersList()) {
+                out = putCharacter(out, c);
+            }
+            for (Character c: s.getPedestriansList()) {
+                out = putCharacter(out, c);
+            }
+        }
+        int length = out.position() - start - 4;
+        if (length > MAX_FRAME_BYTES) {
+            throw new IllegalArgumentException("request of " + length + " bytes exceeds " + MAX_FRAME_BYTES);
+        }
+        out.putInt(start, length);
+        return out;
+    }
+
+    private static ByteBuffer putCharacter(ByteBuffer out, Character c) {
+        out = ensure(out, 16);
+        int packed = (c.getGender().ordinal() << 1) | (c.getBodyType().ordinal() << 3);
+        if (c instanceof Animal) {
+            Animal animal = (Animal) c;
+            out.put((byte) (packed | ANIMAL | (animal.isPet() ? SPECIAL : 0)));
+            out = putVarint(out, c.getAge());
+            Integer code = SPECIES_CODES.get(animal.getSpecies());
+            if (code != null) {
+                return putVarint(out, code);
+            }
+            byte[] name = animal.getSpecies().getBytes(StandardCharsets.UTF_8);
+            out = putVarint(out, OTHER_SPECIES);
+            out = putVarint(out, name.length);
+            out = ensure(out, name.length);
+            return out.put(name);
+        }
+        Person person = (Person) c;
+        out.put((byte) (packed | (person.isPregnant() ? SPECIAL : 0) | (person.isYou() ? YOU : 0)));
+        out = putVarint(out, c.getAge());
+        return out.put((byte) person.getProfession().ordinal());
+    }
+
+    /**
+     * Read the scenarios of a request frame into a batch
+     * @param frame the frame after its length, limited to its end
+     * @param batch batch to append scenarios to
+     * @return id of request
+     * @throws ProtocolException when the frame is malformed
+     */
+    public static int readRequest(ByteBuffer frame, ScenarioBatch batch) throws ProtocolException {
+        try {
+            int requestId = frame.getInt();
+            int count = getVarint(frame);
+            // every scenario takes at least three bytes
+            if (count > frame.remaining() / 3) {
+                throw new ProtocolException("invalid scenario count " + count);
+            }
+            for (int s = 0; s < count; s++) {
+                int light = frame.get();
+                int passengers = getVarint(frame);
+                int pedestrians = getVarint(frame);
+                if ((light & ~1) != 0 || passengers > frame.remaining() / 3 ||
+                        pedestrians > frame.remaining() / 3 - passengers) {
+                    throw new ProtocolException("invalid scenario " + s);
+                }
+                batch.beginScenario(light == 1);
+                for (int i = 0; i < passengers; i++) {
+                    getCharacter(frame, batch);
+                }
+                batch.beginPedestrians();
+                for (int i = 0; i < pedestrians; i++) {
+                    getCharacter(frame, batch);
+                }
+                batch.endScenario();
+            }
+            if (frame.hasRemaining()) {
+                throw new ProtocolException("trailing bytes in request");
+            }
+            return requestId;
+        }
+        catch (BufferUnderflowException e) {
+            throw new ProtocolException("truncated request");
+        }
+    }
+
+    private static void getCharacter(ByteBuffer frame, ScenarioBatch batch) throws ProtocolException {
+        int packed = frame.get();
+        int age = getVarint(frame);
+        int gender = (packed >>> 1) & 3;
+        int bodyType = (packed >>> 3) & 3;
+        if (packed < 0 || gender >= GENDERS.length || bodyType >= BODY_TYPES.length) {
+            throw new ProtocolException("invalid character attributes");
+        }
+        if ((packed & ANIMAL) != 0) {
+            int code = getVarint(frame);
+            if (code == OTHER_SPECIES) {
+                int length = getVarint(frame);
+                if (length > frame.remaining()) {
+                    throw new ProtocolException("truncated species name");
+                }
+                byte[] name = new byte[length];
+                frame.get(name);
+                code = batch.speciesCode(new String(name, StandardCharsets.UTF_8));
+            }
+            else if (code > OTHER_SPECIES) {
+                throw new ProtocolException("invalid species " + code);
+            }
+            batch.addAnimal(age, code, GENDERS[gender], BODY_TYPES[bodyType], (packed & SPECIAL) != 0);
+        }
+        else {
+            int profession = frame.get();
+            if (profession < 0 || profession >= PROFESSIONS.length) {
+                throw new ProtocolException("invalid profession " + profession);
+            }
+            batch.addPerson(age, GENDERS[gender], BODY_TYPES[bodyType], PROFESSIONS[profession],
+                    (packed & SPECIAL) != 0, (packed & YOU) != 0);
+        }
+    }
+
+    /**
+     * Append a response frame to a buffer
+     * @param out buffer in write mode
+     * @param requestId id of the request answered
+     * @param status OK or MALFORMED
+     * @param decisions decision ordinals, one bit per scenario, low bit first
+     * @param count number of scenarios, 0 unless OK
+     * @return the buffer, or a larger copy if it was full
+     */
+    public static ByteBuffer writeResponse(ByteBuffer out, int requestId, byte status, long[] decisions, int count) {
+        int bytes = (count + 7) >>> 3;
+        out = ensure(out, 14 + bytes);
+        int start = out.position();
+        out.putInt(0).putInt(requestId).put(status);
+        out = putVarint(out, count);
+        for (int i = 0; i < bytes; i++) {
+            out.put((byte) (decisions[i >>> 3] >>> ((i & 7) << 3)));
+        }
+        out.putInt(start, out.position() - start - 4);
+        return out;
+    }
+
+    /**
+     * Read the decisions of a response frame
+     * @param frame the frame after its length, limited to its end
+     * @param requestId id of the request expected
+     * @return for every scenario, are the passengers saved (EthicalEngine.Decision.PASSENGERS)?
+     * @throws ProtocolException when the frame is malformed, answers another request or reports an error
+     */
+    public static boolean[] readResponse(ByteBuffer frame, int requestId) throws ProtocolException {
+        try {
+            int id = frame.getInt();
+            byte status = frame.get();
+            if (id != requestId) {
+                throw new ProtocolException("response to request " + id + " instead of " + requestId);
+            }
+            if (status != OK) {
+                throw new ProtocolException("request " + id + " rejected as malformed");
+            }
+            int count = getVarint(frame);
+            if (count < 0 || (count + 7) >>> 3 != frame.remaining()) {
+                throw new ProtocolException("invalid decision count " + count);
+            }
+            boolean[] passengers = new boolean[count];
+            int start = frame.position();
+            for (int i = 0; i < count; i++) {
+                passengers[i] = (frame.get(start + (i >>> 3)) & (1 << (i & 7))) != 0;
+            }
+            return passengers;
+        }
+        catch (BufferUnderflowException e) {
+            throw new ProtocolException("truncated response");
+        }
+    }
+
+    private static int getVarint(ByteBuffer buffer) throws ProtocolException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new ProtocolException("invalid varint");
+    }
+
+    private static ByteBuffer putVarint(ByteBuffer out, int value) {
+        out = ensure(out, 5);
+        while ((value & ~0x7f) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        return out.put((byte) value);
+    }
+
+    /**
+     * Make room for more bytes in a buffer in write mode
+     * @param out a buffer
+     * @param bytes bytes to make room for
+     * @return the buffer, or a copy of at least twice its capacity
+     */
+    static ByteBuffer ensure(ByteBuffer out, int bytes) {
+        if (out.remaining() >= bytes) {
+            return out;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * out.capacity(), out.position() + bytes));
+        out.flip();
+        return larger.put(out);
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Moral Machine: ethicalengine/ParallelConfigLoader.java
+ * Loads large config files by parsing chunks concurrently.
+ *
+ * ©Runfeng Du
+ */
+package ethicalengine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+public class ParallelConfigLoader {
+    // upper bound of bytes parsed by one task
+    private static final long MAX_CHUNK_BYTES = 64L << 20;
+    private static final int INDEX_MAGIC = 0x4d4d4958; // "MMIX"
+    private static final byte[] GREEN_MARKER = "scenario:green,".getBytes();
+    private static final byte[] RED_MARKER = "scenario:red,".getBytes();
+
+    /**
+     * Chunk boundaries of a config file: the offset and line number of the
+     * first row, followed by every scenario:green / scenario:red row.
+     */
+    private static class Boundaries {
+        long[] offsets = new long[16];
+        int[] lines = new int[16];
+        int size = 0;
+
+        void add(long offset, int line) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, 2 * size);
+                lines = Arrays.copyOf(lines, 2 * size);
+            }
+            offsets[size] = offset;
+            lines[size] = line;
+            size += 1;
+        }
+    }
+
+    /**
+     * Load all scenarios of a config file, parsing chunks concurrently.
+     * Scenarios are returned in file order and warnings are printed in
+     * file order with their absolute line numbers.
+     * @param path path of config file
+     * @param threads number of parsing threads
+     * @param useIndex read (or write) a sidecar offset index next to the config
+     * @return parsed scenarios
+     * @throws IOException when the config cannot be read
+     */
+    public static ArrayList<Scenario> load(Path path, int threads, boolean useIndex) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            Path indexPath = path.resolveSibling(path.getFileName() + ".idx");
+            Boundaries boundaries = useIndex ? readIndex(indexPath, path, fileSize) : null;
+            if (boundaries == null) {
+                boundaries = scanBoundaries(channel, fileSize);
+                if (useIndex) {
+                    writeIndex(indexPath, path, fileSize, boundaries);
+                }
+            }
+
+            // pick chunk starts evenly by bytes, always at a boundary row
+            int chunkCount = (int) Math.max(4L * threads, fileSize / MAX_CHUNK_BYTES + 1);
+            ArrayList<Integer> starts = new ArrayList<>();
+            starts.add(0);
+            int b = 1;
+            for (int k = 1; k < chunkCount; k++) {
+                long target = fileSize * k / chunkCount;
+                while (b < boundaries.size && boundaries.offsets[b] < target) {
+                    b++;
+                }
+                if (b < boundaries.size && b > starts.get(starts.size() - 1)
+                        && boundaries.offsets[b] > boundaries.offsets[0]) {
+                    starts.add(b);
+                }
+            }
+
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                ArrayList<Future<ArrayList<Scenario>>> scenarioChunks = new ArrayList<>();
+                ArrayList<ArrayList<String>> warningChunks = new ArrayList<>();
+                for (int k = 0; k < starts.size(); k++) {
+                    long from = boundaries.offsets[starts.get(k)];
+                    long to = (k + 1 < starts.size()) ? boundaries.offsets[starts.get(k + 1)] : fileSize;
+                    int firstLine = boundaries.lines[starts.get(k)];
+                    ArrayList<String> warnings = new ArrayList<>();
+                    warningChunks.add(warnings);
+                    scenarioChunks.add(pool.submit(() -> parseChunk(channel, from, to, firstLine, warnings)));
+                }
+                ArrayList<Scenario> scenarios = new ArrayList<>();
+                for (int k = 0; k < scenarioChunks.size(); k++) {
+                    scenarios.addAll(scenarioChunks.get(k).get());
+                    for (String warning: warningChunks.get(k)) {
+                        System.out.println(warning);
+                    }
+                }
+                return scenarios;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+            finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Parse the rows of a byte range. The range starts at a boundary row
+     * (or the first row) and ends before the next chunk's boundary row.
+     * @param channel channel of config file
+     * @param from first byte (inclusive)
+     * @param to last byte (exclusive)
+     * @param firstLine line number of the first row
+     * @param warnings receives warning messages
+     * @return scenarios of the chunk, the last one completed at the chunk end
+     */
+    private static ArrayList<Scenario> parseChunk(FileChannel channel, long from, long to, int firstLine,
+                                                  ArrayList<String> warnings) {
+        byte[] bytes = new byte[(int) (to - from)];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, from + buffer.position()) < 0) {
+                    throw new IOException("config file truncated while loading");
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        ScenarioParser parser = new ScenarioParser(firstLine, warnings::add);
+        ArrayList<Scenario> scenarios = new ArrayList<>();
+        int lineStart = 0;
+        for (int i = 0; i <= bytes.length; i++) {
+            // lines end at \n, \r or \r\n, as with BufferedReader.readLine
+            if (i == bytes.length || bytes[i] == '\n' || bytes[i] == '\r') {
+                if (i == bytes.length && lineStart == i) {
+                    break;
+                }
+                Scenario s = parser.parseLine(bytes, lineStart, i);
+                if (s != null) {
+                    scenarios.add(s);
+                }
+                if (i + 1 < bytes.length && bytes[i] == '\r' && bytes[i + 1] == '\n') {
+                    i++;
+                }
+                lineStart = i + 1;
+            }
+        }
+        scenarios.add(parser.finish());
+        return scenarios;
+    }
+
+    /**
+     * Find the first row and all scenario rows of a config file
+     * @param channel channel of config file
+     * @param fileSize size of config file
+     * @return boundaries of the file
+     * @throws IOException when the config cannot be read
+     */
+    private static Boundaries scanBoundaries(FileChannel channel, long fileSize) throws IOException {
+        Boundaries boundaries = new Boundaries();
+        // first row, moved to its real offset once the header line ends
+        boundaries.add(fileSize, 2);
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        byte[] prefix = new byte[GREEN_MARKER.length];
+        int prefixLength = 0;
+        int commas = 0;
+        int lineNumber = 1;
+        long lineStart = 0;
+        boolean afterCarriageReturn = false;
+        long position = 0;
+
+        while (position < fileSize) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            byte[] bytes = buffer.array();
+            for (int i = 0; i < read; i++, position++) {
+                byte b = bytes[i];
+                if (afterCarriageReturn) {
+                    afterCarriageReturn = false;
+                    if (b == '\n') {
+                        // second byte of an \r\n line end
+                        lineStart = position + 1;
+                        if (lineNumber == 2) {
+                            boundaries.offsets[0] = lineStart;
+                        }
+                        continue;
+                    }
+                }
+                if (b == '\n' || b == '\r') {
+                    if (lineNumber > 1 && commas == 9 && isMarker(prefix, prefixLength)) {
+                        boundaries.add(lineStart, lineNumber);
+                    }
+                    lineNumber += 1;
+                    lineStart = position + 1;
+                    if (lineNumber == 2) {
+                        boundaries.offsets[0] = lineStart;
+                    }
+                    afterCarriageReturn = b == '\r';
+                    prefixLength = 0;
+                    commas = 0;
+                    continue;
+                }
+                if (prefixLength < prefix.length) {
+                    prefix[prefixLength++] = b;
+                }
+                if (b == ',') {
+                    commas++;
+                }
+            }
+        }
+        // last row without a line end
+        if (lineNumber > 1 && lineStart < fileSize && commas == 9 && isMarker(prefix, prefixLength)) {
+            boundaries.add(lineStart, lineNumber);
+        }
+        return boundaries;
+    }
+
+    /**
+     * Does a row start with "scenario:green," or "scenario:red," (ignoring case)
+     * @param prefix first bytes of the row
+     * @param length number of bytes in prefix
+     * @return is marker?
+     */
+    private static boolean isMarker(byte[] prefix, int length) {
+        return startsWithIgnoreCase(prefix, length, GREEN_MARKER) ||
+                startsWithIgnoreCase(prefix, length, RED_MARKER);
+    }
+
+    private static boolean startsWithIgnoreCase(byte[] prefix, int length, byte[] marker) {
+        if (length < marker.length) {
+            return false;
+        }
+        for (int i = 0; i < marker.length; i++) {
+            byte m = marker[i];
+            byte b = prefix[i];
+            if (b != m && !(m >= 'a' && m <= 'z' && b == m - 32)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read a sidecar index if it matches the config file
+     * @param indexPath path of index
+     * @param path path of config file
+     * @param fileSize size of config file
+     * @return boundaries, or null if missing or stale
+     */
+    private static Boundaries readIndex(Path indexPath, Path path, long fileSize) {
+        if (!Files.isRegularFile(indexPath)) {
+            return null;
+        }
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            if (input.readInt() != INDEX_MAGIC || input.readLong() != fileSize ||
+                    input.readLong() != Files.getLastModifiedTime(path).toMillis()) {
+                return null;
+            }
+            Boundaries boundaries = new Boundaries();
+            int size = input.readInt();
+            for (int i = 0; i < size; i++) {
+                boundaries.add(input.readLong(), input.readInt());
+            }
+            return boundaries;
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Write a sidecar index next to the config file, skipped if not writable
+     * @param indexPath path of index
+     * @param path path of config file
+     * @param fileSize size of config file
+     * @param boundaries boundaries of the file
+     */
+    private static void writeIndex(Path indexPath, Path path, long fileSize, Boundaries boundaries) {
+        try {
+            Path temporary = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+            try (DataOutputStream output = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                output.writeInt(INDEX_MAGIC);
+                output.writeLong(fileSize);
+                output.writeLong(Files.getLastModifiedTime(path).toMillis());
+                output.writeInt(boundaries.size);
+                for (int i = 0; i < boundaries.size; i++) {
+                    output.writeLong(boundaries.offsets[i]);
+                    output.writeInt(boundaries.lines[i]);
+                }
+            }
+            Files.move(temporary, indexPath, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException ignored) {
+        }
+    }
+}
@@ -66,6 +66,7 @@ public class Person extends Character{
      * @param profession profession of person
      */
     public void setProfession(Profession profession) {
+        checkMutable();
         if (getAgeCategory() == AgeCategory.ADULT){
             this.profession = profession;
         }
@@ -74,6 +75,15 @@ public class Person extends Character{
         }
     }
 
+    /**
+     * Restore a profession as stored, without checking the age category
+     * @param profession profession of the person
+     */
+    void restoreProfession(Profession profession) {
+        checkMutable();
+        this.profession = profession;
+    }
+
     /**
      * Set profession of person (specified for parseScenario)
      * @param profession profession of person
@@ -111,6 +121,7 @@ public class Person extends Character{
      * @param isPregnant is pregnant?
      */
     public void setPregnant(boolean isPregnant) {
+        checkMutable();
         if (getGender()==Gender.FEMALE) {
             this.isPregnant = isPregnant;
         }
@@ -124,13 +135,22 @@ public class Person extends Character{
      * @return age category of person
      */
     public AgeCategory getAgeCategory() {
-        if (getAge() <= 4) {
+        return ageCategoryOf(getAge());
+    }
+
+    /**
+     * Get age category of an age
+     * @param age age of person
+     * @return age category
+     */
+    public static AgeCategory ageCategoryOf(int age) {
+        if (age <= 4) {
             return AgeCategory.BABY;
         }
-        else if (getAge() <= 16) {
+        else if (age <= 16) {
             return AgeCategory.CHILD;
         }
-        else if (getAge() <= 68) {
+        else if (age <= 68) {
             return AgeCategory.ADULT;
         }
         else{
@@ -152,9 +172,20 @@ public class Person extends Character{
      * @param isYou is you?
      */
     public void setAsYou(boolean isYou) {
+        checkMutable();
         this.isYou = isYou;
     }
 
+    /**
+     * Encode attributes: age, gender and body type, then profession,
+     * pregnancy and you
+     * @return attributes
+     */
+    @Override
+    long canonicalAttributes() {
+        return baseAttributes() | (long) ordinalOf(profession) << 2 | (isPregnant ? 2 : 0) | (isYou ? 1 : 0);
+    }
+
     /**
      * Convert the person to string
      * @return string represents a person
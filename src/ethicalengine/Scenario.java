@@ -8,12 +8,73 @@ package ethicalengine;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 
 public class Scenario {
     private final ArrayList<Character> passengers;
     private final ArrayList<Character> pedestrians;
     private boolean isLegalCrossing;
 
+    // canonical order of the characters of a lane: by attributes, then species
+    private static final Comparator<Character> CANONICAL_ORDER = Scenario::compareCanonical;
+    // lanes up to this size are sorted by insertion
+    private static final int SMALL_LANE = 16;
+
+    /**
+     * 128-bit fingerprint of the canonical form of a scenario
+     * @see Scenario#fingerprint()
+     */
+    public static final class Fingerprint {
+        private final long high;
+        private final long low;
+
+        private Fingerprint(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        /**
+         * Get the high 64 bits
+         * @return high bits
+         */
+        public long getHigh() {
+            return high;
+        }
+
+        /**
+         * Get the low 64 bits
+         * @return low bits
+         */
+        public long getLow() {
+            return low;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Fingerprint)) {
+                return false;
+            }
+            Fingerprint f = (Fingerprint) o;
+            return high == f.high && low == f.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(low);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%016x%016x", high, low);
+        }
+    }
+
+    // seeds of the two halves of a fingerprint, for each lane
+    private static final long PASSENGER_HIGH = 0x87c37b91114253d5L;
+    private static final long PASSENGER_LOW = 0x4cf5ad432745937fL;
+    private static final long PEDESTRIAN_HIGH = 0x52dce72938495ab5L;
+    private static final long PEDESTRIAN_LOW = 0x9e3779b97f4a7c15L;
+
     /**
      * Default constructor (Array input)
      * @param passengers Array of passengers
@@ -130,6 +191,175 @@ public class Scenario {
         return getPedestriansList().size();
     }
 
+    /**
+     * Compare canonical forms: the same crossing light, and the same
+     * multiset of characters in each lane, in any order. Scenarios are
+     * mutable, so this compares their current contents.
+     * @param o an object
+     * @return is an equal scenario?
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Scenario)) {
+            return false;
+        }
+        Scenario other = (Scenario) o;
+        return isLegalCrossing == other.isLegalCrossing && isSameLane(passengers, other.passengers) &&
+                isSameLane(pedestrians, other.pedestrians);
+    }
+
+    /**
+     * Hash the canonical form, consistent with equals
+     * @return hash code
+     */
+    @Override
+    public int hashCode() {
+        return fingerprint().hashCode();
+    }
+
+    /**
+     * Fingerprint the canonical form: the crossing light and the multiset
+     * of characters of each lane. A lane hashes as the sum of a strong hash
+     * of each character, so no sorting is needed. Equal scenarios have equal
+     * fingerprints; different ones collide with probability about 2^-128.
+     * @return 128-bit fingerprint
+     */
+    public Fingerprint fingerprint() {
+        long high = 0;
+        long low = 0;
+        for (Character c: passengers) {
+            long attributes = c.canonicalAttributes();
+            long species = speciesHash(c);
+            high += mix(mix(attributes ^ PASSENGER_HIGH) + species);
+            low += mix(mix(attributes ^ PASSENGER_LOW) + species);
+        }
+        for (Character c: pedestrians) {
+            long attributes = c.canonicalAttributes();
+            long species = speciesHash(c);
+            high += mix(mix(attributes ^ PEDESTRIAN_HIGH) + species);
+            low += mix(mix(attributes ^ PEDESTRIAN_LOW) + species);
+        }
+        long shape = ((long) passengers.size() << 33) | ((long) pedestrians.size() << 1) | (isLegalCrossing ? 1 : 0);
+        return new Fingerprint(mix(high + mix(shape ^ PASSENGER_HIGH)), mix(low + mix(shape ^ PASSENGER_LOW)));
+    }
+
+    /**
+     * Hash the species of an animal (FNV-1a over its chars)
+     * @param c a character
+     * @return hash of species, 0 for persons
+     */
+    private static long speciesHash(Character c) {
+        if (!(c instanceof Animal)) {
+            return 0;
+        }
+        String species = ((Animal) c).getSpecies();
+        if (species == null) {
+            return 1;
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < species.length(); i++) {
+            hash = (hash ^ species.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Finalizer of MurmurHash3: every bit of the input affects every bit of the output
+     * @param k a value
+     * @return mixed value
+     */
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /**
+     * Get the characters of each lane in canonical order
+     * @return passengers, then pedestrians, each sorted canonically
+     * @see ScenarioCorpus
+     */
+    Character[][] canonicalLanes() {
+        return new Character[][] {canonicalLane(passengers), canonicalLane(pedestrians)};
+    }
+
+    /**
+     * Compare canonical forms with the canonical lanes of another scenario
+     * @param isLegalCrossing crossing light of the other scenario
+     * @param lanes canonical lanes of the other scenario
+     * @return is equal?
+     */
+    boolean hasCanonicalForm(boolean isLegalCrossing, Character[][] lanes) {
+        return this.isLegalCrossing == isLegalCrossing && isSameLane(lanes[0], passengers) &&
+                isSameLane(lanes[1], pedestrians);
+    }
+
+    private static boolean isSameLane(ArrayList<Character> a, ArrayList<Character> b) {
+        return a.size() == b.size() && isSameLane(canonicalLane(a), b);
+    }
+
+    private static boolean isSameLane(Character[] sorted, ArrayList<Character> lane) {
+        if (sorted.length != lane.size()) {
+            return false;
+        }
+        // shared (pooled) characters already in canonical order need no sorting
+        int i = 0;
+        while (i < sorted.length && sorted[i] == lane.get(i)) {
+            i++;
+        }
+        if (i == sorted.length) {
+            return true;
+        }
+        Character[] sortedLane = canonicalLane(lane);
+        for (i = 0; i < sorted.length; i++) {
+            if (compareCanonical(sorted[i], sortedLane[i]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Character[] canonicalLane(ArrayList<Character> lane) {
+        Character[] sorted = lane.toArray(new Character[0]);
+        if (sorted.length > SMALL_LANE) {
+            Arrays.sort(sorted, CANONICAL_ORDER);
+            return sorted;
+        }
+        // insertion sort of small lanes, with attributes encoded once
+        long[] keys = new long[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            Character c = sorted[i];
+            long key = c.canonicalAttributes();
+            int j = i - 1;
+            for (; j >= 0 && (keys[j] > key || (keys[j] == key && compareCanonical(sorted[j], c) > 0)); j--) {
+                keys[j + 1] = keys[j];
+                sorted[j + 1] = sorted[j];
+            }
+            keys[j + 1] = key;
+            sorted[j + 1] = c;
+        }
+        return sorted;
+    }
+
+    private static int compareCanonical(Character a, Character b) {
+        int byAttributes = Long.compare(a.canonicalAttributes(), b.canonicalAttributes());
+        if (byAttributes != 0) {
+            return byAttributes;
+        }
+        String speciesA = (a instanceof Animal) ? ((Animal) a).getSpecies() : null;
+        String speciesB = (b instanceof Animal) ? ((Animal) b).getSpecies() : null;
+        if (speciesA == null || speciesB == null) {
+            return (speciesA == null) ? (speciesB == null ? 0 : -1) : 1;
+        }
+        return speciesA.compareTo(speciesB);
+    }
+
     /**
      * Convert scenario to string
      * @return String representing the scenario
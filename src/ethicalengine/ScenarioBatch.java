@@ -0,0 +1,393 @@
+/*
+ * Moral Machine: ethicalengine/ScenarioBatch.java
+ * Columnar (struct-of-arrays) storage of many scenarios.
+ *
+ * ©Runfeng Du
+ */
+package ethicalengine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class ScenarioBatch {
+    /*
+     * Bits of the flag column
+     */
+    public static final byte ANIMAL = 1;
+    public static final byte PREGNANT = 2;
+    public static final byte YOU = 4;
+    public static final byte PET = 8;
+
+    private static final Character.Gender[] GENDERS = Character.Gender.values();
+    private static final Character.BodyType[] BODY_TYPES = Character.BodyType.values();
+    private static final Person.Profession[] PROFESSIONS = Person.Profession.values();
+    private static final int GENERATED_SPECIES = Animal.Species.values().length;
+
+    // character columns
+    private byte[] flags;
+    private int[] ages;
+    private byte[] genders;
+    private byte[] bodyTypes;
+    private byte[] professions;
+    private byte[] ageCategories;
+    private int[] species;
+    private int characterCount = 0;
+
+    // scenario columns: passengers of scenario s are [offsets[2s], offsets[2s+1]),
+    // pedestrians are [offsets[2s+1], offsets[2s+2])
+    private int[] offsets;
+    private long[] legalCrossings;
+    private int size = 0;
+
+    // species dictionary, starting with the generated species
+    private final ArrayList<String> speciesNames = new ArrayList<>();
+    private final HashMap<String, Integer> speciesIndex = new HashMap<>();
+
+    /**
+     * Default constructor
+     * @param scenarioCapacity initial capacity of scenarios
+     * @param characterCapacity initial capacity of characters
+     */
+    public ScenarioBatch(int scenarioCapacity, int characterCapacity) {
+        scenarioCapacity = Math.max(scenarioCapacity, 1);
+        characterCapacity = Math.max(characterCapacity, 1);
+        flags = new byte[characterCapacity];
+        ages = new int[characterCapacity];
+        genders = new byte[characterCapacity];
+        bodyTypes = new byte[characterCapacity];
+        professions = new byte[characterCapacity];
+        ageCategories = new byte[characterCapacity];
+        species = new int[characterCapacity];
+        offsets = new int[2 * scenarioCapacity + 1];
+        legalCrossings = new long[(scenarioCapacity + 63) >>> 6];
+        for (Animal.Species s: Animal.Species.values()) {
+            speciesCode(s.name());
+        }
+    }
+
+    /**
+     * Remove all scenarios, keeping the allocated columns. The species
+     * dictionary goes back to the generated species, so codes of other
+     * species are not valid after a clear.
+     */
+    public void clear() {
+        size = 0;
+        characterCount = 0;
+        Arrays.fill(legalCrossings, 0L);
+        while (speciesNames.size() > GENERATED_SPECIES) {
+            speciesIndex.remove(speciesNames.remove(speciesNames.size() - 1));
+        }
+    }
+
+    /**
+     * Start a new scenario, followed by its passengers
+     * @param isLegalCrossing is crossing at green light
+     */
+    public void beginScenario(boolean isLegalCrossing) {
+        if (2 * size + 3 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, 2 * offsets.length + 1);
+        }
+        if ((size >>> 6) >= legalCrossings.length) {
+            legalCrossings = Arrays.copyOf(legalCrossings, 2 * legalCrossings.length);
+        }
+        offsets[2 * size] = characterCount;
+        if (isLegalCrossing) {
+            legalCrossings[size >>> 6] |= 1L << size;
+        }
+        else {
+            legalCrossings[size >>> 6] &= ~(1L << size);
+        }
+    }
+
+    /**
+     * Start the pedestrians of the current scenario
+     */
+    public void beginPedestrians() {
+        offsets[2 * size + 1] = characterCount;
+    }
+
+    /**
+     * Finish the current scenario
+     */
+    public void endScenario() {
+        offsets[2 * size + 2] = characterCount;
+        size += 1;
+    }
+
+    /**
+     * Append a person to the current lane, normalised as in Person
+     * @param age age of person
+     * @param gender gender of person
+     * @param bodyType body type of person
+     * @param profession profession of person
+     * @param isPregnant is the person pregnant
+     * @param isYou is the person you
+     */
+    public void addPerson(int age, Character.Gender gender, Character.BodyType bodyType,
+                          Person.Profession profession, boolean isPregnant, boolean isYou) {
+        int c = nextCharacter();
+        Person.AgeCategory ageCategory = Person.ageCategoryOf(age);
+        flags[c] = (byte) (((isPregnant && gender == Character.Gender.FEMALE) ? PREGNANT : 0) |
+                (isYou ? YOU : 0));
+        ages[c] = age;
+        genders[c] = (byte) gender.ordinal();
+        bodyTypes[c] = (byte) bodyType.ordinal();
+        professions[c] = (byte) ((ageCategory == Person.AgeCategory.ADULT) ?
+                profession : Person.Profession.NONE).ordinal();
+        ageCategories[c] = (byte) ageCategory.ordinal();
+        species[c] = -1;
+    }
+
+    /**
+     * Append an animal to the current lane
+     * @param age age of animal
+     * @param speciesCode code of the species
+     * @param gender gender of animal
+     * @param bodyType body type of animal
+     * @param isPet is the animal pet
+     * @see #speciesCode(String)
+     */
+    public void addAnimal(int age, int speciesCode, Character.Gender gender,
+                          Character.BodyType bodyType, boolean isPet) {
+        int c = nextCharacter();
+        flags[c] = (byte) (ANIMAL | (isPet ? PET : 0));
+        ages[c] = age;
+        genders[c] = (byte) gender.ordinal();
+        bodyTypes[c] = (byte) bodyType.ordinal();
+        professions[c] = (byte) Person.Profession.NONE.ordinal();
+        ageCategories[c] = 0;
+        species[c] = speciesCode;
+    }
+
+    /**
+     * Append a scenario
+     * @param scenario a scenario
+     */
+    public void add(Scenario scenario) {
+        beginScenario(scenario.isLegalCrossing());
+        for (Character c: scenario.getPassengersList()) {
+            addCharacter(c);
+        }
+        beginPedestrians();
+        for (Character c: scenario.getPedestriansList()) {
+            addCharacter(c);
+        }
+        endScenario();
+    }
+
+    private void addCharacter(Character c) {
+        if (c instanceof Person) {
+            Person p = (Person) c;
+            addPerson(p.getAge(), p.getGender(), p.getBodyType(), p.getProfession(),
+                    p.isPregnant(), p.isYou());
+        }
+        else if (c instanceof Animal) {
+            Animal a = (Animal) c;
+            addAnimal(a.getAge(), speciesCode(a.getSpecies()), a.getGender(),
+                    a.getBodyType(), a.isPet());
+        }
+    }
+
+    private int nextCharacter() {
+        if (characterCount == flags.length) {
+            int capacity = 2 * flags.length;
+            flags = Arrays.copyOf(flags, capacity);
+            ages = Arrays.copyOf(ages, capacity);
+            genders = Arrays.copyOf(genders, capacity);
+            bodyTypes = Arrays.copyOf(bodyTypes, capacity);
+            professions = Arrays.copyOf(professions, capacity);
+            ageCategories = Arrays.copyOf(ageCategories, capacity);
+            species = Arrays.copyOf(species, capacity);
+        }
+        return characterCount++;
+    }
+
+    /**
+     * Get the code of a species, adding it to the dictionary if needed
+     * @param speciesName species of an animal
+     * @return code of the species
+     */
+    public int speciesCode(String speciesName) {
+        Integer code = speciesIndex.get(speciesName);
+        if (code == null) {
+            code = speciesNames.size();
+            speciesNames.add(speciesName);
+            speciesIndex.put(speciesName, code);
+        }
+        return code;
+    }
+
+    /**
+     * Get the species of a code
+     * @param speciesCode code of a species
+     * @return species of animal
+     */
+    public String speciesName(int speciesCode) {
+        return speciesNames.get(speciesCode);
+    }
+
+    /**
+     * Count species of the dictionary
+     * @return species count
+     */
+    public int getSpeciesCount() {
+        return speciesNames.size();
+    }
+
+    /**
+     * Rebuild a scenario of the batch as objects
+     * @param index index of scenario
+     * @return the scenario
+     */
+    public Scenario getScenario(int index) {
+        ArrayList<Character> passengers = new ArrayList<>();
+        ArrayList<Character> pedestrians = new ArrayList<>();
+        for (int c = passengerStart(index); c < pedestrianStart(index); c++) {
+            passengers.add(getCharacter(c));
+        }
+        for (int c = pedestrianStart(index); c < scenarioEnd(index); c++) {
+            pedestrians.add(getCharacter(c));
+        }
+        return new Scenario(passengers, pedestrians, isLegalCrossing(index));
+    }
+
+    private Character getCharacter(int c) {
+        if ((flags[c] & ANIMAL) != 0) {
+            return CharacterPool.animal(ages[c], speciesNames.get(species[c]), GENDERS[genders[c]],
+                    BODY_TYPES[bodyTypes[c]], (flags[c] & PET) != 0);
+        }
+        // columns hold attributes already normalised by addPerson
+        return CharacterPool.person(ages[c], GENDERS[genders[c]], BODY_TYPES[bodyTypes[c]],
+                PROFESSIONS[professions[c]], (flags[c] & PREGNANT) != 0, (flags[c] & YOU) != 0);
+    }
+
+    /**
+     * Count scenarios
+     * @return scenario count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Count characters of all scenarios
+     * @return character count
+     */
+    public int getCharacterCount() {
+        return characterCount;
+    }
+
+    /**
+     * Is legal crossing
+     * @param index index of scenario
+     * @return Is legal crossing
+     */
+    public boolean isLegalCrossing(int index) {
+        return (legalCrossings[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Get first passenger of a scenario
+     * @param index index of scenario
+     * @return character index
+     */
+    public int passengerStart(int index) {
+        return offsets[2 * index];
+    }
+
+    /**
+     * Get first pedestrian of a scenario
+     * @param index index of scenario
+     * @return character index
+     */
+    public int pedestrianStart(int index) {
+        return offsets[2 * index + 1];
+    }
+
+    /**
+     * Get end of the characters of a scenario
+     * @param index index of scenario
+     * @return character index (exclusive)
+     */
+    public int scenarioEnd(int index) {
+        return offsets[2 * index + 2];
+    }
+
+    /*
+     * Raw columns for batch kernels, valid until the next append.
+     * Enum columns hold ordinals.
+     */
+
+    /**
+     * Get scenario offsets (see passengerStart, pedestrianStart, scenarioEnd)
+     * @return offset column
+     */
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    /**
+     * Get legal crossing bitset, one bit per scenario
+     * @return legal crossing column
+     */
+    public long[] getLegalCrossings() {
+        return legalCrossings;
+    }
+
+    /**
+     * Get character flags (ANIMAL, PREGNANT, YOU, PET)
+     * @return flag column
+     */
+    public byte[] getFlags() {
+        return flags;
+    }
+
+    /**
+     * Get character ages
+     * @return age column
+     */
+    public int[] getAges() {
+        return ages;
+    }
+
+    /**
+     * Get character genders
+     * @return gender column
+     */
+    public byte[] getGenders() {
+        return genders;
+    }
+
+    /**
+     * Get character body types
+     * @return body type column
+     */
+    public byte[] getBodyTypes() {
+        return bodyTypes;
+    }
+
+    /**
+     * Get person professions (NONE for animals)
+     * @return profession column
+     */
+    public byte[] getProfessions() {
+        return professions;
+    }
+
+    /**
+     * Get person age categories
+     * @return age category column
+     */
+    public byte[] getAgeCategories() {
+        return ageCategories;
+    }
+
+    /**
+     * Get animal species codes (-1 for persons)
+     * @return species column
+     */
+    public int[] getSpecies() {
+        return species;
+    }
+}
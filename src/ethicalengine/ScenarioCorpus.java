@@ -0,0 +1,135 @@
+/*
+ * Moral Machine: ethicalengine/ScenarioCorpus.java
+ * Unique scenarios of a config, with their multiplicities.
+ *
+ * ©Runfeng Du
+ */
+package ethicalengine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+public class ScenarioCorpus {
+    private final ArrayList<Scenario> scenarios = new ArrayList<>();
+    // canonical lanes of each unique scenario, to confirm fingerprint matches
+    private final ArrayList<Character[][]> canonicalLanes = new ArrayList<>();
+    private long[] counts = new long[16];
+    private long total = 0;
+
+    /*
+     * Open-addressing table of fingerprints: slot holds index + 1 of a unique
+     * scenario, 0 if empty. Linear probing keeps colliding fingerprints of
+     * different scenarios apart.
+     */
+    private int[] slots = new int[64];
+    private long[] highs = new long[64];
+    private long[] lows = new long[64];
+
+    /**
+     * Collapse scenarios into unique scenarios, counting duplicates. Scenarios
+     * are equal by their canonical form, so lanes may list characters in
+     * any order; each unique scenario keeps its first occurrence.
+     * @param scenarios scenarios of a config
+     * @return unique scenarios, in order of first occurrence
+     */
+    public static ScenarioCorpus dedup(Iterator<Scenario> scenarios) {
+        ScenarioCorpus corpus = new ScenarioCorpus();
+        while (scenarios.hasNext()) {
+            corpus.add(scenarios.next());
+        }
+        return corpus;
+    }
+
+    /**
+     * Count a scenario, adding it if unseen
+     * @param scenario a scenario
+     */
+    public void add(Scenario scenario) {
+        total += 1;
+        Scenario.Fingerprint fingerprint = scenario.fingerprint();
+        long high = fingerprint.getHigh();
+        long low = fingerprint.getLow();
+        int mask = slots.length - 1;
+        int slot = (int) low & mask;
+        for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int index = slots[slot] - 1;
+            if (highs[slot] == high && lows[slot] == low &&
+                    scenario.hasCanonicalForm(scenarios.get(index).isLegalCrossing(), canonicalLanes.get(index))) {
+                counts[index] += 1;
+                return;
+            }
+        }
+        int index = scenarios.size();
+        if (index == counts.length) {
+            counts = Arrays.copyOf(counts, 2 * index);
+        }
+        scenarios.add(scenario);
+        canonicalLanes.add(scenario.canonicalLanes());
+        counts[index] = 1;
+        slots[slot] = index + 1;
+        highs[slot] = high;
+        lows[slot] = low;
+        if (2 * scenarios.size() > slots.length) {
+            grow();
+        }
+    }
+
+    /**
+     * Double the table, keeping it at most half full
+     */
+    private void grow() {
+        int[] oldSlots = slots;
+        long[] oldHighs = highs;
+        long[] oldLows = lows;
+        slots = new int[2 * oldSlots.length];
+        highs = new long[slots.length];
+        lows = new long[slots.length];
+        int mask = slots.length - 1;
+        for (int i = 0; i < oldSlots.length; i++) {
+            if (oldSlots[i] != 0) {
+                int slot = (int) oldLows[i] & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = oldSlots[i];
+                highs[slot] = oldHighs[i];
+                lows[slot] = oldLows[i];
+            }
+        }
+    }
+
+    /**
+     * Count unique scenarios
+     * @return number of unique scenarios
+     */
+    public int size() {
+        return scenarios.size();
+    }
+
+    /**
+     * Count all scenarios added, duplicates included
+     * @return number of scenarios
+     */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * Get a unique scenario
+     * @param index index of unique scenario
+     * @return the scenario
+     */
+    public Scenario get(int index) {
+        return scenarios.get(index);
+    }
+
+    /**
+     * Get the multiplicity of a unique scenario
+     * @param index index of unique scenario
+     * @return times the scenario was added
+     */
+    public long count(int index) {
+        return counts[index];
+    }
+}
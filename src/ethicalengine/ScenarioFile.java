@@ -0,0 +1,384 @@
+/*
+ * Moral Machine: ethicalengine/ScenarioFile.java
+ * Compact binary scenario file, read through memory maps.
+ *
+ * ©Runfeng Du
+ */
+package ethicalengine;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/*
+ * File layout (big endian):
+ *   header   magic, version, scenario count, species count,
+ *            offset of species table, offset of offset table
+ *   records  one per scenario: varint legal crossing, varint passenger count,
+ *            varint pedestrian count, then the characters
+ *   species  varint length and UTF-8 bytes of every species name
+ *   offsets  start of every scenario record and the end of the last one
+ *
+ * A character is a byte of packed attributes (bit 0 animal, bits 1-2 gender,
+ * bits 3-4 body type, bit 5 pregnant or pet, bit 6 you) and a varint age,
+ * followed by a profession byte for a person or a varint species code for
+ * an animal.
+ */
+public class ScenarioFile implements Iterable<Scenario>, Closeable {
+    private static final int MAGIC = 0x4d4d5343; // "MMSC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    // largest mapped segment; records never cross a segment
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    private static final int ANIMAL = 1;
+    private static final int SPECIAL = 1 << 5;
+    private static final int YOU = 1 << 6;
+
+    private static final Character.Gender[] GENDERS = Character.Gender.values();
+    private static final Character.BodyType[] BODY_TYPES = Character.BodyType.values();
+    private static final Person.Profession[] PROFESSIONS = Person.Profession.values();
+
+    private final FileChannel channel;
+    private final int size;
+    private final String[] species;
+    private final LongBuffer offsets;
+    private final MappedByteBuffer[] segments;
+    private final long[] segmentStarts;
+    // index of the first scenario of every segment
+    private final int[] segmentFirst;
+
+    /**
+     * Open a scenario file, mapping it into memory
+     * @param path path of scenario file
+     * @throws IOException when the file cannot be read or is not a scenario file
+     */
+    public ScenarioFile(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long fileSize = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0);
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+                throw new IOException("not a scenario file");
+            }
+            if (header.getInt() != VERSION) {
+                throw new IOException("unsupported scenario file version");
+            }
+            size = header.getInt();
+            int speciesCount = header.getInt();
+            long speciesStart = header.getLong();
+            long offsetsStart = header.getLong();
+            long offsetsEnd = offsetsStart + 8L * (size + 1L);
+            if (size < 0 || speciesCount < 0 || speciesStart < HEADER_SIZE ||
+                    offsetsStart < speciesStart || offsetsEnd != fileSize ||
+                    offsetsEnd - offsetsStart > Integer.MAX_VALUE) {
+                throw new IOException("corrupt scenario file");
+            }
+
+            MappedByteBuffer speciesTable = channel.map(FileChannel.MapMode.READ_ONLY,
+                    speciesStart, offsetsStart - speciesStart);
+            species = new String[speciesCount];
+            int[] cursor = {0};
+            for (int i = 0; i < speciesCount; i++) {
+                byte[] name = new byte[readVarint(speciesTable, cursor)];
+                speciesTable.get(cursor[0], name);
+                cursor[0] += name.length;
+                species[i] = new String(name, StandardCharsets.UTF_8);
+            }
+            offsets = channel.map(FileChannel.MapMode.READ_ONLY, offsetsStart,
+                    offsetsEnd - offsetsStart).asLongBuffer();
+
+            // cut the records into segments of whole scenarios
+            ArrayList<MappedByteBuffer> segmentList = new ArrayList<>();
+            long[] starts = new long[4];
+            int[] firsts = new int[4];
+            int first = 0;
+            while (first < size) {
+                long start = offsets.get(first);
+                int last = first;
+                while (last < size && offsets.get(last + 1) - start <= MAX_SEGMENT_BYTES) {
+                    last++;
+                }
+                if (last == first || start < HEADER_SIZE || offsets.get(last) > speciesStart) {
+                    throw new IOException("corrupt scenario file");
+                }
+                if (segmentList.size() == starts.length) {
+                    starts = Arrays.copyOf(starts, 2 * starts.length);
+                    firsts = Arrays.copyOf(firsts, 2 * firsts.length);
+                }
+                starts[segmentList.size()] = start;
+                firsts[segmentList.size()] = first;
+                segmentList.add(channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        offsets.get(last) - start));
+                first = last;
+            }
+            segments = segmentList.toArray(new MappedByteBuffer[0]);
+            segmentStarts = Arrays.copyOf(starts, segments.length);
+            segmentFirst = Arrays.copyOf(firsts, segments.length);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Does a file start with the scenario file magic
+     * @param path path of file
+     * @return is a scenario file?
+     */
+    public static boolean isScenarioFile(Path path) {
+        try (FileChannel c = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && c.read(magic) >= 0);
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get number of scenarios
+     * @return number of scenarios
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Decode scenario #n through the offset table. Safe to call from
+     * several threads at once.
+     * @param n index of scenario
+     * @return the scenario
+     * @throws IndexOutOfBoundsException when n is out of range
+     */
+    public Scenario get(int n) {
+        if (n < 0 || n >= size) {
+            throw new IndexOutOfBoundsException("scenario " + n + " of " + size);
+        }
+        int segment = Arrays.binarySearch(segmentFirst, n);
+        if (segment < 0) {
+            segment = -segment - 2;
+        }
+        MappedByteBuffer buffer = segments[segment];
+        int[] cursor = {(int) (offsets.get(n) - segmentStarts[segment])};
+
+        boolean isLegalCrossing = readVarint(buffer, cursor) != 0;
+        int passengerCount = readVarint(buffer, cursor);
+        int pedestrianCount = readVarint(buffer, cursor);
+        ArrayList<Character> passengers = new ArrayList<>(passengerCount);
+        for (int i = 0; i < passengerCount; i++) {
+            passengers.add(readCharacter(buffer, cursor));
+        }
+        ArrayList<Character> pedestrians = new ArrayList<>(pedestrianCount);
+        for (int i = 0; i < pedestrianCount; i++) {
+            pedestrians.add(readCharacter(buffer, cursor));
+        }
+        return new Scenario(passengers, pedestrians, isLegalCrossing);
+    }
+
+    private Character readCharacter(MappedByteBuffer buffer, int[] cursor) {
+        int packed = buffer.get(cursor[0]++);
+        int age = readVarint(buffer, cursor);
+        Character.Gender gender = GENDERS[(packed >>> 1) & 3];
+        Character.BodyType bodyType = BODY_TYPES[(packed >>> 3) & 3];
+        if ((packed & ANIMAL) != 0) {
+            return CharacterPool.animal(age, species[readVarint(buffer, cursor)], gender, bodyType,
+                    (packed & SPECIAL) != 0);
+        }
+        return CharacterPool.person(age, gender, bodyType, PROFESSIONS[buffer.get(cursor[0]++)],
+                (packed & SPECIAL) != 0, (packed & YOU) != 0);
+    }
+
+    private static int readVarint(ByteBuffer buffer, int[] cursor) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get(cursor[0]++);
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Iterate all scenarios in file order
+     * @return iterator of scenarios
+     */
+    @Override
+    public Iterator<Scenario> iterator() {
+        return iterator(0, size);
+    }
+
+    /**
+     * Iterate a range of scenarios, e.g. one shard of the file
+     * @param from first scenario (inclusive)
+     * @param to last scenario (exclusive)
+     * @return iterator of scenarios
+     */
+    public Iterator<Scenario> iterator(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("scenarios " + from + " to " + to + " of " + size);
+        }
+        return new Iterator<>() {
+            private int next = from;
+
+            @Override
+            public boolean hasNext() {
+                return next < to;
+            }
+
+            @Override
+            public Scenario next() {
+                if (next >= to) {
+                    throw new NoSuchElementException();
+                }
+                return get(next++);
+            }
+        };
+    }
+
+    /**
+     * Close the file. Mapped segments are released by the garbage collector.
+     * @throws IOException when closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Write scenarios to a scenario file, replacing it atomically
+     * @param scenarios scenarios to write
+     * @param path path of scenario file
+     * @return number of scenarios written
+     * @throws IOException when the file cannot be written
+     */
+    public static int write(Iterator<Scenario> scenarios, Path path) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        HashMap<String, Integer> speciesCodes = new HashMap<>();
+        ArrayList<String> speciesNames = new ArrayList<>();
+        long[] recordOffsets = new long[1024];
+        int count = 0;
+        long speciesStart;
+        long offsetsStart;
+
+        try (CountingOutput output = new CountingOutput(Files.newOutputStream(temporary))) {
+            output.write(new byte[HEADER_SIZE]);
+            while (scenarios.hasNext()) {
+                Scenario s = scenarios.next();
+                if (count + 1 >= recordOffsets.length) {
+                    recordOffsets = Arrays.copyOf(recordOffsets, 2 * recordOffsets.length);
+                }
+                recordOffsets[count++] = output.position;
+                output.writeVarint(s.isLegalCrossing() ? 1 : 0);
+                output.writeVarint(s.getPassengerCount());
+                output.writeVarint(s.getPedestrianCount());
+                for (Character c: s.getPassengersList()) {
+                    writeCharacter(output, c, speciesCodes, speciesNames);
+                }
+                for (Character c: s.getPedestriansList()) {
+                    writeCharacter(output, c, speciesCodes, speciesNames);
+                }
+            }
+            recordOffsets[count] = output.position;
+
+            speciesStart = output.position;
+            for (String name: speciesNames) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                output.writeVarint(bytes.length);
+                output.write(bytes);
+            }
+            offsetsStart = output.position;
+            ByteBuffer offsetBytes = ByteBuffer.allocate(8);
+            for (int i = 0; i <= count; i++) {
+                offsetBytes.putLong(0, recordOffsets[i]);
+                output.write(offsetBytes.array());
+            }
+        }
+
+        try (FileChannel c = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(speciesNames.size())
+                    .putLong(speciesStart).putLong(offsetsStart).flip();
+            while (header.hasRemaining()) {
+                c.write(header, header.position());
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    private static void writeCharacter(CountingOutput output, Character c,
+                                       HashMap<String, Integer> speciesCodes,
+                                       ArrayList<String> speciesNames) throws IOException {
+        int packed = (c.getGender().ordinal() << 1) | (c.getBodyType().ordinal() << 3);
+        if (c instanceof Animal) {
+            Animal animal = (Animal) c;
+            output.write(packed | ANIMAL | (animal.isPet() ? SPECIAL : 0));
+            output.writeVarint(c.getAge());
+            Integer code = speciesCodes.get(animal.getSpecies());
+            if (code == null) {
+                code = speciesNames.size();
+                speciesCodes.put(animal.getSpecies(), code);
+                speciesNames.add(animal.getSpecies());
+            }
+            output.writeVarint(code);
+        }
+        else {
+            Person person = (Person) c;
+            output.write(packed | (person.isPregnant() ? SPECIAL : 0) | (person.isYou() ? YOU : 0));
+            output.writeVarint(c.getAge());
+            output.write(person.getProfession().ordinal());
+        }
+    }
+
+    /**
+     * Buffered output that keeps track of its position
+     */
+    private static class CountingOutput extends BufferedOutputStream {
+        long position = 0;
+
+        CountingOutput(OutputStream output) {
+            super(output, 1 << 16);
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            super.write(b);
+            position += 1;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            position += len;
+        }
+
+        void writeVarint(int value) throws IOException {
+            while ((value & ~0x7f) != 0) {
+                write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+    }
+}
@@ -23,7 +23,33 @@ public class ScenarioGenerator {
         }
     }
 
-    private final Random randObj = new Random();
+    /*
+     * Distribution of characters: ages are uniform below PERSON_AGES or
+     * ANIMAL_AGES, one in PREGNANCY_ODDS adult females is pregnant and one
+     * in PET_ODDS animals is a pet. Enums are uniform.
+     */
+    public static final int PERSON_AGES = 100;
+    public static final int ANIMAL_AGES = 20;
+    public static final int PREGNANCY_ODDS = 10;
+    public static final int PET_ODDS = 3;
+
+    /**
+     * How scenarios are drawn. STRATIFIED takes the shapes of scenarios
+     * (passenger and pedestrian counts, your position, light) in turn
+     * instead of at random. IMPORTANCE is stratified too, and draws
+     * pregnancy one in IMPORTANCE_PREGNANCY_ODDS times, weighting each
+     * scenario by its odds over the odds of drawing it so.
+     */
+    public enum Sampling {UNIFORM, STRATIFIED, IMPORTANCE}
+    public static final int IMPORTANCE_PREGNANCY_ODDS = 4;
+    private static final double PREGNANT_WEIGHT = (double) IMPORTANCE_PREGNANCY_ODDS / PREGNANCY_ODDS;
+    private static final double NOT_PREGNANT_WEIGHT =
+            (1 - 1.0 / PREGNANCY_ODDS) / (1 - 1.0 / IMPORTANCE_PREGNANCY_ODDS);
+
+    private final ScenarioRandom sequence = new ScenarioRandom();
+    // numbers of generate(seed, index); randObj is sequence otherwise
+    private final CounterRandom counter = new CounterRandom();
+    private Random randObj = sequence;
     private int passMax = 5;
     private int passMin = 1;
     private int pedMax = 5;
@@ -34,12 +60,19 @@ public class ScenarioGenerator {
     Profession[] professions = Profession.values();
     BodyType[] bodyTypes = BodyType.values();
     Species[] speciesL = Species.values();
+    // attributes of the last drawn character
+    private final int[] drawn = new int[5];
+    private Sampling sampling = Sampling.UNIFORM;
+    // shape of the next stratified scenario, -1 until its random start is drawn
+    private int nextShape = -1;
+    // weight of the last generated scenario
+    private double weight = 1;
 
     /**
      * Empty constructor
      */
     public ScenarioGenerator() {
-        randObj.setSeed(randObj.nextLong());
+        sequence.setSeed(sequence.nextLong());
     }
 
     /**
@@ -47,7 +80,7 @@ public class ScenarioGenerator {
      * @param seed seed for random generation
      */
     public ScenarioGenerator(long seed) {
-        randObj.setSeed(seed);
+        sequence.setSeed(seed);
     }
 
     /**
@@ -61,7 +94,7 @@ public class ScenarioGenerator {
      */
     public ScenarioGenerator(long seed, int passMin, int passMax, int pedMin, int pedMax)
             throws NumberFormatException {
-        randObj.setSeed(seed);
+        sequence.setSeed(seed);
         if (passMax >= passMin && pedMax >= pedMin){
             setPassengerCountMax(passMax);
             setPassengerCountMin(passMin);
@@ -73,33 +106,110 @@ public class ScenarioGenerator {
         }
     }
 
+    /**
+     * Get the position of the generator, to continue its sequence later
+     * @return state of random generation
+     */
+    public long getRandomState() {
+        return sequence.getState();
+    }
+
+    /**
+     * Continue the sequence of a generator from a saved position
+     * @param state state of random generation
+     * @see #getRandomState()
+     */
+    public void setRandomState(long state) {
+        sequence.setState(state);
+    }
+
     /**
      * Generate a random person
-     * @return a random person
+     * @return a random person, immutable and shared
+     * @see CharacterPool
      */
     public Person getRandomPerson() {
-        int age = randObj.nextInt(100);
+        return getRandomPerson(false);
+    }
+
+    /**
+     * Generate a random person
+     * @param isYou is the person you
+     * @return a random person, immutable and shared
+     */
+    private Person getRandomPerson(boolean isYou) {
+        drawPerson();
+        // only adults have a profession, as in Person.setProfession
+        Profession profession = (Person.ageCategoryOf(drawn[0]) == AgeCategory.ADULT) ?
+                professions[drawn[3]] : Profession.NONE;
+        return CharacterPool.person(drawn[0], genders[drawn[1]], bodyTypes[drawn[2]], profession,
+                drawn[4] == 1, isYou);
+    }
+
+    /**
+     * Generate a random animal
+     * @return a random animal, immutable and shared
+     * @see CharacterPool
+     */
+    public Animal getRandomAnimal() {
+        drawAnimal();
+        return CharacterPool.animal(drawn[0], speciesL[drawn[3]], genders[drawn[1]],
+                bodyTypes[drawn[2]], drawn[4] == 1);
+    }
+
+    /**
+     * Draw attributes of a random person into drawn
+     * (age, gender, body type, profession, is pregnant)
+     */
+    private void drawPerson() {
+        int age = randObj.nextInt(PERSON_AGES);
         Gender gender = genders[randObj.nextInt(genders.length)];
         BodyType bodyType = bodyTypes[randObj.nextInt(bodyTypes.length)];
         Profession profession = professions[randObj.nextInt(professions.length-1)];
-        boolean isPregnant = (gender == Gender.FEMALE) && (age > 16) && (age <= 68)
-                && (randObj.nextInt(10) == 0);
+        boolean isPregnant = false;
+        if (canBePregnant(gender, age)) {
+            if (sampling == Sampling.IMPORTANCE) {
+                isPregnant = randObj.nextInt(IMPORTANCE_PREGNANCY_ODDS) == 0;
+                weight *= isPregnant ? PREGNANT_WEIGHT : NOT_PREGNANT_WEIGHT;
+            }
+            else {
+                isPregnant = randObj.nextInt(PREGNANCY_ODDS) == 0;
+            }
+        }
 
-        return new Person(age, profession, gender, bodyType, isPregnant);
+        drawn[0] = age;
+        drawn[1] = gender.ordinal();
+        drawn[2] = bodyType.ordinal();
+        drawn[3] = profession.ordinal();
+        drawn[4] = isPregnant ? 1 : 0;
     }
 
     /**
-     * Generate a random animal
-     * @return a random animal
+     * Can a generated person of given gender and age be pregnant
+     * @param gender gender of person
+     * @param age age of person
+     * @return may be pregnant?
      */
-    public Animal getRandomAnimal() {
-        int age = randObj.nextInt(20);
+    public static boolean canBePregnant(Gender gender, int age) {
+        return (gender == Gender.FEMALE) && (age > 16) && (age <= 68);
+    }
+
+    /**
+     * Draw attributes of a random animal into drawn
+     * (age, gender, body type, species, is pet)
+     */
+    private void drawAnimal() {
+        int age = randObj.nextInt(ANIMAL_AGES);
         Gender gender = genders[randObj.nextInt(genders.length)];
         BodyType bodyType = bodyTypes[randObj.nextInt(bodyTypes.length)];
-        String species = speciesL[randObj.nextInt(speciesL.length)].toString();
-        boolean isPet =  randObj.nextInt(3) == 0;
+        Species species = speciesL[randObj.nextInt(speciesL.length)];
+        boolean isPet =  randObj.nextInt(PET_ODDS) == 0;
 
-        return new Animal(age, species, gender, bodyType, isPet);
+        drawn[0] = age;
+        drawn[1] = gender.ordinal();
+        drawn[2] = bodyType.ordinal();
+        drawn[3] = species.ordinal();
+        drawn[4] = isPet ? 1 : 0;
     }
 
     /**
@@ -107,15 +217,81 @@ public class ScenarioGenerator {
      * @return a random scenario
      */
     public Scenario generate() {
-        int passCount = randObj.nextInt(passMax-passMin+1) + passMin;
-        int pedCount = randObj.nextInt(pedMax-pedMin+1) + pedMin;
-        int yourPosition = randObj.nextInt(3); // 0: absent, 1: passenger, 2: pedestrian.
-        boolean isLegalCrossing = randObj.nextInt(2) == 0;
+        AuditEvents.GenerateEvent event = new AuditEvents.GenerateEvent();
+        if (!event.isEnabled() || !AuditEvents.isSampled()) {
+            return drawScenario();
+        }
+        event.begin();
+        Scenario scenario = drawScenario();
+        event.end();
+        event.setScenario(scenario);
+        event.commit();
+        return scenario;
+    }
+
+    /**
+     * Generate scenario number index of a seed. Unlike generate(), the
+     * scenario depends on nothing but seed, index, the counts of characters
+     * and the sampling: scenarios of a seed can be drawn in any order, in
+     * any number of generators, and the sequence of generate() is left
+     * where it was. getWeight() is the weight of this scenario after.
+     * @param seed seed of scenarios
+     * @param index index of scenario, any long
+     * @return the scenario
+     */
+    public Scenario generate(long seed, long index) {
+        counter.key(seed, index);
+        int shape = nextShape;
+        randObj = counter;
+        if (sampling != Sampling.UNIFORM) {
+            // shapes in turn by index, from a start fixed by the seed
+            long shapes = getShapes();
+            long start = Long.remainderUnsigned(CounterRandom.mix64(seed), shapes);
+            nextShape = (int) ((start + Math.floorMod(index, shapes)) % shapes);
+        }
+        try {
+            return generate();
+        }
+        finally {
+            randObj = sequence;
+            nextShape = shape;
+        }
+    }
+
+    private Scenario drawScenario() {
+        int passCount;
+        int pedCount;
+        int yourPosition;
+        boolean isLegalCrossing;
+        if (sampling == Sampling.UNIFORM) {
+            passCount = randObj.nextInt(passMax-passMin+1) + passMin;
+            pedCount = randObj.nextInt(pedMax-pedMin+1) + pedMin;
+            yourPosition = randObj.nextInt(3); // 0: absent, 1: passenger, 2: pedestrian.
+            isLegalCrossing = randObj.nextInt(2) == 0;
+        }
+        else {
+            // shapes are equally likely, so taking them in turn from a random
+            // start draws each as often as expected, give or take one run
+            int shapes = getShapes();
+            if (nextShape < 0) {
+                nextShape = randObj.nextInt(shapes);
+            }
+            int shape = nextShape;
+            nextShape = (nextShape + 1) % shapes;
+            isLegalCrossing = shape % 2 == 0;
+            yourPosition = (shape / 2) % 3;
+            pedCount = pedMin + (shape / 6) % (pedMax-pedMin+1);
+            passCount = passMin + shape / 6 / (pedMax-pedMin+1);
+        }
         ArrayList<Character> passList = new ArrayList<>();
         ArrayList<Character> pedList= new ArrayList<>();
 
-        Person you = getRandomPerson();
-        you.setAsYou(true);
+        weight = 1;
+        Person you = getRandomPerson(true);
+        if (yourPosition == 0) {
+            // you are drawn but not placed, so your draw does not weigh
+            weight = 1;
+        }
         switch (yourPosition){
             case 1:
                 passList.add(you);
@@ -138,98 +314,150 @@ public class ScenarioGenerator {
         return new Scenario(passList, pedList, isLegalCrossing);
     }
 
+    /**
+     * Generate random scenarios directly into a batch. Draws the same
+     * scenarios as calling generate() the same number of times.
+     * @param batch batch to append scenarios to
+     * @param count number of scenarios
+     * @throws IllegalStateException when sampling is not uniform
+     */
+    public void generate(ScenarioBatch batch, int count) {
+        if (sampling != Sampling.UNIFORM) {
+            throw new IllegalStateException("batches are drawn by uniform sampling only");
+        }
+        for (int n = 0; n < count; n++) {
+            int passCount = randObj.nextInt(passMax-passMin+1) + passMin;
+            int pedCount = randObj.nextInt(pedMax-pedMin+1) + pedMin;
+            int yourPosition = randObj.nextInt(3); // 0: absent, 1: passenger, 2: pedestrian.
+            boolean isLegalCrossing = randObj.nextInt(2) == 0;
+
+            // you is drawn before the lanes, as in drawScenario, then placed in either lane or in neither
+            drawPerson();
+            int youAge = drawn[0];
+            Gender youGender = genders[drawn[1]];
+            BodyType youBodyType = bodyTypes[drawn[2]];
+            Profession youProfession = professions[drawn[3]];
+            boolean youPregnant = drawn[4] == 1;
+
+            batch.beginScenario(isLegalCrossing);
+            if (yourPosition == 1) {
+                batch.addPerson(youAge, youGender, youBodyType, youProfession, youPregnant, true);
+                passCount -= 1;
+            }
+            for (int i = 0; i < passCount ; i++) {
+                addRandomCharacter(batch);
+            }
+            batch.beginPedestrians();
+            if (yourPosition == 2) {
+                batch.addPerson(youAge, youGender, youBodyType, youProfession, youPregnant, true);
+                pedCount -= 1;
+            }
+            for (int i = 0; i < pedCount ; i++) {
+                addRandomCharacter(batch);
+            }
+            batch.endScenario();
+        }
+    }
+
+    private void addRandomCharacter(ScenarioBatch batch) {
+        if (randObj.nextInt(2) == 0) {
+            drawPerson();
+            batch.addPerson(drawn[0], genders[drawn[1]], bodyTypes[drawn[2]], professions[drawn[3]],
+                    drawn[4] == 1, false);
+        }
+        else {
+            drawAnimal();
+            // species codes of a batch start with the Species ordinals
+            batch.addAnimal(drawn[0], drawn[3], genders[drawn[1]], bodyTypes[drawn[2]], drawn[4] == 1);
+        }
+    }
+
     /**
      * Parse a scenario from a config string
      * @param importedFile string of imported configs
      * @return parsed scenario
+     * @see ScenarioReader
      */
     public ArrayList<Scenario> parseScenario(ArrayList<String[]> importedFile) {
-        int lineCount = 1;
-        boolean isGreen = true;
-        ArrayList<Character> passengers = new ArrayList<>();
-        ArrayList<Character> pedestrians = new ArrayList<>();
+        ScenarioParser parser = new ScenarioParser();
         ArrayList<Scenario> scenarios = new ArrayList<>();
 
         for (String[] line : importedFile) {
-            lineCount += 1;
-            try {
-                if (line.length != 10) {
-                    throw new InvalidDataFormatException(
-                            "WARNING: invalid data format in config file in line " + lineCount);
-                }
-                switch (line[0].toLowerCase()){
-                    case "person":
-                        try {
-                            Person person = new Person();
-                            person.setGender(line[1], lineCount);
-                            person.setAge(line[2], lineCount);
-                            person.setBodyType(line[3], lineCount);
-                            person.setProfession(line[4], lineCount);
-                            person.setPregnant(Boolean.parseBoolean(line[5]));
-                            person.setAsYou(Boolean.parseBoolean(line[6]));
-
-                            if (line[9].equals("passenger")) {
-                                passengers.add(person);
-                            }
-                            else {
-                                pedestrians.add(person);
-                            }
-                        }
-                        catch (NumberFormatException e) {
-                            System.out.println("WARNING: invalid number format in config file in line " + lineCount);
-                        }
-                        catch (RuntimeException e) {
-                            System.out.println(e.getMessage());
-                        }
-                        break;
-
-                    case "animal":
-                        try {
-                            Animal animal = new Animal();
-                            animal.setGender(line[1],lineCount);
-                            animal.setAge(line[2], lineCount);
-                            animal.setBodyType(line[3], lineCount);
-                            animal.setPet(Boolean.parseBoolean(line[8]));
-
-                            if (!line[7].equals("")) {
-                                animal.setSpecies(line[7]);
-                            }
-                            else {
-                                animal.setSpecies("dog");
-                            }
-                            if (line[9].equals("passenger")) {
-                                    passengers.add(animal);
-                            }
-                            else {
-                                pedestrians.add(animal);
-                            }
-                        }
-                        catch (RuntimeException e) {
-                            System.out.println(e.getMessage());
-                        }
-                        break;
-
-                    case "scenario:green":
-                    case "scenario:red":
-                        if (lineCount != 2) {
-                            Scenario s = new Scenario(passengers, pedestrians, isGreen);
-                            scenarios.add(s);
-                            passengers = new ArrayList<>();
-                            pedestrians = new ArrayList<>();
-                        }
-                        isGreen = line[0].toLowerCase().equals("scenario:green");
-                        break;
-                }
-            }
-            catch (RuntimeException e) {
-                System.out.println(e.getMessage());
+            Scenario s = parser.parseLine(line);
+            if (s != null) {
+                scenarios.add(s);
             }
         }
-        Scenario s = new Scenario(passengers, pedestrians, isGreen);
-        scenarios.add(s);
+        scenarios.add(parser.finish());
         return scenarios;
     }
 
+    /**
+     * Set how scenarios are drawn by generate()
+     * @param sampling sampling of scenarios
+     */
+    public void setSampling(Sampling sampling) {
+        this.sampling = sampling;
+    }
+
+    /**
+     * Get how scenarios are drawn by generate()
+     * @return sampling of scenarios
+     */
+    public Sampling getSampling() {
+        return sampling;
+    }
+
+    /**
+     * Get the weight of the last generated scenario: its odds over the odds
+     * of drawing it by the current sampling
+     * @return weight, 1 unless importance sampled
+     */
+    public double getWeight() {
+        return weight;
+    }
+
+    /**
+     * Count the shapes of scenarios: passenger counts, pedestrian counts,
+     * positions of you and lights
+     * @return number of shapes
+     */
+    public int getShapes() {
+        return (passMax-passMin+1) * (pedMax-pedMin+1) * 3 * 2;
+    }
+
+    /**
+     * Get minimum passengers
+     * @return minimum passengers
+     */
+    public int getPassengerCountMin() {
+        return passMin;
+    }
+
+    /**
+     * Get maximum passengers
+     * @return maximum passengers
+     */
+    public int getPassengerCountMax() {
+        return passMax;
+    }
+
+    /**
+     * Get minimum pedestrians
+     * @return minimum pedestrians
+     */
+    public int getPedestrianCountMin() {
+        return pedMin;
+    }
+
+    /**
+     * Get maximum pedestrians
+     * @return maximum pedestrians
+     */
+    public int getPedestrianCountMax() {
+        return pedMax;
+    }
+
     /**
      * Set maximum passenger
      * @param passMin maximum passenger
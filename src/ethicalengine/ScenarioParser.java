@@ -0,0 +1,146 @@
+/*
+ * Moral Machine: ethicalengine/ScenarioParser.java
+ * Line-by-line parser of config rows into scenarios.
+ *
+ * ©Runfeng Du
+ */
+package ethicalengine;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+class ScenarioParser {
+    private int lineCount;
+    private final int firstLine;
+    private boolean isGreen = true;
+    private ArrayList<Character> passengers = new ArrayList<>();
+    private ArrayList<Character> pedestrians = new ArrayList<>();
+    private final Consumer<String> warnings;
+    private final ConfigTokenizer tokenizer = new ConfigTokenizer();
+
+    private static final Character.Gender[] GENDERS = Character.Gender.values();
+    private static final Character.BodyType[] BODY_TYPES = Character.BodyType.values();
+    private static final Person.Profession[] PROFESSIONS = Person.Profession.values();
+
+    /**
+     * Default constructor, for rows following the header line
+     */
+    ScenarioParser() {
+        this(2, System.out::println);
+    }
+
+    /**
+     * Constructor with line number and warning output specified
+     * @param firstLine line number of the first row
+     * @param warnings receives warning messages
+     */
+    ScenarioParser(int firstLine, Consumer<String> warnings) {
+        this.firstLine = firstLine;
+        this.lineCount = firstLine - 1;
+        this.warnings = warnings;
+    }
+
+    /**
+     * Parse the next row of a config
+     * @param line fields of the row
+     * @return the scenario completed by this row, or null
+     */
+    Scenario parseLine(String[] line) {
+        byte[] row = String.join(",", line).getBytes(Charset.defaultCharset());
+        return parseLine(row, 0, row.length);
+    }
+
+    /**
+     * Parse the next row of a config from a byte buffer. A valid row
+     * allocates nothing; its character is interned.
+     * @param buffer buffer holding the row
+     * @param start first byte of the row
+     * @param end end of the row (exclusive), without the line end
+     * @return the scenario completed by this row, or null
+     */
+    Scenario parseLine(byte[] buffer, int start, int end) {
+        lineCount += 1;
+        if (tokenizer.split(buffer, start, end) != ConfigTokenizer.FIELDS) {
+            warnings.accept("WARNING: invalid data format in config file in line " + lineCount);
+            return null;
+        }
+        int rowClass = tokenizer.rowClass();
+        switch (rowClass) {
+            case ConfigTokenizer.PERSON_ROW:
+            case ConfigTokenizer.ANIMAL_ROW:
+                // fields are checked in order; an invalid characteristic drops the row
+                int gender = tokenizer.gender(1);
+                if (gender == ConfigTokenizer.INVALID) {
+                    warnInvalidCharacteristic();
+                    return null;
+                }
+                int age = tokenizer.age(2);
+                if (age == ConfigTokenizer.INVALID) {
+                    warnings.accept("WARNING: invalid number format in config file in line " + lineCount);
+                    age = 25;
+                }
+                int bodyType = tokenizer.bodyType(3);
+                if (bodyType == ConfigTokenizer.INVALID) {
+                    warnInvalidCharacteristic();
+                    return null;
+                }
+                Character.Gender g = (gender == ConfigTokenizer.EMPTY) ? Character.Gender.UNKNOWN : GENDERS[gender];
+                Character.BodyType b = (bodyType == ConfigTokenizer.EMPTY) ?
+                        Character.BodyType.UNSPECIFIED : BODY_TYPES[bodyType];
+                Character character;
+                if (rowClass == ConfigTokenizer.PERSON_ROW) {
+                    int profession = tokenizer.profession(4);
+                    if (profession == ConfigTokenizer.INVALID) {
+                        warnInvalidCharacteristic();
+                        return null;
+                    }
+                    // an empty profession stays unknown, others follow Person.setProfession
+                    Person.Profession p = Person.Profession.UNKNOWN;
+                    if (profession != ConfigTokenizer.EMPTY) {
+                        p = (Person.ageCategoryOf(age) == Person.AgeCategory.ADULT) ?
+                                PROFESSIONS[profession] : Person.Profession.NONE;
+                    }
+                    character = CharacterPool.person(age, g, b, p,
+                            tokenizer.bool(5) && g == Character.Gender.FEMALE, tokenizer.bool(6));
+                }
+                else {
+                    character = CharacterPool.animal(age, tokenizer.species(7), g, b, tokenizer.bool(8));
+                }
+                if (tokenizer.isPassenger(9)) {
+                    passengers.add(character);
+                }
+                else {
+                    pedestrians.add(character);
+                }
+                return null;
+
+            case ConfigTokenizer.GREEN_ROW:
+            case ConfigTokenizer.RED_ROW:
+                Scenario s = null;
+                if (lineCount != firstLine) {
+                    s = finish();
+                }
+                isGreen = rowClass == ConfigTokenizer.GREEN_ROW;
+                return s;
+
+            default:
+                return null;
+        }
+    }
+
+    private void warnInvalidCharacteristic() {
+        warnings.accept("WARNING: invalid characteristic in config file in line " + lineCount);
+    }
+
+    /**
+     * Complete the scenario of the rows parsed so far
+     * @return the scenario
+     */
+    Scenario finish() {
+        Scenario s = new Scenario(passengers, pedestrians, isGreen);
+        passengers = new ArrayList<>();
+        pedestrians = new ArrayList<>();
+        return s;
+    }
+}
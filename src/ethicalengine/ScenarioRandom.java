@@ -0,0 +1,57 @@
+/*
+ * Moral Machine: ethicalengine/ScenarioRandom.java
+ * Random number generator with a readable position.
+ *
+ * ©Runfeng Du
+ */
+package ethicalengine;
+
+import java.util.Random;
+
+/*
+ * The linear congruential generator of java.util.Random, whose state is
+ * private there. Every method used by the generator (nextInt, nextLong)
+ * goes through next(bits), so seeded sequences are unchanged.
+ */
+class ScenarioRandom extends Random {
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    // not initialised here: Random's constructor sets it through setSeed
+    private long state;
+
+    /**
+     * Empty constructor
+     */
+    ScenarioRandom() {
+        super();
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    @Override
+    protected int next(int bits) {
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (state >>> (48 - bits));
+    }
+
+    /**
+     * Get the position in the sequence
+     * @return state of generator
+     */
+    long getState() {
+        return state;
+    }
+
+    /**
+     * Continue the sequence from a position
+     * @param state state of generator
+     */
+    void setState(long state) {
+        this.state = state & MASK;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Moral Machine: ethicalengine/ScenarioReader.java
+ * Reads scenarios lazily from a config file or stream.
+ *
+ * ©Runfeng Du
+ */
+package ethicalengine;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class ScenarioReader implements Iterator<Scenario>, Closeable {
+    private final InputStream inputStream;
+    private final ScenarioParser parser = new ScenarioParser();
+    private Scenario next;
+    private boolean isFinished = false;
+
+    // rows are read as slices of a reused buffer
+    private byte[] buffer = new byte[1 << 16];
+    private int position = 0;
+    private int limit = 0;
+    private int lineStart;
+    private int lineEnd;
+    private boolean afterCarriageReturn = false;
+    private boolean isEndOfInput = false;
+
+    /**
+     * Constructor with config file specified
+     * @param path path of config file
+     * @throws FileNotFoundException when the file does not exist
+     */
+    public ScenarioReader(Path path) throws FileNotFoundException {
+        this(new FileInputStream(path.toFile()));
+    }
+
+    /**
+     * Constructor with config stream specified
+     * @param input stream of a config, starting with the header line
+     */
+    public ScenarioReader(InputStream input) {
+        inputStream = input;
+        try {
+            // skip the header line; an empty config still holds one empty scenario
+            if (!nextLine()) {
+                next = parser.finish();
+                isFinished = true;
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Is there another scenario
+     * @return has next?
+     * @throws UncheckedIOException when the config cannot be read
+     */
+    @Override
+    public boolean hasNext() {
+        try {
+            while (next == null && !isFinished) {
+                if (!nextLine()) {
+                    next = parser.finish();
+                    isFinished = true;
+                }
+                else {
+                    next = parser.parseLine(buffer, lineStart, lineEnd);
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return next != null;
+    }
+
+    /**
+     * Find the next line in the buffer, reading more input as needed.
+     * Lines end at \n, \r or \r\n, as with BufferedReader.readLine.
+     * @return is there another line? (bounds in lineStart and lineEnd)
+     * @throws IOException when the config cannot be read
+     */
+    private boolean nextLine() throws IOException {
+        int scanned = position;
+        while (true) {
+            if (afterCarriageReturn && position < limit) {
+                afterCarriageReturn = false;
+                if (buffer[position] == '\n') {
+                    position += 1;
+                }
+                scanned = position;
+            }
+            if (!afterCarriageReturn) {
+                for (int i = scanned; i < limit; i++) {
+                    if (buffer[i] == '\n' || buffer[i] == '\r') {
+                        lineStart = position;
+                        lineEnd = i;
+                        afterCarriageReturn = buffer[i] == '\r';
+                        position = i + 1;
+                        return true;
+                    }
+                }
+                scanned = limit;
+            }
+            if (isEndOfInput) {
+                if (position < limit) {
+                    lineStart = position;
+                    lineEnd = limit;
+                    position = limit;
+                    return true;
+                }
+                return false;
+            }
+            // keep the partial line, growing the buffer for long lines
+            int kept = limit - position;
+            if (kept == buffer.length) {
+                buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+            }
+            else {
+                System.arraycopy(buffer, position, buffer, 0, kept);
+            }
+            scanned -= position;
+            position = 0;
+            limit = kept;
+            int read = inputStream.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                isEndOfInput = true;
+            }
+            else {
+                limit += read;
+            }
+        }
+    }
+
+    /**
+     * Get next scenario
+     * @return the next scenario
+     * @throws NoSuchElementException when no scenario is left
+     */
+    @Override
+    public Scenario next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Scenario s = next;
+        next = null;
+        return s;
+    }
+
+    /**
+     * Get the remaining scenarios as a stream, closing the reader with the stream
+     * @return stream of scenarios
+     */
+    public Stream<Scenario> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(() -> {
+            try {
+                close();
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Close the underlying stream
+     * @throws IOException when closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+}